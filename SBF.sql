@@ -29,12 +29,36 @@ CREATE TABLE IF NOT EXISTS `attributes`  (
 `id` INT NOT NULL AUTO_INCREMENT,
   `bot` varchar(255) CHARACTER SET utf8 COLLATE utf8_general_ci NULL DEFAULT NULL,
   `channel` varchar(255) CHARACTER SET utf8 COLLATE utf8_general_ci NULL DEFAULT NULL,
-  `user` varchar(255) CHARACTER SET utf8 COLLATE utf8_general_ci NULL DEFAULT NULL,
+  `user` varchar(255) CHARACTER SET utf8 COLLATE utf8_general_ci NOT NULL DEFAULT '',
   `key` varchar(255) CHARACTER SET utf8 COLLATE utf8_general_ci NULL DEFAULT NULL,
   `value` varchar(255) CHARACTER SET utf8 COLLATE utf8_general_ci NULL DEFAULT NULL,
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `bot_channel_user_key`(`bot`, `channel`, `user`, `key`) USING BTREE,
+  INDEX `channel_key`(`channel`, `key`, `id`) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8 COLLATE = utf8_general_ci ROW_FORMAT = Dynamic;
 
+-- Existing installations need the indexes as well. Rows without user get an
+-- empty one, NULLs never collide in a unique index. Remove duplicate rows
+-- (keeping the newest one) before adding the unique index:
+-- UPDATE `attributes` SET `user` = '' WHERE `user` IS NULL;
+-- DELETE a FROM `attributes` a JOIN `attributes` b ON a.`bot` <=> b.`bot` AND a.`channel` <=> b.`channel`
+--   AND a.`user` = b.`user` AND a.`key` <=> b.`key` AND a.`id` < b.`id`;
+-- ALTER TABLE `attributes` MODIFY `user` varchar(255) CHARACTER SET utf8 COLLATE utf8_general_ci NOT NULL DEFAULT '',
+--   ADD UNIQUE INDEX `bot_channel_user_key`(`bot`, `channel`, `user`, `key`),
+--   ADD INDEX `channel_key`(`channel`, `key`, `id`);
+
+-- ----------------------------
+-- Table structure for conversation state
+-- ----------------------------
+CREATE TABLE IF NOT EXISTS `conversation_state`  (
+  `owner` varchar(255) CHARACTER SET utf8 COLLATE utf8_general_ci NOT NULL,
+  `channel` varchar(255) CHARACTER SET utf8 COLLATE utf8_general_ci NOT NULL,
+  `state` MEDIUMTEXT CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL,
+  `version` BIGINT NOT NULL DEFAULT 1,
+  `updated` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  PRIMARY KEY (`owner`, `channel`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8 COLLATE = utf8_general_ci ROW_FORMAT = Dynamic;
+
 -- ----------------------------
 -- Table structure for users
 -- ----------------------------
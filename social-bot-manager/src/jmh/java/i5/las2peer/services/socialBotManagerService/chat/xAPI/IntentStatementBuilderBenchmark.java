@@ -0,0 +1,90 @@
+package i5.las2peer.services.socialBotManagerService.chat.xAPI;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.minidev.json.JSONObject;
+import net.minidev.json.parser.JSONParser;
+import net.minidev.json.parser.ParseException;
+
+/**
+ * Builds the xAPI statement of a chat message with IntentStatementBuilder and
+ * with the string concatenation and parsing it replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IntentStatementBuilderBenchmark {
+
+	// the old statement broke on single quotes, so the texts have none
+	@Param({ "short", "long" })
+	public String message;
+
+	private final IntentStatementBuilder builder = IntentStatementBuilder.createDefault();
+	private final String userMail = "0f1e2d3c4b5a69788796a5b4c3d2e1f00f1e2d3c4b5a69788796a5b4c3d2e1f00f1e2d3c4b5a69788796a5b4c3d2e1f0";
+	private final String botName = "MentoringBot";
+	private String intent;
+	private String text;
+
+	@Setup
+	public void setUp() {
+		if (message.equals("short")) {
+			intent = "greeting";
+			text = "Hi!";
+		} else {
+			intent = "ask_assignment_deadline";
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 10; i++) {
+				sb.append("When is the deadline for the second assignment of the databases course? ");
+			}
+			text = sb.toString();
+		}
+	}
+
+	@Benchmark
+	public String builder() {
+		return builder.build(userMail, botName, intent, text);
+	}
+
+	@Benchmark
+	public String parsed() throws ParseException {
+		JSONParser p = new JSONParser(JSONParser.MODE_PERMISSIVE);
+		JSONObject actor = new JSONObject();
+		actor.put("objectType", "Agent");
+		JSONObject account = new JSONObject();
+		account.put("name", userMail);
+		account.put("homePage", "https://chat.tech4comp.dbis.rwth-aachen.de");
+		actor.put("account", account);
+		JSONObject verb = (JSONObject) p.parse(
+				"{'display':{'en-US':'sent_chat_message'},'id':'https://tech4comp.de/xapi/verb/sent_chat_message'}");
+		JSONObject object = (JSONObject) p.parse("{'definition':{'interactionType':'other', 'name':{'en-US':'"
+				+ intent + "'}, 'description':{'en-US':'" + intent
+				+ "'}, 'type':'https://tech4comp.de/xapi/activitytype/bot'},'id':'https://tech4comp.de/bot/" + botName
+				+ "', 'objectType':'Activity'}");
+		JSONObject context = (JSONObject) p
+				.parse("{'extensions':{'https://tech4comp.de/xapi/context/extensions/intent':{'botName':'" + botName
+						+ "','text':'" + text + "'}}}");
+		JSONObject xAPI = new JSONObject();
+		xAPI.put("authority",
+				p.parse("{'objectType': 'Agent','name': 'New Client', 'mbox': 'mailto:hello@learninglocker.net'}"));
+		xAPI.put("context", context);
+		xAPI.put("actor", actor);
+		xAPI.put("object", object);
+		xAPI.put("verb", verb);
+		return xAPI.toJSONString();
+	}
+}
@@ -0,0 +1,104 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import i5.las2peer.services.socialBotManagerService.nlu.Entity;
+
+/**
+ * Fills in chat responses with compiled templates and with the string
+ * replacement Messenger used before.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseTemplateBenchmark {
+
+	@Param({ "plain", "placeholders", "long" })
+	public String response;
+
+	private String text;
+	private ResponseTemplate template;
+	private final Collection<Entity> entities = new ArrayList<Entity>(
+			Arrays.asList(new Entity("course", "Databases"), new Entity("assignment", "2")));
+	private final Map<String, String> variables = new HashMap<String, String>();
+	private final Function<String, String> storedEntities = name -> name.equals("deadline") ? "Friday, 23:59" : "";
+
+	@Setup
+	public void setUp() {
+		variables.put("name", "Alex");
+		variables.put("points", "17");
+		if (response.equals("plain")) {
+			text = "Hello! I am the mentoring bot of your course.\\nType !help to see what I can do.";
+		} else if (response.equals("placeholders")) {
+			text = "Hi [name], assignment [assignment] of [course] is due on [deadline].\\nYou have [points] points so far.";
+		} else {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 10; i++) {
+				sb.append("[name], in [course] you have [points] points, the next deadline is [deadline].\\n");
+				sb.append("Ask me about [unknown] topics or send a file.\\n");
+			}
+			text = sb.toString();
+		}
+		template = ResponseTemplate.compileResponse(text);
+	}
+
+	@Benchmark
+	public String template() {
+		return template.render(entities, variables, storedEntities);
+	}
+
+	@Benchmark
+	public String replace() {
+		String split = "";
+		for (int i = 0; i < text.split("\\\\n").length; i++) {
+			split += text.split("\\\\n")[i] + " \n ";
+		}
+		if (split.contains("[") && split.contains("]")) {
+			String[] entitySplit1 = split.split("\\[");
+			ArrayList<String> entitySplit2 = new ArrayList<String>();
+			for (int i = 1; i < entitySplit1.length; i++) {
+				entitySplit2.add(entitySplit1[i].split("\\]")[0]);
+			}
+			for (String entityName : entitySplit2) {
+				for (Entity entity : entities) {
+					if (entityName.equals(entity.getEntityName()) && entity.getValue() != null) {
+						split = split.replace("[" + entity.getEntityName() + "]", entity.getValue());
+					}
+				}
+			}
+		}
+		for (String key : variables.keySet()) {
+			split = split.replace("[" + key + "]", variables.get(key));
+		}
+		String[] names = split.split("\\[");
+		for (int i = 1; i < names.length; i++) {
+			String name = names[i].split("\\]")[0];
+			String value = storedEntities.apply(name);
+			if (!value.equals("")) {
+				split = split.replace("[" + name + "]", value);
+			}
+		}
+		return split;
+	}
+}
@@ -1,13 +1,9 @@
 package i5.las2peer.services.socialBotManagerService;
 
-import java.math.BigInteger;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLEncoder;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.security.SecureRandom;
@@ -17,7 +13,6 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.Executors;
@@ -33,6 +28,7 @@ import javax.websocket.DeploymentException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -40,6 +36,8 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.WebTarget;
@@ -49,7 +47,6 @@ import org.glassfish.jersey.media.multipart.FormDataMultiPart;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
 import org.glassfish.jersey.media.multipart.file.FileDataBodyPart;
 import org.apache.commons.io.FileUtils;
-import org.apache.tika.Tika;
 
 import com.google.gson.Gson;
 
@@ -79,14 +76,26 @@ import i5.las2peer.restMapper.RESTService;
 import i5.las2peer.restMapper.annotations.ServicePath;
 import i5.las2peer.security.BotAgent;
 import i5.las2peer.services.socialBotManagerService.chat.*;
+import i5.las2peer.services.socialBotManagerService.chat.xAPI.IntentStatementBuilder;
+import i5.las2peer.services.socialBotManagerService.chat.xAPI.XAPIStatementSender;
 import i5.las2peer.services.socialBotManagerService.chat.github.GitHubWebhookReceiver;
 import i5.las2peer.services.socialBotManagerService.chat.xAPI.ChatStatement;
+import i5.las2peer.services.socialBotManagerService.database.EntityStore;
+import i5.las2peer.services.socialBotManagerService.database.MongoFileStore;
+import i5.las2peer.services.socialBotManagerService.database.MongoFileStore.FileTooLargeException;
+import i5.las2peer.services.socialBotManagerService.database.MongoFileStore.StoredFile;
 import i5.las2peer.services.socialBotManagerService.database.SQLDatabase;
+import i5.las2peer.services.socialBotManagerService.database.SQLConversationStateStore;
 import i5.las2peer.services.socialBotManagerService.database.SQLDatabaseType;
 import i5.las2peer.services.socialBotManagerService.model.ActionType;
 import i5.las2peer.services.socialBotManagerService.model.Bot;
 import i5.las2peer.services.socialBotManagerService.model.BotConfiguration;
+import i5.las2peer.services.socialBotManagerService.model.BotRegistry;
+import i5.las2peer.services.socialBotManagerService.model.ChannelExecutor;
+import i5.las2peer.services.socialBotManagerService.model.ChannelRing;
+import i5.las2peer.services.socialBotManagerService.model.ChannelSessions;
 import i5.las2peer.services.socialBotManagerService.model.BotModel;
+import i5.las2peer.services.socialBotManagerService.model.BotModelCodec;
 import i5.las2peer.services.socialBotManagerService.model.BotModelEdge;
 import i5.las2peer.services.socialBotManagerService.model.BotModelNode;
 import i5.las2peer.services.socialBotManagerService.model.BotModelNodeAttribute;
@@ -94,14 +103,25 @@ import i5.las2peer.services.socialBotManagerService.model.BotModelValue;
 import i5.las2peer.services.socialBotManagerService.model.IfThenBlock;
 import i5.las2peer.services.socialBotManagerService.model.IncomingMessage;
 import i5.las2peer.services.socialBotManagerService.model.MessageInfo;
+import i5.las2peer.services.socialBotManagerService.model.MessageDispatcher;
+import i5.las2peer.services.socialBotManagerService.model.Pseudonymizer;
 import i5.las2peer.services.socialBotManagerService.model.Messenger;
 import i5.las2peer.services.socialBotManagerService.model.ServiceFunction;
 import i5.las2peer.services.socialBotManagerService.model.ServiceFunctionAttribute;
+import i5.las2peer.services.socialBotManagerService.model.IntentTriggerEvent;
+import i5.las2peer.services.socialBotManagerService.model.RoutineScheduler;
+import i5.las2peer.services.socialBotManagerService.model.RoutineTriggerEvent;
 import i5.las2peer.services.socialBotManagerService.model.Trigger;
+import i5.las2peer.services.socialBotManagerService.model.TriggerEventBus;
+import i5.las2peer.services.socialBotManagerService.model.TriggerExecutor;
 import i5.las2peer.services.socialBotManagerService.model.TriggerFunction;
+import i5.las2peer.services.socialBotManagerService.model.TriggerTable;
 import i5.las2peer.services.socialBotManagerService.model.BotRoutine;
+import i5.las2peer.services.socialBotManagerService.model.ConversationHistory;
 import i5.las2peer.services.socialBotManagerService.model.ConversationMessage;
 import i5.las2peer.services.socialBotManagerService.nlu.Entity;
+import i5.las2peer.services.socialBotManagerService.nlu.IntentCache;
+import i5.las2peer.services.socialBotManagerService.nlu.RasaNluClient;
 import i5.las2peer.services.socialBotManagerService.nlu.TrainingHelper;
 import i5.las2peer.services.socialBotManagerService.parser.BotParser;
 import i5.las2peer.services.socialBotManagerService.parser.ParseBotException;
@@ -118,27 +138,14 @@ import net.minidev.json.JSONArray;
 import net.minidev.json.JSONObject;
 import net.minidev.json.parser.JSONParser;
 import net.minidev.json.parser.ParseException;
-import com.mongodb.client.MongoClient;
-import com.mongodb.client.MongoClients;
-import com.mongodb.ConnectionString;
-import com.mongodb.MongoClientSettings;
 import com.mongodb.MongoException;
-import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.gridfs.GridFSBucket;
-import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.GridFSDownloadStream;
 import com.mongodb.client.gridfs.model.GridFSFile;
 import com.mongodb.client.model.Filters;
-import org.bson.Document;
-import org.bson.UuidRepresentation;
-import org.bson.codecs.configuration.CodecRegistry;
-import org.bson.codecs.pojo.PojoCodecProvider;
-import org.bson.BsonDocument;
-import org.bson.BsonInt64;
 import org.bson.BsonObjectId;
-import org.bson.conversions.Bson;
+import org.bson.Document;
 import org.bson.types.ObjectId;
-import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
-import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 
 /**
  * las2peer-SocialBotManager-Service
@@ -180,6 +187,16 @@ public class SocialBotManagerService extends RESTService {
 	private String mongoDB;
 	private String mongoUri;
 	private String mongoAuth = "admin";
+	private int mongoMaxPoolSize = MongoFileStore.DEFAULT_MAX_POOL_SIZE;
+	private int mongoMinPoolSize = MongoFileStore.DEFAULT_MIN_POOL_SIZE;
+	private int mongoMaxIdleTime = MongoFileStore.DEFAULT_MAX_IDLE_TIME; // ms
+	private int mongoConnectTimeout = MongoFileStore.DEFAULT_CONNECT_TIMEOUT; // ms
+	// shared by all file requests, closed when the service stops
+	private static MongoFileStore mongoFileStore = null;
+	private int chatFileMaxUploads = MongoFileStore.DEFAULT_MAX_CONCURRENT_UPLOADS;
+	private long chatFileMaxSize = MongoFileStore.DEFAULT_MAX_FILE_SIZE; // bytes
+	// whether service functions also get the content of uploaded files Base64 encoded, for legacy receivers
+	private boolean inlineChatFiles = false;
 
 	private static final String ENVELOPE_MODEL = "SBF_MODELLIST";
 
@@ -193,14 +210,64 @@ public class SocialBotManagerService extends RESTService {
 	private static final String botPass = "actingAgent";
 
 	private static ScheduledExecutorService rt = null;
+	// polls the chat mediators, new messages are usually pushed by the MessageDispatcher
+	private static ScheduledExecutorService mt = null;
 
 	private int BOT_ROUTINE_PERIOD = 5; // 1 second
+	private int channelWorkerThreads = ChannelExecutor.DEFAULT_POOL_SIZE; // threads handling incoming chat messages
+	private int rasaMaxConcurrentRequests = RasaNluClient.DEFAULT_MAX_CONCURRENT_REQUESTS; // per Rasa server
+	private int rasaConnectTimeout = RasaNluClient.DEFAULT_CONNECT_TIMEOUT; // ms
+	private int rasaRequestTimeout = RasaNluClient.DEFAULT_REQUEST_TIMEOUT; // ms
+	private int intentCacheSize = IntentCache.DEFAULT_MAX_SIZE; // cached Rasa parse results
+	private int intentCacheTtl = IntentCache.DEFAULT_TTL; // seconds
+	private int entityFlushInterval = EntityStore.DEFAULT_FLUSH_INTERVAL; // ms between entity writes
+	private int entityBatchSize = EntityStore.DEFAULT_BATCH_SIZE; // max entities per INSERT
+	private int entityCacheChannels = EntityStore.DEFAULT_CACHED_CHANNELS; // channels with cached entities
+	private int entityCacheIdleTime = EntityStore.DEFAULT_CHANNEL_IDLE_TIME; // seconds
+	private String modelCodec = BotModelCodec.DEFAULT_CODEC; // format of stored BotModels (smile or json)
+	private int moodleMaxDiscussions = MoodleForumMediator.DEFAULT_MAX_DISCUSSIONS; // per Moodle forum messenger
+	private int moodleDiscussionTtl = MoodleForumMediator.DEFAULT_DISCUSSION_TTL; // seconds
+	private String moodleDiscussionDir = ""; // directory forum discussions are saved in, empty to not save them
+	private int moodleUserCacheSize = MoodleForumMediator.DEFAULT_USER_CACHE_SIZE; // cached Moodle user ids
+	private int moodleUserIdTtl = MoodleForumMediator.DEFAULT_USER_ID_TTL; // seconds
+	private int xapiQueueSize = XAPIStatementSender.DEFAULT_QUEUE_SIZE; // statements kept in memory
+	private int xapiBatchSize = XAPIStatementSender.DEFAULT_BATCH_SIZE; // statements per request to the LRS
+	private int xapiFlushInterval = XAPIStatementSender.DEFAULT_FLUSH_INTERVAL; // ms
+	private int xapiMaxRetries = XAPIStatementSender.DEFAULT_MAX_RETRIES;
+	private String xapiSpoolDir = ""; // directory for statements the LRS did not accept in time
+	private String pseudonymizationKey = ""; // HMAC key for user pseudonyms, empty for plain SHA-384
+	private int pseudonymCacheSize = Pseudonymizer.DEFAULT_CACHE_SIZE;
+	private String routineTimeZone = ""; // zone of routine times without zone, empty for the system zone
+	private int routineCatchUpWindow = RoutineScheduler.DEFAULT_CATCH_UP_WINDOW; // seconds
+	private String routineStateFile = "etc/routine-state.properties"; // last routine runs, empty to not save them
+	private int triggerEventThreads = TriggerEventBus.DEFAULT_THREADS; // threads handling forwarded messages and routines
+	private int triggerEventQueueSize = TriggerEventBus.DEFAULT_QUEUE_SIZE;
+	private int triggerMaxConcurrent = TriggerExecutor.DEFAULT_MAX_CONCURRENT; // trigger endpoint tasks running at once
+	private int triggerPerBotLimit = TriggerExecutor.DEFAULT_PER_BOT_LIMIT; // of these, tasks of the same bot
+	private int triggerQueueSize = TriggerExecutor.DEFAULT_QUEUE_SIZE;
+	private String triggerRejectionPolicy = TriggerExecutor.ABORT; // abort, caller_runs or discard_oldest
+	private int triggerDrainTimeout = TriggerExecutor.DEFAULT_DRAIN_TIMEOUT; // seconds
+	private String conversationStateStore = "memory"; // memory or mysql
+	private int conversationStateCacheSize = SQLConversationStateStore.DEFAULT_CACHE_SIZE; // channels
+	private int conversationStateFlushInterval = SQLConversationStateStore.DEFAULT_FLUSH_INTERVAL; // ms
+	private String clusterNodeId = ""; // id of this node, empty if it runs alone
+	private String clusterNodes = ""; // comma separated ids of all nodes sharing the conversation states
+	private int clusterVirtualNodes = ChannelRing.DEFAULT_VIRTUAL_NODES;
+	private String clusterNodeUrls = ""; // comma separated id=URL pairs of the SBFManager service of each node
+	private int channelSessionMaxSize = ChannelSessions.DEFAULT_MAX_SESSIONS; // sessions per messenger
+	private int channelSessionIdleTime = ChannelSessions.DEFAULT_IDLE_TIME; // seconds
+	private int conversationHistorySize = ConversationHistory.DEFAULT_CAPACITY; // messages kept per channel
 
 	private TrainingHelper nluTrain = null;
 	private Thread nluTrainThread = null;
 	private static final L2pLogger logger = L2pLogger.getInstance(SocialBotManagerService.class.getName());
 	private Context l2pcontext = null;
 	private static BotAgent restarterBot = null;
+	private static final IntentStatementBuilder intentStatementBuilder = IntentStatementBuilder.createDefault();
+
+	public MongoFileStore getMongoFileStore() {
+		return mongoFileStore;
+	}
 
 	public Context getL2pcontext() {
 		return l2pcontext;
@@ -216,6 +283,49 @@ public class SocialBotManagerService extends RESTService {
 		restarterBotNameStatic = restarterBotName;
 		restarterBotPWStatic = restarterBotPW;
 		webconnectorUrlStatic = webconnectorUrl;
+		ChannelExecutor.setPoolSize(channelWorkerThreads);
+		RasaNluClient.configure(rasaMaxConcurrentRequests, rasaConnectTimeout, rasaRequestTimeout);
+		IntentCache.getInstance().configure(intentCacheSize, intentCacheTtl);
+		EntityStore.configure(entityFlushInterval, entityBatchSize);
+		EntityStore.configureCache(entityCacheChannels, entityCacheIdleTime);
+		BotModelCodec.setDefault(modelCodec);
+		MoodleForumMediator.configure(moodleMaxDiscussions, moodleDiscussionTtl, moodleDiscussionDir);
+		MoodleForumMediator.configureUserCache(moodleUserCacheSize, moodleUserIdTtl);
+		lrsURLStatic = lrsURL;
+		lrsAuthTokenStatic = lrsAuthToken;
+		XAPIStatementSender.getInstance().configure(lrsURL, lrsAuthToken, xapiQueueSize, xapiBatchSize,
+				xapiFlushInterval, xapiMaxRetries, xapiSpoolDir);
+		Pseudonymizer.getInstance().configure(pseudonymizationKey, pseudonymCacheSize);
+		RoutineScheduler.getInstance().configure(routineTimeZone, routineCatchUpWindow, routineStateFile);
+		SQLConversationStateStore.configure(conversationStateStore, conversationStateCacheSize,
+				conversationStateFlushInterval);
+		ChannelRing.getInstance().configure(clusterNodeId, clusterNodes, clusterVirtualNodes,
+				clusterNodeUrls);
+		ChannelSessions.configure(channelSessionMaxSize, channelSessionIdleTime);
+		ConversationHistory.configure(conversationHistorySize);
+		TriggerExecutor.getInstance().configure(triggerMaxConcurrent, triggerPerBotLimit, triggerQueueSize,
+				triggerRejectionPolicy, triggerDrainTimeout);
+		TriggerEventBus eventBus = TriggerEventBus.getInstance();
+		eventBus.configure(triggerEventThreads, triggerEventQueueSize);
+		eventBus.setHandler(IntentTriggerEvent.class, e -> {
+			try {
+				handleIntentTrigger(e);
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		});
+		eventBus.setHandler(RoutineTriggerEvent.class, e -> {
+			try {
+				handleRoutineTrigger(e);
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		});
+		RoutineScheduler.getInstance().setHandler((bot, routine) -> {
+			for (Trigger t : routine.getTrigger()) {
+				eventBus.publish(new RoutineTriggerEvent(bot, routine, t.getTriggeredFunction()));
+			}
+		});
 		TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
 			@Override
 			public X509Certificate[] getAcceptedIssuers() {
@@ -259,39 +369,61 @@ public class SocialBotManagerService extends RESTService {
 
 		// mongo db connection for exchanging files
 		mongoUri = "mongodb://" + mongoUser + ":" + mongoPassword + "@" + mongoHost + "/?authSource=" + mongoAuth;
-		// Construct a ServerApi instance using the ServerApi.builder() method
-		CodecRegistry pojoCodecRegistry = fromProviders(PojoCodecProvider.builder().automatic(true).build());
-		CodecRegistry codecRegistry = fromRegistries(MongoClientSettings.getDefaultCodecRegistry(), pojoCodecRegistry);
-		MongoClientSettings settings = MongoClientSettings.builder()
-				.uuidRepresentation(UuidRepresentation.STANDARD)
-				.applyConnectionString(new ConnectionString(mongoUri))
-				.codecRegistry(codecRegistry)
-				.build();
-
-		// Create a new client and connect to the server
-		MongoClient mongoClient = MongoClients.create(settings);
-		// Create a new client and connect to the server
-		try {
-			MongoDatabase database = mongoClient.getDatabase(mongoDB);
-			// Send a ping to confirm a successful connection
-			Bson command = new BsonDocument("ping", new BsonInt64(1));
-			Document commandResult = database.runCommand(command);
-			System.out.println("Pinged your deployment. You successfully connected to MongoDB!");
-		} catch (MongoException me) {
-			System.err.println(me);
-		} catch (Exception e) {
-			System.err.println(e);
-		} finally {
-			mongoClient.close();
+		if (mongoFileStore == null || mongoFileStore.isClosed()) {
+			try {
+				mongoFileStore = new MongoFileStore(mongoUri, mongoDB, mongoMaxPoolSize, mongoMinPoolSize,
+						mongoMaxIdleTime, mongoConnectTimeout);
+				mongoFileStore.configureUploads(chatFileMaxUploads, chatFileMaxSize);
+				if (mongoFileStore.isHealthy()) {
+					System.out.println("Pinged your deployment. You successfully connected to MongoDB!");
+				}
+			} catch (Exception e) {
+				System.err.println(e);
+			}
 		}
 
+		MessageDispatcher.getInstance().setConsumer(m -> eventBus.publish(new IntentTriggerEvent(m)));
 		if (rt == null) {
 			rt = Executors.newSingleThreadScheduledExecutor();
-			rt.scheduleAtFixedRate(new RoutineThread(), 0, BOT_ROUTINE_PERIOD, TimeUnit.SECONDS);
+			rt.scheduleAtFixedRate(new RestartThread(), 0, BOT_ROUTINE_PERIOD, TimeUnit.SECONDS);
+		}
+		if (mt == null) {
+			mt = Executors.newSingleThreadScheduledExecutor();
+			mt.scheduleWithFixedDelay(new MessagePollThread(), 0, BOT_ROUTINE_PERIOD, TimeUnit.SECONDS);
 		}
 		L2pLogger.setGlobalConsoleLevel(Level.WARNING);
 	}
 
+	/**
+	 * Stops the background work when the service is stopped. Nothing new is
+	 * polled or triggered, the running trigger tasks and the messages queued for
+	 * the channels finish, then the forum discussions, queued conversation states,
+	 * entities and xAPI statements are written and the MongoDB client is closed.
+	 */
+	@Override
+	public void onStop() {
+		RoutineScheduler.getInstance().stop();
+		if (rt != null) {
+			rt.shutdownNow();
+			rt = null;
+		}
+		if (mt != null) {
+			mt.shutdownNow();
+			mt = null;
+		}
+		TriggerEventBus.getInstance().shutdown();
+		TriggerExecutor.getInstance().shutdown();
+		MoodleForumMediator.saveAll();
+		ChannelExecutor.shutdown();
+		SQLConversationStateStore.closeAll();
+		EntityStore.closeAll();
+		XAPIStatementSender.getInstance().stop();
+		if (mongoFileStore != null) {
+			mongoFileStore.close();
+		}
+		super.onStop();
+	}
+
 	@Override
 	protected void initResources() {
 		getResourceConfig().register(BotResource.class);
@@ -394,6 +526,102 @@ public class SocialBotManagerService extends RESTService {
 		}
 	}
 
+	@GET
+	@Path("/intentCache")
+	@Produces(MediaType.APPLICATION_JSON)
+	@ApiOperation(value = "Returns the hit and miss counters of the cache for Rasa parse results.", notes = "")
+	public Response getIntentCacheStatistics() {
+		IntentCache cache = IntentCache.getInstance();
+		JSONObject stats = new JSONObject();
+		stats.put("hits", cache.getHits());
+		stats.put("misses", cache.getMisses());
+		stats.put("size", cache.size());
+		return Response.ok().entity(stats.toJSONString()).build();
+	}
+
+	@GET
+	@Path("/xAPI/queue")
+	@Produces(MediaType.APPLICATION_JSON)
+	@ApiOperation(value = "Returns the state of the queue of xAPI statements for the LRS.", notes = "")
+	public Response getXAPIQueueStatistics() {
+		XAPIStatementSender sender = XAPIStatementSender.getInstance();
+		JSONObject stats = new JSONObject();
+		stats.put("enabled", sender.isEnabled());
+		stats.put("queued", sender.getQueueDepth());
+		stats.put("spooled", sender.getSpooled());
+		stats.put("sent", sender.getSent());
+		stats.put("dropped", sender.getDropped());
+		stats.put("failedRequests", sender.getFailedRequests());
+		return Response.ok().entity(stats.toJSONString()).build();
+	}
+
+	@GET
+	@Path("/triggers/stats")
+	@Produces(MediaType.APPLICATION_JSON)
+	@ApiOperation(value = "Returns the state of the executor running the triggered bot actions.", notes = "")
+	public Response getTriggerStatistics() {
+		TriggerExecutor executor = TriggerExecutor.getInstance();
+		JSONObject stats = new JSONObject();
+		stats.put("virtualThreads", executor.usesVirtualThreads());
+		stats.put("running", executor.getRunning());
+		stats.put("queued", executor.getQueueDepth());
+		stats.put("submitted", executor.getSubmitted());
+		stats.put("completed", executor.getCompleted());
+		stats.put("failed", executor.getFailed());
+		stats.put("rejected", executor.getRejected());
+		stats.put("discarded", executor.getDiscarded());
+		stats.put("averageWaitTime", executor.getAverageWaitTime());
+		stats.put("averageRunTime", executor.getAverageRunTime());
+		stats.put("maxRunTime", executor.getMaxRunTime());
+		TriggerEventBus eventBus = TriggerEventBus.getInstance();
+		JSONObject events = new JSONObject();
+		events.put("queued", eventBus.getQueueDepth());
+		events.put("published", eventBus.getPublished());
+		events.put("failed", eventBus.getFailed());
+		events.put("unhandled", eventBus.getUnhandled());
+		stats.put("events", events);
+		return Response.ok().entity(stats.toJSONString()).build();
+	}
+
+	@GET
+	@Path("/sessions/stats")
+	@Produces(MediaType.APPLICATION_JSON)
+	@ApiOperation(value = "Returns the number and estimated size of the channel sessions kept in memory.", notes = "")
+	public Response getSessionStatistics() {
+		JSONObject stats = new JSONObject();
+		stats.put("activeSessions", ChannelSessions.getActiveSessions());
+		stats.put("retainedBytes", ChannelSessions.getRetainedBytes());
+		stats.put("evicted", ChannelSessions.getEvicted());
+		return Response.ok().entity(stats.toJSONString()).build();
+	}
+
+	@GET
+	@Path("/channels/{channel}/owner")
+	@Produces(MediaType.APPLICATION_JSON)
+	@ApiOperation(value = "Returns the node owning the conversations of a channel.", notes = "Can be used to route the requests of a channel to its owner.")
+	public Response getChannelOwner(@PathParam("channel") String channel) {
+		ChannelRing ring = ChannelRing.getInstance();
+		JSONObject owner = new JSONObject();
+		owner.put("channel", channel);
+		owner.put("node", ring.getOwner(channel));
+		owner.put("local", ring.isOwner(channel));
+		owner.put("url", ring.getOwnerUrl(channel));
+		return Response.ok().entity(owner.toJSONString()).build();
+	}
+
+	@GET
+	@Path("/files/health")
+	@Produces(MediaType.TEXT_PLAIN)
+	@ApiOperation(value = "Checks the connection to the MongoDB server storing the chat files.", notes = "")
+	@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "MongoDB reachable"),
+			@ApiResponse(code = HttpURLConnection.HTTP_UNAVAILABLE, message = "MongoDB not reachable") })
+	public Response getFileStoreHealth() {
+		if (mongoFileStore != null && mongoFileStore.isHealthy()) {
+			return Response.ok("OK").build();
+		}
+		return Response.status(Status.SERVICE_UNAVAILABLE).entity("MongoDB not reachable").build();
+	}
+
 	@GET
 	@Path("/{rasaUrl}/intents")
 	@Produces(MediaType.APPLICATION_JSON)
@@ -786,7 +1014,7 @@ public class SocialBotManagerService extends RESTService {
 			String returnString = "Routine is running.";
 			SocialBotManagerService sbf = this.sbfservice;
 			String addr = sbf.webconnectorUrl;
-			new Thread(new Runnable() {
+			boolean accepted = TriggerExecutor.getInstance().submit(name, new Runnable() {
 				@Override
 				public void run() {
 					try {
@@ -807,17 +1035,15 @@ public class SocialBotManagerService extends RESTService {
 						} catch (Exception e) {
 							e.printStackTrace();
 						}
-						try {
-							Thread.sleep(500);
-						} catch (InterruptedException e) {
-							e.printStackTrace();
-						}
 					} catch (Exception e) {
 						e.printStackTrace();
 					}
 					System.out.println("Routine finished.");
 				}
-			}).start();
+			});
+			if (!accepted) {
+				return Response.status(Status.SERVICE_UNAVAILABLE).entity("Too many triggers, try again later.").build();
+			}
 			return Response.ok().entity(returnString).build();
 		}
 
@@ -943,7 +1169,7 @@ public class SocialBotManagerService extends RESTService {
 				Context.get().monitorEvent(MonitoringEvent.SERVICE_CUSTOM_MESSAGE_80, body);
 
 				SocialBotManagerService sbf = this.sbfservice;
-				new Thread(new Runnable() {
+				boolean accepted = TriggerExecutor.getInstance().submit(name, new Runnable() {
 					@Override
 					public void run() {
 						String messengerName = "";
@@ -988,17 +1214,15 @@ public class SocialBotManagerService extends RESTService {
 							} catch (Exception e) {
 								e.printStackTrace();
 							}
-							try {
-								Thread.sleep(500);
-							} catch (InterruptedException e) {
-								e.printStackTrace();
-							}
 						} catch (Exception e) {
 							e.printStackTrace();
 						}
 
 					}
-				}).start();
+				});
+				if (!accepted) {
+					return Response.status(Status.SERVICE_UNAVAILABLE).entity("Too many triggers, try again later.").build();
+				}
 				return Response.ok().build();
 
 			} catch (Exception e) {
@@ -1018,28 +1242,20 @@ public class SocialBotManagerService extends RESTService {
 				@PathParam("instanceAlias") String instanceAlias,
 				@PathParam("token") String token) {
 
-			new Thread(new Runnable() {
+			// Identify bot
+			BotRegistry.Route route = BotRegistry.getInstance().getByToken(ChatService.SLACK, token);
+			if (route == null) {
+				System.out.println("cannot relate slack action to a bot with token: " + token);
+				return Response.status(Status.NOT_FOUND).entity("No bot with this token.").build();
+			}
+			Bot bot = route.getBot();
+			System.out.println("slack action: bot identified: " + bot.getName());
+
+			boolean accepted = TriggerExecutor.getInstance().submit(bot.getName(), new Runnable() {
 				@Override
 				public void run() {
-
-					// Identify bot
-					Bot bot = null;
-
-					for (Bot b : getConfig().getBots().values()) {
-						if (bot.getMessenger(ChatService.SLACK) != null) {
-							ChatMediator mediator = bot.getMessenger(ChatService.SLACK)
-									.getChatMediator();
-							if (mediator.hasToken(token))
-								bot = b;
-						}
-					}
-
-					if (bot == null)
-						System.out.println("cannot relate slack action to a bot with token: " + token);
-					System.out.println("slack action: bot identified: " + bot.getName());
-
 					// Handle action
-					Messenger messenger = bot.getMessenger(ChatService.SLACK);
+					Messenger messenger = route.getMessenger();
 					SlackChatMediator mediator = (SlackChatMediator) messenger.getChatMediator();
 					JSONParser jsonParser = new JSONParser(JSONParser.MODE_PERMISSIVE);
 					JSONObject parsedBody;
@@ -1051,7 +1267,10 @@ public class SocialBotManagerService extends RESTService {
 						e.printStackTrace();
 					}
 				}
-			}).start();
+			});
+			if (!accepted) {
+				return Response.status(Status.SERVICE_UNAVAILABLE).entity("Too many triggers, try again later.").build();
+			}
 			return Response.ok().build();
 		}
 
@@ -1064,30 +1283,14 @@ public class SocialBotManagerService extends RESTService {
 		public Response triggerIntent(String body, @PathParam("botName") String name) {
 			Gson gson = new Gson();
 			MessageInfo m = gson.fromJson(body, MessageInfo.class);
-			JSONParser parser = new JSONParser(JSONParser.MODE_PERMISSIVE);
-			try {
-				JSONObject message = (JSONObject) parser.parse(body);
-				JSONObject cleanedJson = (JSONObject) message.get("message");
-				cleanedJson.put("user", encryptThisString(cleanedJson.getAsString("user")));
-				if (cleanedJson.containsKey("email")) {
-					cleanedJson.put("email", encryptThisString(cleanedJson.getAsString("email")));
-					JSONObject xAPI = createXAPIStatement(cleanedJson.getAsString("email"), name,
-							m.getIntent().getKeyword(), m.getMessage().getText());
-					sendXAPIStatement(xAPI, lrsAuthTokenStatic);
-				}
-				Context.get().monitorEvent(MonitoringEvent.SERVICE_CUSTOM_MESSAGE_80, cleanedJson.toString());
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-
-			Context.get().monitorEvent(MonitoringEvent.SERVICE_CUSTOM_MESSAGE_80, body);
+			SocialBotManagerService sbf = this.sbfservice;
+			sbf.logIntentMessage(Context.get(), name, m, body);
 			// If no action should be triggered, just return
 			if (m.getTriggeredFunctionId() == null) {
 				return Response.ok().build();
 			}
 
-			SocialBotManagerService sbf = this.sbfservice;
-			new Thread(new Runnable() {
+			boolean accepted = TriggerExecutor.getInstance().submit(name, new Runnable() {
 				@Override
 				public void run() {
 					try {
@@ -1097,98 +1300,27 @@ public class SocialBotManagerService extends RESTService {
 						} catch (Exception e) {
 							e.printStackTrace();
 						}
-						try {
-							Thread.sleep(500);
-						} catch (InterruptedException e) {
-							e.printStackTrace();
-						}
 					} catch (Exception e) {
 						e.printStackTrace();
 					}
 
 				}
-			}).start();
+			});
+			if (!accepted) {
+				return Response.status(Status.SERVICE_UNAVAILABLE).entity("Too many triggers, try again later.").build();
+			}
 			return Response.ok().build();
 		}
 
-		public JSONObject createXAPIStatement(String userMail, String botName,
-				String intent, String text)
-				throws ParseException {
-			JSONParser p = new JSONParser(JSONParser.MODE_PERMISSIVE);
-			JSONObject actor = new JSONObject();
-			actor.put("objectType", "Agent");
-			JSONObject account = new JSONObject();
-
-			account.put("name", userMail);
-			account.put("homePage", "https://chat.tech4comp.dbis.rwth-aachen.de");
-			actor.put("account", account);
-
-			JSONObject verb = (JSONObject) p
-					.parse(new String(
-							"{'display':{'en-US':'sent_chat_message'},'id':'https://tech4comp.de/xapi/verb/sent_chat_message'}"));
-			JSONObject object = (JSONObject) p
-					.parse(new String("{'definition':{'interactionType':'other', 'name':{'en-US':'" + intent
-							+ "'}, 'description':{'en-US':'" + intent
-							+ "'}, 'type':'https://tech4comp.de/xapi/activitytype/bot'},'id':'https://tech4comp.de/bot/"
-							+ botName + "', 'objectType':'Activity'}"));
-			JSONObject context = (JSONObject) p.parse(new String(
-					"{'extensions':{'https://tech4comp.de/xapi/context/extensions/intent':{'botName':'"
-							+ botName + "','text':'"
-							+ text
-							+ "'}}}"));
-			JSONObject xAPI = new JSONObject();
-
-			xAPI.put("authority", p.parse(
-					new String(
-							"{'objectType': 'Agent','name': 'New Client', 'mbox': 'mailto:hello@learninglocker.net'}")));
-			xAPI.put("context", context);
-			// xAPI.put("timestamp", java.time.LocalDateTime.now());
-			xAPI.put("actor", actor);
-			xAPI.put("object", object);
-			xAPI.put("verb", verb);
-			return xAPI;
-		}
-
-		public void sendXAPIStatement(JSONObject xAPI, String lrsAuthToken) {
-			// Copy pasted from LL service
-			// POST statements
-			try {
-				if (lrsURLStatic == null || lrsAuthTokenStatic == null) {
-					return;
-				}
-
-				URL url = new URL(lrsURLStatic + "/data/xAPI/statements");
-
-				HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-				conn.setDoOutput(true);
-				conn.setDoInput(true);
-				conn.setRequestMethod("POST");
-				conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-				conn.setRequestProperty("X-Experience-API-Version", "1.0.3");
-				conn.setRequestProperty("Authorization", "Basic " + lrsAuthTokenStatic);
-				conn.setRequestProperty("Cache-Control", "no-cache");
-				conn.setUseCaches(false);
-
-				OutputStream os = conn.getOutputStream();
-				os.write(xAPI.toString().getBytes("utf-8"));
-				os.flush();
-
-				BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF-8"));
-				String line = "";
-				StringBuilder response = new StringBuilder();
-
-				while ((line = reader.readLine()) != null) {
-					response.append(line);
-				}
-				logger.info(response.toString());
-
-				conn.disconnect();
-			} catch (MalformedURLException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+		public String createXAPIStatement(String userMail, String botName, String intent, String text) {
+			return intentStatementBuilder.build(userMail, botName, intent, text);
+		}
 
+		/**
+		 * Queues the statement for the LRS, it is sent in the background.
+		 */
+		public void sendXAPIStatement(String xAPI) {
+			XAPIStatementSender.getInstance().send(xAPI);
 		}
 
 		@DELETE
@@ -1221,6 +1353,8 @@ public class SocialBotManagerService extends RESTService {
 				ArrayList messengers = (ArrayList) body.get("messengers");
 				if (b.deactivateAllWithCheck(messengers)) {
 					getConfig().removeBot(bot);
+					RoutineScheduler.getInstance().unschedule(b);
+					BotRegistry.getInstance().unregister(b);
 					if (restarterBot != null) {
 						Envelope env = null;
 						HashMap<String, BotModel> old = null;
@@ -1269,24 +1403,20 @@ public class SocialBotManagerService extends RESTService {
 		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "") })
 		public Response telegramEvent(String body, @PathParam("token") String token) {
 
-			new Thread(new Runnable() {
+			// Identify bot
+			BotRegistry.Route route = BotRegistry.getInstance().getByToken(ChatService.TELEGRAM, token);
+			if (route == null) {
+				System.out.println("cannot relate telegram event to a bot with token: " + token);
+				return Response.status(Status.NOT_FOUND).entity("No bot with this token.").build();
+			}
+			Bot bot = route.getBot();
+			System.out.println("telegram event: bot identified: " + bot.getName());
+
+			boolean accepted = TriggerExecutor.getInstance().submit(bot.getName(), new Runnable() {
 				@Override
 				public void run() {
-
-					// Identify bot
-					Bot bot = null;
-
-					for (Bot b : getConfig().getBots().values()) {
-						if (b.getMessenger(ChatService.TELEGRAM) != null) {
-							bot = b;
-						}
-					}
-					if (bot == null)
-						System.out.println("cannot relate telegram event to a bot with token: " + token);
-					System.out.println("telegram event: bot identified: " + bot.getName());
-
 					// Handle event
-					Messenger messenger = bot.getMessenger(ChatService.TELEGRAM);
+					Messenger messenger = route.getMessenger();
 					EventChatMediator mediator = (EventChatMediator) messenger.getChatMediator();
 					JSONParser jsonParser = new JSONParser(JSONParser.MODE_PERMISSIVE);
 					JSONObject parsedBody;
@@ -1297,10 +1427,55 @@ public class SocialBotManagerService extends RESTService {
 						e.printStackTrace();
 					}
 				}
-			}).start();
+			});
+			if (!accepted) {
+				return Response.status(Status.SERVICE_UNAVAILABLE).entity("Too many triggers, try again later.").build();
+			}
 
 			return Response.status(200).build();
 		}
+
+		/**
+		 * Receives a chat message that another node forwarded because this node
+		 * owns its channel (see ChannelForwarder).
+		 *
+		 * @param body      the message as JSON
+		 * @param botName   name of the bot
+		 * @param messenger name of the messenger that received the message
+		 * @return 200 if the message was queued
+		 */
+		@POST
+		@Path("/{botName}/messengers/{messenger}/messages")
+		@Consumes(MediaType.APPLICATION_JSON)
+		@Produces(MediaType.TEXT_PLAIN)
+		@ApiOperation(value = "Receive a chat message forwarded by another node")
+		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Message queued"),
+				@ApiResponse(code = HttpURLConnection.HTTP_NOT_FOUND, message = "Bot or messenger not found"),
+				@ApiResponse(code = 421, message = "This node does not own the channel") })
+		public Response forwardedMessage(String body, @PathParam("botName") String botName,
+				@PathParam("messenger") String messenger) {
+			Bot bot = BotRegistry.getInstance().getBot(botName);
+			Messenger m = bot == null ? null : bot.getMessenger(messenger);
+			if (m == null || m.getChatMediator() == null || m.getChatMediator().getMessageCollector() == null) {
+				return Response.status(Status.NOT_FOUND).entity("No messenger " + messenger + " for bot " + botName)
+						.build();
+			}
+			ChatMessage message;
+			try {
+				message = new Gson().fromJson(body, ChatMessage.class);
+			} catch (Exception e) {
+				return Response.status(Status.BAD_REQUEST).entity("Invalid message.").build();
+			}
+			if (message == null || message.getChannel() == null) {
+				return Response.status(Status.BAD_REQUEST).entity("Invalid message.").build();
+			}
+			// the nodes disagree on the owner, the message is not sent around in circles
+			if (!ChannelRing.getInstance().isOwner(message.getChannel())) {
+				return Response.status(421).entity("Not the owner of channel " + message.getChannel() + ".").build();
+			}
+			m.getChatMediator().getMessageCollector().addMessage(message);
+			return Response.ok().build();
+		}
 	}
 
 	public void checkRoutineTrigger(BotConfiguration botConfig, JSONObject j, BotAgent botAgent, String botFunctionId,
@@ -1372,10 +1547,8 @@ public class SocialBotManagerService extends RESTService {
 				// actionInfo needed for citbot...
 				body.put("actionInfo", messageInfo.getMessage().getMessageId());
 			}
-			if (messageInfo.getMessage().getFileBody() != null) {
-				body.put("fileBody", messageInfo.getMessage().getFileBody());
-				body.put("fileName", messageInfo.getMessage().getFileName());
-				body.put("fileType", messageInfo.getMessage().getFileType());
+			if (messageInfo.getMessage().hasFile()) {
+				putFile(body, messageInfo.getMessage());
 			}
 			if (messageInfo.getMessage().getActionInfo() != null) {
 				body.put("actionInfo", messageInfo.getMessage().getActionInfo());
@@ -1416,6 +1589,45 @@ public class SocialBotManagerService extends RESTService {
 		}
 	}
 
+	/**
+	 * Adds the file of a message to a request body. Files in the file store are
+	 * passed by id, receivers download them from the file endpoint of the
+	 * RESTful chat. Their content is only included if inlineChatFiles is set.
+	 */
+	private void putFile(JSONObject body, ChatMessage message) {
+		body.put("fileName", message.getFileName());
+		body.put("fileType", message.getFileType());
+		if (message.getFileBody() != null) {
+			body.put("fileBody", message.getFileBody());
+			return;
+		}
+		body.put("fileId", message.getFileId());
+		if (inlineChatFiles && mongoFileStore != null) {
+			try {
+				body.put("fileBody", mongoFileStore.readBase64(new ObjectId(message.getFileId())));
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Downloads the file of a request body from the file store into a local file,
+	 * for service functions that take the file as form data.
+	 *
+	 * @return the file, null if it could not be downloaded
+	 */
+	private static File downloadChatFile(JSONObject body) {
+		File f = new File(body.getAsString("fileName") + "." + body.getAsString("fileType"));
+		try (OutputStream out = new FileOutputStream(f)) {
+			mongoFileStore.download(new ObjectId(body.getAsString("fileId")), out);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+		return f;
+	}
+
 	public void prepareRequestParameters(BotConfiguration botConfig, BotAgent botAgent, MessageInfo messageInfo,
 			String functionPath, JSONObject body, ServiceFunction botFunction)
 			throws ServiceNotFoundException, ServiceNotAvailableException, InternalServiceException,
@@ -1452,10 +1664,8 @@ public class SocialBotManagerService extends RESTService {
 				// actionInfo needed for citbot...
 				body.put("actionInfo", messageInfo.getMessage().getMessageId());
 			}
-			if (messageInfo.getMessage().getFileBody() != null) {
-				body.put("fileBody", messageInfo.getMessage().getFileBody());
-				body.put("fileName", messageInfo.getMessage().getFileName());
-				body.put("fileType", messageInfo.getMessage().getFileType());
+			if (messageInfo.getMessage().hasFile()) {
+				putFile(body, messageInfo.getMessage());
 			}
 			if (messageInfo.getMessage().getActionInfo() != null) {
 				body.put("actionInfo", messageInfo.getMessage().getActionInfo());
@@ -1507,56 +1717,38 @@ public class SocialBotManagerService extends RESTService {
 		Bot bot = botConfig.getBots().get(botId);
 		if (bot != null && !(triggerUID.toLowerCase().equals(botAgent.getIdentifier().toLowerCase()))) {
 
-			// get all triggers of the bot
-			Set<Trigger> tlist = bot.getTriggerList();
-			for (Trigger trigger : tlist) {
-				TriggerFunction tf = trigger.getTriggerFunction();
-				// in this function we only handle service functions
-				if (tf instanceof ServiceFunction) {
-					ServiceFunction sf = (ServiceFunction) tf;
-					// check if the function name we got equals the service function name
-					if (sf.getFunctionName().equals(triggerFunctionName)) {
-						ServiceFunction triggeredFunction = trigger.getTriggeredFunction();
-
-						String functionPath = "";
-						// add path if the triggered function is a service function
-						if (triggeredFunction.getActionType().equals(ActionType.SERVICE) || triggeredFunction.getActionType().equals(ActionType.OPENAPI)){
-							functionPath = triggeredFunction.getFunctionPath();
-						}
-						JSONObject triggeredBody = new JSONObject();
-						HashMap<String, ServiceFunctionAttribute> attlist = new HashMap<String, ServiceFunctionAttribute>();
-						for (ServiceFunction bsf : bot.getBotServiceFunctions().values()) {
-							for (ServiceFunctionAttribute bsfa : bsf.getAttributes()) {
-								attlist.put(bsfa.getId(), bsfa);
-							}
-						}
-						String user = body.getAsString("user");
-						String channel = body.getAsString("channel");
-						String email = body.getAsString("email");
-						String convId = body.getAsString("conversationId");
-						String intent = body.getAsString("intent");
-						String contextOn = body.getAsString("contextOn");
-						triggeredBody.put("user", user);
-						triggeredBody.put("channel", channel);
-						triggeredBody.put("email", email);
-						triggeredBody.put("conversationId", convId);
-						triggeredBody.put("intent", intent);
-						triggeredBody.put("contextOn", contextOn);
-						triggeredBody.put("entities", body.get("entities"));
-						triggeredBody.put("organization", body.get("organization"));
-
-
-
-						JSONObject triggerAttributes = (JSONObject) body.get("attributes");
-						for (ServiceFunctionAttribute triggeredFunctionAttribute : triggeredFunction.getAttributes()) {
-							formAttributes(botConfig, triggeredFunctionAttribute, bot, triggeredBody, functionPath,
-									attlist,
-									triggerAttributes);
-						}
-
-						performTrigger(botConfig, triggeredFunction, botAgent, functionPath, triggerUID, triggeredBody);
+			// functions triggered by the called function, prepared by the BotParser
+			TriggerTable table = bot.getTriggerTable();
+			for (TriggerTable.CompiledTrigger trigger : table.get(triggerFunctionName)) {
+				ServiceFunction triggeredFunction = trigger.getFunction();
+				String functionPath = trigger.getFunctionPath();
+				JSONObject triggeredBody = new JSONObject();
+				String user = body.getAsString("user");
+				String channel = body.getAsString("channel");
+				String email = body.getAsString("email");
+				String convId = body.getAsString("conversationId");
+				String intent = body.getAsString("intent");
+				String contextOn = body.getAsString("contextOn");
+				triggeredBody.put("user", user);
+				triggeredBody.put("channel", channel);
+				triggeredBody.put("email", email);
+				triggeredBody.put("conversationId", convId);
+				triggeredBody.put("intent", intent);
+				triggeredBody.put("contextOn", contextOn);
+				triggeredBody.put("entities", body.get("entities"));
+				triggeredBody.put("organization", body.get("organization"));
+
+				JSONObject triggerAttributes = (JSONObject) body.get("attributes");
+				for (TriggerTable.AttributeMapping mapping : trigger.getMappings()) {
+					if (mapping.getSourceName() != null) {
+						mapAttribute(triggeredBody, mapping, triggerAttributes);
+					} else {
+						formAttributes(botConfig, mapping.getAttribute(), bot, triggeredBody, functionPath,
+								table.getAttributes(), triggerAttributes);
 					}
 				}
+
+				performTrigger(botConfig, triggeredFunction, botAgent, functionPath, triggerUID, triggeredBody);
 			}
 
 		} else {
@@ -1567,7 +1759,7 @@ public class SocialBotManagerService extends RESTService {
 	// Aaron : if name of body is empty add as part of an array of contents ?
 	private void formAttributes(BotConfiguration botConfig, ServiceFunctionAttribute triggeredFunctionAttribute,
 			Bot bot,
-			JSONObject triggeredBody, String functionPath, HashMap<String, ServiceFunctionAttribute> attlist,
+			JSONObject triggeredBody, String functionPath, Map<String, ServiceFunctionAttribute> attlist,
 			JSONObject triggerAttributes) throws ServiceNotFoundException, ServiceNotAvailableException,
 			InternalServiceException, ServiceMethodNotFoundException, ServiceInvocationFailedException,
 			ServiceAccessDeniedException, ServiceNotAuthorizedException, ParseBotException {
@@ -1644,7 +1836,7 @@ public class SocialBotManagerService extends RESTService {
 	}
 
 	private void mapWithIfThen(IfThenBlock itb, ServiceFunctionAttribute triggeredFunctionAttribute,
-			JSONObject triggeredBody, HashMap<String, ServiceFunctionAttribute> attlist, JSONObject triggerAttributes,
+			JSONObject triggeredBody, Map<String, ServiceFunctionAttribute> attlist, JSONObject triggerAttributes,
 			String functionPath) {
 		IfThenBlock ifThenIterator = itb;
 		while (ifThenIterator.getPrev() != null) {
@@ -1767,8 +1959,26 @@ public class SocialBotManagerService extends RESTService {
 		}
 	}
 
+	/**
+	 * Same as mapAttributes, for an attribute whose source was looked up by the
+	 * BotParser. Placeholders in the function path are left as they are.
+	 */
+	private void mapAttribute(JSONObject b, TriggerTable.AttributeMapping mapping, JSONObject triggerAttributes) {
+		String source = mapping.getSourceName();
+		JSONObject triggerBody = (JSONObject) triggerAttributes.get("body");
+		String replaceWith = null;
+		if (triggerAttributes.containsKey(source)) {
+			replaceWith = triggerAttributes.getAsString(source);
+		} else if (triggerBody != null && triggerBody.containsKey(source)) {
+			replaceWith = triggerBody.getAsString(source);
+		}
+		if (replaceWith != null && !mapping.isPathParameter()) {
+			b.put(mapping.getAttribute().getName(), replaceWith);
+		}
+	}
+
 	private void mapAttributes(JSONObject b, ServiceFunctionAttribute sfa, String functionPath,
-			HashMap<String, ServiceFunctionAttribute> attlist, JSONObject triggerAttributes) {
+			Map<String, ServiceFunctionAttribute> attlist, JSONObject triggerAttributes) {
 		// get id of the trigger function
 		ServiceFunctionAttribute mappedTo = sfa.getMappedTo();
 		// attributes of the function that triggered the bot
@@ -1822,18 +2032,10 @@ public class SocialBotManagerService extends RESTService {
 			// ServiceFunctionAttribute>();
 			// JSONObject triggerAttributes = new JSONObject();
 
-			// Get the channel's conversation and add them to the json array
-			JSONArray jsonArray = new JSONArray();
-			HashMap<String, Collection<ConversationMessage>> conversation = bot.getMessenger(messengerID)
-					.getConversationMap();
-			for (ConversationMessage msg : conversation.get(channel)) {
-				HashMap<String, String> msgMap = new HashMap<String, String>();
-				msgMap.put("role", msg.getRole());
-				msgMap.put("content", msg.getContent());
-				JSONObject jsonmsgMap = new JSONObject(msgMap);
-				jsonArray.add(jsonmsgMap);
-			}
-			triggeredBody.put("conversationPath", jsonArray);
+			// Add the last messages of the channel's conversation, as plain JSON objects
+			// since chained functions serialize the body with Gson
+			triggeredBody.put("conversationPath", bot.getMessenger(messengerID).getConversation(channel)
+					.window(sf.getConversationWindow()).toJSONArray());
 			triggeredBody.put("messenger", bot.getMessenger(messengerID).getChatService().toString());
 			triggeredBody.put("botId", bot.getId());
 			triggeredBody.put("botName", bot.getName());
@@ -1860,6 +2062,8 @@ public class SocialBotManagerService extends RESTService {
 							// TODO Auto-generated catch block
 							e.printStackTrace();
 						}
+					} else if (triggeredBody.containsKey("fileId") && mongoFileStore != null) {
+						f = downloadChatFile(triggeredBody);
 					}
 
 					Client textClient = ClientBuilder.newBuilder().register(MultiPartFeature.class).build();
@@ -2051,16 +2255,14 @@ public class SocialBotManagerService extends RESTService {
 						} else {
 							// if the service function triggers another service function, do not trigger chat, add the response to the conversationpath
 							if (!sf.getTrigger().isEmpty()){
-								HashMap<String, Collection<ConversationMessage>> convMap = bot.getMessenger(messengerID).getConversationMap();
-								Collection<ConversationMessage> conv = convMap.get(triggeredBody.getAsString("channel"));
-								ArrayList<ConversationMessage> convList = new ArrayList<>(conv);
-								ConversationMessage botMsg = convList.get(convList.size() - 1);
+								ConversationHistory conv = bot.getMessenger(messengerID)
+										.getConversation(triggeredBody.getAsString("channel"));
+								ConversationMessage botMsg = conv.getLast();
 								String convId = botMsg.getConversationId();
 								triggeredBody.put("conversationId", convId);
 								ConversationMessage newConvMsg = new ConversationMessage(convId, "assistant",
 										triggeredBody.getAsString("text"));
 								conv.add(newConvMsg);
-								bot.getMessenger(messengerID).updateConversationInConversationMap(triggeredBody.getAsString("channel"), conv);
 								
 								//Trigger trigger = sf.getTrigger().iterator().next();
 								//ServiceFunction triggeredSf = trigger.getTriggeredFunction();
@@ -2097,19 +2299,13 @@ public class SocialBotManagerService extends RESTService {
 								// add token count to body
 								triggeredBody.put("tokens", response.getAsNumber("tokens"));
 								
-								HashMap<String, Collection<ConversationMessage>> convMap = bot.getMessenger(messengerID)
-										.getConversationMap();
-								Collection<ConversationMessage> conv = convMap.get(triggeredBody.getAsString("channel"));
-								ArrayList<ConversationMessage> convList = new ArrayList<>(conv);
-								ConversationMessage botMsg = convList.get(convList.size() - 1);
+								ConversationHistory conv = bot.getMessenger(messengerID)
+										.getConversation(triggeredBody.getAsString("channel"));
+								ConversationMessage botMsg = conv.getLast();
 								String convId = botMsg.getConversationId();
-								convList.remove(botMsg);
 								ConversationMessage newConvMsg = new ConversationMessage(convId, "assistant",
 										triggeredBody.getAsString("text"));
-								convList.add(newConvMsg);
-								conv = convList;
-								bot.getMessenger(messengerID)
-										.updateConversationInConversationMap(triggeredBody.getAsString("channel"), conv);
+								conv.replaceLast(newConvMsg);
 							}
 						}
 						//We check if there is a leadsTo after the bot action:
@@ -2122,7 +2318,7 @@ public class SocialBotManagerService extends RESTService {
 							 *  */ 
 
 							// We add the incoming message to the followupmessage of the current conversation state
-							IncomingMessage currentState = bot.getMessenger(messengerID).getStateMap().get(channel);
+							IncomingMessage currentState = bot.getMessenger(messengerID).getState(channel);
 
 							for (int i = 0; i < sf.getLeadsTo().size(); i++) {
 								IncomingMessage msg = (IncomingMessage) sf.getLeadsTo().keySet().toArray()[i];
@@ -2131,7 +2327,7 @@ public class SocialBotManagerService extends RESTService {
 							}
 							currentState.setFreezeMessageSend(true);
 						} else if (!sf.getTrigger().isEmpty()){
-							IncomingMessage currentState = bot.getMessenger(messengerID).getStateMap().get(channel);
+							IncomingMessage currentState = bot.getMessenger(messengerID).getState(channel);
 							currentState.setFreezeMessageSend(true);
 						}
 						if (response.get("closeContext") == null || Boolean.valueOf(response.getAsString("closeContext"))) {
@@ -2298,12 +2494,9 @@ public class SocialBotManagerService extends RESTService {
 				// Open database connection
 				con = service.database.getDataSource().getConnection();
 
-				// Write serialised model in Blob
-				ByteArrayOutputStream bOut = new ByteArrayOutputStream();
-				ObjectOutputStream out = new ObjectOutputStream(bOut);
-				out.writeObject(body);
+				// Write encoded model in Blob
 				Blob blob = con.createBlob();
-				blob.setBytes(1, bOut.toByteArray());
+				blob.setBytes(1, BotModelCodec.encode(body));
 
 				// Check if model with given name already exists in database. If yes, update it.
 				// Else, insert it
@@ -2413,11 +2606,24 @@ public class SocialBotManagerService extends RESTService {
 				ResultSet rs = ps.executeQuery();
 				rs.next();
 
-				// Write serialised model in Blob
+				// Read model while it is streamed from the Blob
 				Blob b = rs.getBlob("model");
-				InputStream stream = b.getBinaryStream();
-				ObjectInputStream in = new ObjectInputStream(stream);
-				BotModel model = (BotModel) in.readObject();
+				byte[] header = b.getBytes(1, BotModelCodec.HEADER_LENGTH);
+				BotModel model;
+				try (InputStream stream = b.getBinaryStream()) {
+					model = BotModelCodec.decode(stream);
+				}
+
+				// Models stored in an older format are rewritten in the current one
+				if (!BotModelCodec.isCurrent(header)) {
+					ps.close();
+					Blob blob = con.createBlob();
+					blob.setBytes(1, BotModelCodec.encode(model));
+					ps = con.prepareStatement("UPDATE models SET model = ? WHERE name = ?");
+					ps.setBlob(1, blob);
+					ps.setString(2, name);
+					ps.executeUpdate();
+				}
 
 				resp = Response.ok().entity(model).build();
 			} catch (SQLException e) {
@@ -2426,9 +2632,6 @@ public class SocialBotManagerService extends RESTService {
 			} catch (IOException e) {
 				e.printStackTrace();
 				resp = Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build();
-			} catch (ClassNotFoundException e) {
-				e.printStackTrace();
-				resp = Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build();
 			} finally {
 				try {
 					if (ps != null)
@@ -2563,7 +2766,85 @@ public class SocialBotManagerService extends RESTService {
 		SocialBotManagerService.botAgents = botAgents;
 	}
 
-	private class RoutineThread implements Runnable {
+	/**
+	 * Logs a message with a recognized intent to MobSOS and the LRS.
+	 *
+	 * @param context context to log with, nothing is logged to MobSOS if null
+	 * @param botName name of the bot
+	 * @param m       the message
+	 * @param body    the message as JSON
+	 */
+	private void logIntentMessage(Context context, String botName, MessageInfo m, String body) {
+		JSONParser parser = new JSONParser(JSONParser.MODE_PERMISSIVE);
+		try {
+			JSONObject message = (JSONObject) parser.parse(body);
+			JSONObject cleanedJson = (JSONObject) message.get("message");
+			cleanedJson.put("user", encryptThisString(cleanedJson.getAsString("user")));
+			if (cleanedJson.containsKey("email")) {
+				cleanedJson.put("email", encryptThisString(cleanedJson.getAsString("email")));
+				String xAPI = intentStatementBuilder.build(cleanedJson.getAsString("email"), botName,
+						m.getIntent().getKeyword(), m.getMessage().getText());
+				XAPIStatementSender.getInstance().send(xAPI);
+			}
+			if (context != null) {
+				context.monitorEvent(MonitoringEvent.SERVICE_CUSTOM_MESSAGE_80, cleanedJson.toString());
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+		if (context != null) {
+			context.monitorEvent(MonitoringEvent.SERVICE_CUSTOM_MESSAGE_80, body);
+		}
+	}
+
+	/**
+	 * Handles a message that was forwarded by a messenger, same as the
+	 * trigger/intent endpoint.
+	 */
+	private void handleIntentTrigger(IntentTriggerEvent event) throws Exception {
+		MessageInfo m = event.getMessageInfo();
+		logIntentMessage(l2pcontext, m.getBotName(), m, new Gson().toJson(m));
+		if (m.getTriggeredFunctionId() == null) {
+			return;
+		}
+		performIntentTrigger(getConfig(), getBotAgents().get(m.getBotName()), m);
+	}
+
+	/**
+	 * Runs the action a routine triggered, same as the trigger/routine endpoint.
+	 */
+	private void handleRoutineTrigger(RoutineTriggerEvent event) throws Exception {
+		Bot bot = event.getBot();
+		JSONObject j = new JSONObject();
+		j.put("serviceAlias", ""); // TODO
+		j.put("function", event.getFunction().getId());
+		j.put("bot", bot.getName());
+		j.put("attributes", new JSONObject());
+
+		JSONObject context = new JSONObject();
+		context.put("addr", webconnectorUrl);
+		checkRoutineTrigger(getConfig(), j, getBotAgents().get(bot.getName()), event.getFunction().getId(), context);
+	}
+
+	private class MessagePollThread implements Runnable {
+		@Override
+		public void run() {
+			for (Bot bot : getConfig().getBots().values()) {
+				try {
+					MessageDispatcher.getInstance().poll(bot);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Restarts the stored bots once the restarter bot is available. Routines are
+	 * run by the RoutineScheduler.
+	 */
+	private class RestartThread implements Runnable {
 		@Override
 		public void run() {
 
@@ -2591,133 +2872,6 @@ public class SocialBotManagerService extends RESTService {
 				}
 
 			}
-			SimpleDateFormat df = new SimpleDateFormat("HH:mm:ss");
-			SimpleDateFormat df2 = new SimpleDateFormat("HH:mm");
-			Gson gson = new Gson();
-			for (Bot bot : getConfig().getBots().values()) {
-				ArrayList<MessageInfo> messageInfos = new ArrayList<MessageInfo>();
-				for (MessageInfo m : messageInfos) {
-					ChatStatement chatStatement = ChatStatement.generate(m.getMessage().getUser(), m.getBotName(),
-							m.getMessage().getText(), m.getMessage().getTime(), m.getMessage().getDomain());
-					String chatStatementJSON = gson.toJson(chatStatement);
-					// l2pcontext.monitorEvent(MonitoringEvent.SERVICE_CUSTOM_MESSAGE_2,
-					// chatStatementJSON);
-				}
-				bot.handleMessages(messageInfos);
-
-				// TODO: Handle multiple environments (maybe?)
-
-				MiniClient client = new MiniClient();
-				client.setConnectorEndpoint(webconnectorUrl);
-
-				HashMap<String, String> headers = new HashMap<String, String>();
-				for (MessageInfo m : messageInfos) {
-					try {
-						ClientResponse result = client.sendRequest("POST",
-								"SBFManager/bots/" + m.getBotName() + "/trigger/intent", gson.toJson(m),
-								MediaType.APPLICATION_JSON, MediaType.TEXT_PLAIN, headers);
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
-				}
-
-				for (BotRoutine r : bot.getRoutines().values()) {
-					// current time
-					Calendar c = Calendar.getInstance();
-					long d1 = c.getTime().getTime();
-					// last time updated
-					long d2 = r.getLastUpdate();
-
-					long diffInMillies = d1 - d2;
-
-					int dayOfWeek = c.get(Calendar.DAY_OF_WEEK);
-
-					boolean trigger = false;
-					long min = TimeUnit.MINUTES.convert(diffInMillies, TimeUnit.MILLISECONDS);
-					if (r.getInterval().equals("Minute")) {
-						if (min >= Integer.parseInt(r.getTime())) {
-							trigger = true;
-							r.setLastUpdate(d1);
-						}
-					}
-					if (r.getInterval().equals("Hour")) {
-						long hour = TimeUnit.HOURS.convert(diffInMillies, TimeUnit.MILLISECONDS);
-						if (hour >= Integer.parseInt(r.getTime())) {
-							trigger = true;
-							r.setLastUpdate(d1);
-						}
-					}
-					if (r.getInterval().equals("Day")) {
-						long day = TimeUnit.DAYS.convert(diffInMillies, TimeUnit.MILLISECONDS);
-						if (day >= Integer.parseInt(r.getTime())) {
-							trigger = true;
-							r.setLastUpdate(d1);
-						}
-					}
-					if (r.getInterval().equals("Month")) {
-						long day = TimeUnit.DAYS.convert(diffInMillies, TimeUnit.MILLISECONDS);
-						// TODO
-						day = day / 28;
-						if (day >= Integer.parseInt(r.getTime())) {
-							trigger = true;
-							r.setLastUpdate(d1);
-						}
-					} else if (r.getInterval().equals("Working days") && dayOfWeek != Calendar.SATURDAY
-							&& dayOfWeek != Calendar.SUNDAY) {
-						if (min >= 1 && df2.format(d1).equals(r.getTime())) {
-							trigger = true;
-							r.setLastUpdate(d1);
-						}
-					} else if (r.getInterval().equals("Weekend")
-							&& (dayOfWeek == Calendar.SATURDAY || dayOfWeek == Calendar.SUNDAY)) {
-						if (min >= 1 && df2.format(d1).equals(r.getTime())) {
-							trigger = true;
-							r.setLastUpdate(d1);
-						}
-					} else if (r.getInterval().equals("Every day")) {
-						if (min >= 1 && df2.format(d1).equals(r.getTime())) {
-							trigger = true;
-							r.setLastUpdate(d1);
-						}
-					}
-					if (trigger) {
-						for (Bot b : getConfig().getBots().values()) {
-							HashMap<String, Boolean> activeBots = b.getActive();
-							HashSet<Trigger> tList = r.getTrigger();
-							for (Trigger t : tList) {
-								// for (Entry<String, Boolean> entry : activeBots.entrySet()) {
-								// If bot is active
-								// if (entry.getValue()) {
-
-								JSONObject body = new JSONObject();
-								body.put("serviceAlias", ""); // TODO
-
-								JSONObject atts = new JSONObject();
-
-								body.put("function", t.getTriggeredFunction().getId());
-								body.put("bot", b.getName());
-								// atts.put(vle.getEnvironmentSeparator(), entry.getKey());
-								body.put("attributes", atts);
-
-								headers = new HashMap<String, String>();
-								String path = "SBFManager/bots/" + b.getName() + "/trigger/routine";
-								try {
-									path = "SBFManager/bots/" + URLEncoder.encode(b.getName(), "UTF-8")
-											+ "/trigger/routine";
-								} catch (UnsupportedEncodingException e) {
-									// TODO Auto-generated catch block
-									e.printStackTrace();
-								}
-								ClientResponse result = client.sendRequest("POST", path, body.toJSONString(),
-										MediaType.APPLICATION_JSON, MediaType.TEXT_PLAIN, headers);
-								// }
-							}
-						}
-					}
-
-				}
-			}
-
 		}
 
 	}
@@ -2896,42 +3050,7 @@ public class SocialBotManagerService extends RESTService {
 	}
 
 	public static String encryptThisString(String input) {
-		if (input != null) {
-			try {
-				// getInstance() method is called with algorithm SHA-384
-				MessageDigest md = MessageDigest.getInstance("SHA-384");
-
-				// digest() method is called
-				// to calculate message digest of the input string
-				// returned as array of byte
-				byte[] messageDigest = md.digest(input.getBytes());
-
-				// Convert byte array into signum representation
-				BigInteger no = new BigInteger(1, messageDigest);
-
-				// Convert message digest into hex value
-				String hashtext = no.toString(16);
-
-				// Add preceding 0s to make it 32 bit
-				try {
-					while (hashtext.getBytes("UTF-16BE").length * 8 < 1536) {
-						hashtext = "0" + hashtext;
-					}
-				} catch (Exception e) {
-					System.out.println(e);
-				}
-
-				// return the HashText
-				return hashtext;
-			}
-
-			// For specifying wrong message digest algorithms
-			catch (NoSuchAlgorithmException e) {
-				throw new RuntimeException(e);
-			}
-		} else {
-			return null;
-		}
+		return Pseudonymizer.getInstance().pseudonymize(input);
 	}
 
 	@POST
@@ -3060,9 +3179,6 @@ public class SocialBotManagerService extends RESTService {
 		// adding this temporarily to avoid needing to add stuff elsewhere
 		static HashMap<String, String> emailToChannel = new HashMap<String, String>();
 
-		// adding this temporarily to avoid needing to add stuff elsewhere
-		static HashMap<String, Messenger> channelToMessenger = new HashMap<String, Messenger>();
-
 		/**
 		 * Handles RESTful chat requests.
 		 *
@@ -3079,10 +3195,17 @@ public class SocialBotManagerService extends RESTService {
 		@ApiOperation(value = "Sends a message to the RESTful chat bot and channel", notes = "Provides a service to send a message to the specified bot and channel through a RESTful API endpoint")
 		@ApiResponses(value = { @ApiResponse(code = 200, message = "Message successfully sent"),
 				@ApiResponse(code = 500, message = "Internal server error"),
-				@ApiResponse(code = 400, message = "Bad request, required parameters not provided") })
+				@ApiResponse(code = 400, message = "Bad request, required parameters not provided"),
+				@ApiResponse(code = 307, message = "Channel owned by another node"),
+				@ApiResponse(code = 421, message = "Channel owned by another node with unknown URL") })
 		public Response handleRESTfulChat(@PathParam("bot") String bot, @PathParam("organization") String organization,
 				@PathParam("channel") String channel,
 				String input) {
+			Response redirect = redirectToOwner(organization + "-" + channel, "RESTfulChat/{bot}/{organization}/{channel}",
+					bot, organization, channel);
+			if (redirect != null) {
+				return redirect;
+			}
 			RESTfulChatResponse answerMsg = null;
 			String email = "";
 			try {
@@ -3093,12 +3216,7 @@ public class SocialBotManagerService extends RESTService {
 				e.printStackTrace();
 			}
 			try {
-				Bot b = null;
-				for (Bot botIterator : getConfig().getBots().values()) {
-					if (botIterator.getName().equalsIgnoreCase(bot)) {
-						b = botIterator;
-					}
-				}
+				Bot b = BotRegistry.getInstance().getBot(bot);
 				// there should be one or no bot available (we will remove instance in a later
 				// version)
 				if (b != null) {
@@ -3111,7 +3229,7 @@ public class SocialBotManagerService extends RESTService {
 							JSONParser p = new JSONParser();
 							JSONObject bodyInput = (JSONObject) p.parse(input);
 							String orgChannel = organization + "-" + channel;
-							channelToMessenger.put(orgChannel, m);
+							BotRegistry.getInstance().registerChannel(orgChannel, b, m);
 							String msgtext = bodyInput.getAsString("message");
 							if (msgtext == null || msgtext.equals("")) {
 								return Response.status(Status.BAD_REQUEST).entity("No message provided.").build();
@@ -3185,6 +3303,29 @@ public class SocialBotManagerService extends RESTService {
 
 		}
 
+		/**
+		 * Only the node owning a channel answers its messages (see ChannelRing).
+		 * Requests for other channels are redirected to their owner, or answered with
+		 * 421 if the URL of the owner is not known.
+		 *
+		 * @param channel the channel
+		 * @param path    path template of the request below the service URL
+		 * @param values  values of the path template
+		 * @return the redirect, null if this node owns the channel
+		 */
+		private static Response redirectToOwner(String channel, String path, Object... values) {
+			ChannelRing ring = ChannelRing.getInstance();
+			if (ring.isOwner(channel)) {
+				return null;
+			}
+			String url = ring.getOwnerUrl(channel);
+			if (url == null) {
+				return Response.status(421).entity("Channel " + channel + " is owned by node " + ring.getOwner(channel))
+						.build();
+			}
+			return Response.temporaryRedirect(UriBuilder.fromUri(url).path(path).build(values)).build();
+		}
+
 		private void performTrigger(BotConfiguration botConfig, ServiceFunction sf, BotAgent botAgent,
 				String functionPath, String triggerUID,
 				JSONObject triggeredBody) throws AgentNotFoundException, AgentOperationFailedException {
@@ -3215,6 +3356,8 @@ public class SocialBotManagerService extends RESTService {
 							// TODO Auto-generated catch block
 							e.printStackTrace();
 						}
+					} else if (triggeredBody.containsKey("fileId") && mongoFileStore != null) {
+						f = downloadChatFile(triggeredBody);
 					}
 
 					String channel = triggeredBody.getAsString("channel");
@@ -3331,38 +3474,62 @@ public class SocialBotManagerService extends RESTService {
 		@ApiOperation(value = "Uploads a file to the RESTful chat bot and channel", notes = "Provides a service to upload a file to the specified bot and channel through a RESTful API endpoint")
 		@ApiResponses(value = { @ApiResponse(code = 200, message = "File successfully uploaded"),
 				@ApiResponse(code = 500, message = "Internal server error"),
-				@ApiResponse(code = 400, message = "Bad request, required parameters not provided") })
+				@ApiResponse(code = 400, message = "Bad request, required parameters not provided"),
+				@ApiResponse(code = 413, message = "File too large"),
+				@ApiResponse(code = 307, message = "Channel owned by another node"),
+				@ApiResponse(code = 421, message = "Channel owned by another node with unknown URL") })
 		public Response handleRESTfulChatFile(@PathParam("bot") String bot,
 				@PathParam("organization") String organization, @PathParam("channel") String channel,
 				@FormDataParam("file") InputStream uploadedInputStream,
 				@FormDataParam("file") FormDataContentDisposition fileDetail) {
+			Response redirect = redirectToOwner(organization + "-" + channel,
+					"RESTfulChat/{bot}/{organization}/{channel}/file", bot, organization, channel);
+			if (redirect != null) {
+				return redirect;
+			}
 			RESTfulChatResponse answerMsg = new RESTfulChatResponse("");
 			try {
-				Bot b = null;
+				Bot b = BotRegistry.getInstance().getBot(bot);
 				String addr = this.service.webconnectorUrl;
-				for (Bot botIterator : getConfig().getBots().values()) {
-					if (botIterator.getName().equalsIgnoreCase(bot)) {
-						b = botIterator;
-					}
-				}
 				// there should be one or no bot available (we will remove instance in a later
 				// version)
 				if (b != null) {
 					ArrayList<MessageInfo> messageInfos = new ArrayList<MessageInfo>();
 					boolean found = false;
 					boolean err = false;
+					String fname = fileDetail.getFileName();
+					StoredFile storedFile = null;
+					String encoded = null;
+					String ftype = null;
 					for (Messenger m : b.getMessengers().values()) {
 						if (m.getChatMediator() != null && m.getChatMediator() instanceof RESTfulChatMediator) {
-							byte[] bytes = toBytes(uploadedInputStream);
-							String encoded = Base64.getEncoder().encodeToString(bytes);
+							// the upload is read once and shared by all RESTful messengers
+							if (storedFile == null && encoded == null) {
+								MongoFileStore fileStore = this.service.getMongoFileStore();
+								if (fileStore != null && !fileStore.isClosed()) {
+									Document metadata = new Document("bot", b.getName())
+											.append("channel", organization + "-" + channel);
+									storedFile = fileStore.store(uploadedInputStream, fname, metadata);
+									ftype = storedFile.getContentType();
+								} else {
+									// no file store, the file is passed inline
+									byte[] bytes = toBytes(uploadedInputStream, this.service.chatFileMaxSize);
+									ftype = MongoFileStore.detectContentType(
+											Arrays.copyOf(bytes, Math.min(bytes.length, MongoFileStore.DETECTION_LENGTH)),
+											fname);
+									encoded = Base64.getEncoder().encodeToString(bytes);
+								}
+							}
 							RESTfulChatMediator chatMediator = (RESTfulChatMediator) m.getChatMediator();
-							String fname = fileDetail.getFileName();
-							String ftype = getFileType(uploadedInputStream);
 
 							RESTfulChatMessageCollector msgcollector = (RESTfulChatMessageCollector) chatMediator
 									.getMessageCollector();
 							String orgChannel = organization + "-" + channel;
-							msgcollector.handle(encoded, fname, ftype, orgChannel);
+							if (storedFile != null) {
+								msgcollector.handleFile(storedFile.getId().toHexString(), fname, ftype, orgChannel);
+							} else {
+								msgcollector.handle(encoded, fname, ftype, orgChannel);
+							}
 							m.handleMessages(messageInfos, b);
 							answerMsg = chatMediator.getMessageForChannel(orgChannel);
 							String email = "";
@@ -3457,6 +3624,8 @@ public class SocialBotManagerService extends RESTService {
 					return Response.status(Status.NOT_FOUND).entity("Bot " + bot + " not found.").build();
 				}
 
+			} catch (FileTooLargeException e) {
+				return Response.status(Status.REQUEST_ENTITY_TOO_LARGE).entity(e.getMessage()).build();
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
@@ -3472,29 +3641,18 @@ public class SocialBotManagerService extends RESTService {
 		@ApiResponses(value = {
 				@ApiResponse(code = 200, message = "File downloaded successfully"),
 				@ApiResponse(code = 404, message = "File not found"),
-				@ApiResponse(code = 500, message = "Internal server error") })
+				@ApiResponse(code = 500, message = "Internal server error"),
+				@ApiResponse(code = 503, message = "File storage not available") })
 		public Response getRESTfulChatFile(@PathParam("bot") String bot, @PathParam("organization") String organization,
-				@PathParam("channel") String channel, @PathParam("fileId") String fileId) {
-			RESTfulChatResponse answerMsg = null;
+				@PathParam("channel") String channel, @PathParam("fileId") String fileId,
+				@HeaderParam("Range") String range, @HeaderParam("If-None-Match") String ifNoneMatch) {
+			MongoFileStore fileStore = this.service.getMongoFileStore();
+			if (fileStore == null) {
+				return Response.status(Status.SERVICE_UNAVAILABLE).entity("File storage not available.").build();
+			}
 			try {
-				String path = bot + organization + channel + "-" + fileId;
-
-				CodecRegistry pojoCodecRegistry = fromProviders(PojoCodecProvider.builder().automatic(true).build());
-				CodecRegistry codecRegistry = fromRegistries(MongoClientSettings.getDefaultCodecRegistry(),
-						pojoCodecRegistry);
-				MongoClientSettings settings = MongoClientSettings.builder()
-						.uuidRepresentation(UuidRepresentation.STANDARD)
-						.applyConnectionString(new ConnectionString(this.service.mongoUri))
-						.codecRegistry(codecRegistry)
-						.build();
-
-				// Create a new client and connect to the server
-				MongoClient mongoClient = MongoClients.create(settings);
-
 				try {
-					MongoDatabase database = mongoClient.getDatabase(this.service.mongoDB);
-					GridFSBucket gridFSBucket = GridFSBuckets.create(database, "files");
-					gridFSBucket.find(Filters.empty());
+					GridFSBucket gridFSBucket = fileStore.getBucket();
 					ObjectId oId = new ObjectId(fileId);
 					BsonObjectId bId = new BsonObjectId(oId);
 					GridFSFile file = gridFSBucket.find(Filters.eq(bId)).first();
@@ -3502,53 +3660,60 @@ public class SocialBotManagerService extends RESTService {
 						return Response.status(Response.Status.NOT_FOUND)
 								.entity("File with ID " + fileId + " not found").build();
 					}
-					String extension = "";
-					if (file.getFilename().contains("json")) {
-						extension = ".json";
-					} else if (file.getFilename().contains("pdf")) {
-						extension = ".pdf";
+					// GridFS files are never changed, so the id identifies the content
+					String etag = "\"" + file.getObjectId().toHexString() + "\"";
+					if (ifNoneMatch != null && (ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag))) {
+						return Response.notModified().header("ETag", etag).build();
 					}
-					Response.ResponseBuilder response = Response.ok(file.getFilename() + extension);
-					response.header("Content-Disposition", "attachment; filename=\"" + file.getFilename() + "\"");
-					if (file.getFilename().contains("json")) {
-						response.header("Content-Type", "application/json");
-					} else if (file.getFilename().contains("pdf")) {
-						response.header("Content-Type", "application/pdf");
+					String contentType = getContentType(file);
+					long length = file.getLength();
+					long[] bounds = parseRange(range, length);
+					if (bounds != null && bounds.length == 0) {
+						return Response.status(416).header("Content-Range", "bytes */" + length).build();
 					}
-					// Download the file to a ByteArrayOutputStream
-					String contentType = "";
-					if (file.getFilename().contains("json")) {
-						contentType = "application/json";
-					} else if (file.getFilename().contains("pdf")) {
-						contentType = "application/pdf";
+					long start = bounds == null ? 0 : bounds[0];
+					long count = bounds == null ? length : bounds[1] - bounds[0] + 1;
+					ObjectId id = file.getObjectId();
+
+					// the file is streamed from GridFS directly into the response
+					StreamingOutput stream = output -> {
+						try (GridFSDownloadStream in = gridFSBucket.openDownloadStream(id)) {
+							long skipped = 0;
+							while (skipped < start) {
+								long n = in.skip(start - skipped);
+								if (n <= 0) {
+									throw new IOException("Could not skip to byte " + start);
+								}
+								skipped += n;
+							}
+							byte[] buffer = new byte[Math.max(8192, Math.min(file.getChunkSize(), 262144))];
+							long remaining = count;
+							while (remaining > 0) {
+								int len = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+								if (len == -1) {
+									break;
+								}
+								output.write(buffer, 0, len);
+								remaining -= len;
+							}
+						}
+					};
+					Response.ResponseBuilder response = bounds == null ? Response.ok(stream)
+							: Response.status(206).header("Content-Range",
+									"bytes " + bounds[0] + "-" + bounds[1] + "/" + length);
+					if (bounds != null) {
+						response.entity(stream);
 					}
-					ByteArrayOutputStream baos = new ByteArrayOutputStream();
-					gridFSBucket.downloadToStream(file.getObjectId(), baos);
-					return Response.ok(baos.toByteArray(), MediaType.APPLICATION_OCTET_STREAM)
+					return response.type(contentType)
+							.header("Content-Length", count)
+							.header("Accept-Ranges", "bytes")
+							.header("ETag", etag)
 							.header("Content-Disposition", "attachment; filename=\"" + file.getFilename() + "\"")
 							.build();
 				} catch (MongoException me) {
 					System.err.println(me);
-				} finally {
-					// Close the MongoDB client
-					mongoClient.close();
+					return Response.status(Status.SERVICE_UNAVAILABLE).entity("File storage not available.").build();
 				}
-
-				File file = new File(path);
-				if (!file.exists()) {
-					return Response.status(Status.NOT_FOUND).entity("File not found.").build();
-				}
-				String contentType = "";
-				if (path.contains("json")) {
-					contentType = "application/json";
-				} else if (path.contains("pdf")) {
-					contentType = "application/pdf";
-				}
-				return Response.ok(file, MediaType.APPLICATION_OCTET_STREAM)
-						.header("Content-Disposition", "attachment; filename=\"" + file.getName() + "\"")
-						.header("Content-Type", contentType)
-						.build();
-
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
@@ -3612,9 +3777,13 @@ public class SocialBotManagerService extends RESTService {
 			try {
 				JSONObject o = (JSONObject) (new JSONParser(JSONParser.MODE_PERMISSIVE)).parse(content);
 				userFileIds.put(channel, o);
-				Messenger m = channelToMessenger.get(channel);
+				Messenger m = BotRegistry.getInstance().getChannelMessenger(channel);
 				if (m == null) {
-					m = channelToMessenger.get(channel.split("-")[1]);
+					m = BotRegistry.getInstance().getChannelMessenger(channel.split("-")[1]);
+				}
+				if (m == null) {
+					return Response.status(Status.NOT_FOUND).entity("No RESTfulChat found for channel " + channel + ".")
+							.build();
 				}
 				for (String key : o.keySet()) {
 					m.addVariable(channel, key, o.getAsString(key));
@@ -3626,20 +3795,89 @@ public class SocialBotManagerService extends RESTService {
 			}
 		}
 
-		private String getFileType(InputStream uploadedInputStream) throws IOException {
-			Tika tika = new Tika();
-			return tika.detect(uploadedInputStream);
+		/**
+		 * Content type stored in the metadata of the file. Falls back to the file
+		 * name for files that were stored without one.
+		 */
+		private String getContentType(GridFSFile file) {
+			Document metadata = file.getMetadata();
+			if (metadata != null) {
+				Object type = metadata.get("contentType");
+				if (type == null) {
+					type = metadata.get("fileType");
+				}
+				if (type != null && !type.toString().isEmpty()) {
+					return type.toString();
+				}
+			}
+			String name = file.getFilename() == null ? "" : file.getFilename();
+			if (name.contains("json")) {
+				return MediaType.APPLICATION_JSON;
+			} else if (name.contains("pdf")) {
+				return "application/pdf";
+			}
+			return MediaType.APPLICATION_OCTET_STREAM;
 		}
 
-		private byte[] toBytes(InputStream uploadedInputStream) throws IOException {
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			byte[] buffer = new byte[1024];
-			int len;
-			while ((len = uploadedInputStream.read(buffer)) != -1) {
-				outputStream.write(buffer, 0, len);
+		/**
+		 * Parses a single byte range of a Range header.
+		 *
+		 * @param range  value of the Range header
+		 * @param length length of the file
+		 * @return first and last byte of the range, null if the whole file is
+		 *         requested or the header is invalid and an empty array if the
+		 *         range cannot be satisfied
+		 */
+		static long[] parseRange(String range, long length) {
+			if (range == null || !range.trim().startsWith("bytes=")) {
+				return null;
+			}
+			String spec = range.trim().substring("bytes=".length()).trim();
+			if (spec.contains(",")) {
+				// multiple ranges are answered with the whole file
+				return null;
 			}
-			byte[] bytes = outputStream.toByteArray();
-			return bytes;
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			try {
+				String first = spec.substring(0, dash).trim();
+				String last = spec.substring(dash + 1).trim();
+				long start;
+				long end;
+				if (first.isEmpty()) {
+					// suffix range, the last n bytes
+					long n = Long.parseLong(last);
+					if (n <= 0) {
+						return new long[0];
+					}
+					start = Math.max(0, length - n);
+					end = length - 1;
+				} else {
+					start = Long.parseLong(first);
+					if (last.isEmpty()) {
+						end = length - 1;
+					} else {
+						end = Long.parseLong(last);
+						if (end < start) {
+							// invalid, the header is ignored
+							return null;
+						}
+						end = Math.min(end, length - 1);
+					}
+				}
+				if (start >= length || start > end) {
+					return new long[0];
+				}
+				return new long[] { start, end };
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+
+		private byte[] toBytes(InputStream uploadedInputStream, long maxSize) throws IOException {
+			return new MongoFileStore.LimitedInputStream(uploadedInputStream, maxSize).readAllBytes();
 		}
 	}
 }
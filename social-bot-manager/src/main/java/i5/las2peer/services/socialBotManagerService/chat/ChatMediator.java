@@ -19,6 +19,7 @@ import java.util.*;
 
 public abstract class ChatMediator {
 	private ChatMessageCollector messageCollector;
+	private Runnable messageListener;
 	// Used for storing the conversation path
 	//private ChatMessageCollector conversationPathCollector;
 
@@ -226,6 +227,24 @@ public abstract class ChatMediator {
 		return messageCollector;
 	}
 
+	public Runnable getMessageListener() {
+		return messageListener;
+	}
+
+	/**
+	 * Sets the listener that is notified whenever the message collector of this
+	 * mediator receives a new message.
+	 *
+	 * @param messageListener the listener
+	 */
+	public void setMessageListener(Runnable messageListener) {
+		this.messageListener = messageListener;
+		ChatMessageCollector collector = getMessageCollector();
+		if (collector != null) {
+			collector.setMessageListener(messageListener);
+		}
+	}
+
 	// public ChatMessageCollector getConversationPathCollector() {
 	// 	return conversationPathCollector;
 	// }
@@ -11,6 +11,8 @@ public class ChatMessage {
 	private String fileName;
 	private String fileType;
 	private String fileBody;
+	// id of the file in the file store, set instead of fileBody for uploaded files
+	private String fileId;
 	private String time;
 	private String domain;
 	private String previousMessage;
@@ -136,6 +138,22 @@ public class ChatMessage {
 		return fileBody;
 	}
 
+	public String getFileId() {
+		return fileId;
+	}
+
+	public void setFileId(String fileId) {
+		this.fileId = fileId;
+	}
+
+	/**
+	 * @return true if a file was sent with this message, either inline or as a
+	 *         reference into the file store
+	 */
+	public boolean hasFile() {
+		return fileBody != null || fileId != null;
+	}
+
 	public String getTime() {
 		return time;
 	}
@@ -6,6 +6,8 @@ public class ChatMessageCollector {
 	Vector<ChatMessage> messages;
 	private boolean connected;
 	private String domain;	
+	// Notified whenever a new message was added
+	private Runnable messageListener;
 
 	private static String[][] UMLAUT_REPLACEMENTS = { { new String("Ä"), "Ae" }, { new String("Ü"), "Ue" },
 			{ new String("Ö"), "Oe" }, { new String("ä"), "ae" }, { new String("ü"), "ue" }, { new String("ö"), "oe" },
@@ -30,6 +32,13 @@ public class ChatMessageCollector {
 		// System.out.println("Message added: Channel: " + message.getChannel() + ",
 		// User: " + message.getUser());
 		this.messages.add(message);
+		if (this.messageListener != null) {
+			try {
+				this.messageListener.run();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
 	}
 
 	// Copies messages in a thread-safe manner and returns the copy.
@@ -50,6 +59,14 @@ public class ChatMessageCollector {
 		this.connected = connected;
 	}
 
+	public Runnable getMessageListener() {
+		return messageListener;
+	}
+
+	public void setMessageListener(Runnable messageListener) {
+		this.messageListener = messageListener;
+	}
+
 	public String getDomain() {
 		return domain;
 	}
@@ -1,9 +1,19 @@
 package i5.las2peer.services.socialBotManagerService.chat;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
+/**
+ * Posts of a forum discussion. All nodes of a discussion share an index from
+ * post id to node, the origin (sequence id) of a post is determined once when
+ * it is inserted.
+ */
 public class MessageTree {
 	private String postid; 
 	private String userid; 
@@ -12,7 +22,17 @@ public class MessageTree {
 	private MessageTree parent;
 	private boolean linked; // Tells us whether the post has a child of the same sequence
 	private ArrayList<MessageTree> children;
-	private static HashSet<String> ignoreIds = new HashSet<String>();
+	// first child that continues the sequence of this post
+	private MessageTree sequenceNext;
+	private final MessageTree root;
+	/**
+	 * Shared by all posts of the discussion
+	 * Key: post ID
+	 * Value: node of the post
+	 */
+	private final ConcurrentHashMap<String, MessageTree> index;
+	private volatile long lastActivity;
+	private static Set<String> ignoreIds = ConcurrentHashMap.newKeySet();
 	
 	public static void setIgnoreId(String id) {
 		ignoreIds.add(id);
@@ -21,6 +41,10 @@ public class MessageTree {
 	public static boolean hasIgnoreId(String id) {
 		return ignoreIds.contains(id);
 	}
+
+	public static Set<String> getIgnoreIds() {
+		return Collections.unmodifiableSet(ignoreIds);
+	}
 	
 	public String getUserId() {
 		return this.userid;
@@ -45,6 +69,24 @@ public class MessageTree {
 	public boolean isLinked() {
 		return this.linked;
 	}
+
+	public MessageTree getParent() {
+		return this.parent;
+	}
+
+	/**
+	 * @return time of the last insert into or lookup in the discussion
+	 */
+	public long getLastActivity() {
+		return this.root.lastActivity;
+	}
+
+	/**
+	 * @return number of posts in the discussion
+	 */
+	public int size() {
+		return this.index.size();
+	}
 	
 	public MessageTree (String postid, String userid, MessageTree parent) {
 		this.postid = postid;
@@ -52,7 +94,11 @@ public class MessageTree {
 		this.parent = parent;
 		this.linked = false;
 		this.children = new ArrayList<MessageTree>();
+		this.root = parent == null ? this : parent.root;
+		this.index = parent == null ? new ConcurrentHashMap<String, MessageTree>() : parent.index;
 		this.setOrigin();
+		this.index.put(postid, this);
+		this.root.lastActivity = System.currentTimeMillis();
 		//System.out.println("\u001B[33mDebug --- Origin: " + this.postid + " " + this.userid + "\u001B[0m");
 	}
 	
@@ -89,35 +135,38 @@ public class MessageTree {
 		}
 	}
 	
-	private void addChild(MessageTree child) {
+	private synchronized void addChild(MessageTree child) {
 		this.children.add(child);
+		if (this.sequenceNext == null && child.getOriginPid().equals(this.originpid)) {
+			this.sequenceNext = child;
+		}
 	}
 	
 	public MessageTree searchPost(String postid) {
-		if (this.postid.equals(postid)) {
-			return this;
-		} else {
-			for (MessageTree tree : this.children) {
-				MessageTree res = tree.searchPost(postid);
-				if (res != null) {
-					return res;
-				}
+		MessageTree res = this.index.get(postid);
+		if (res == null || this == this.root) {
+			this.root.lastActivity = System.currentTimeMillis();
+			return res;
+		}
+		// only posts in the subtree of this post
+		for (MessageTree t = res; t != null; t = t.parent) {
+			if (t == this) {
+				return res;
 			}
 		}
 		return null;
 	}
 	
 	public MessageTree getSequenceTail() {
-		for (MessageTree child : this.children) {
-			if (child.getOriginPid().equals(this.originpid)) {
-				return child.getSequenceTail();
-			}
+		MessageTree tail = this;
+		while (tail.sequenceNext != null) {
+			tail = tail.sequenceNext;
 		}
-		return this;
+		return tail;
 	}
 	
 	public boolean insertPost(String postid, String userid, String parentid) {
-		MessageTree parentTree = this.searchPost(parentid);
+		MessageTree parentTree = parentid == null ? null : this.searchPost(parentid);
 		if (parentTree != null) {
 			parentTree.addChild(new MessageTree(postid, userid, parentTree));
 			System.out.println("\u001B[33mDebug --- Post inserted: " + postid + " " + userid + "\u001B[0m");
@@ -131,5 +180,32 @@ public class MessageTree {
 	public boolean containsPost(String postid) {
 		return searchPost(postid) != null;
 	}
-}
 
+	/**
+	 * @return post IDs of the discussion
+	 */
+	public Set<String> getPostIds() {
+		return Collections.unmodifiableSet(this.index.keySet());
+	}
+
+	/**
+	 * Lists the posts of this subtree, every parent before its children.
+	 *
+	 * @return post id, user id and parent post id (null for the root) of the posts
+	 */
+	public List<String[]> getPosts() {
+		List<String[]> posts = new ArrayList<String[]>();
+		Deque<MessageTree> stack = new ArrayDeque<MessageTree>();
+		stack.push(this);
+		while (!stack.isEmpty()) {
+			MessageTree t = stack.pop();
+			posts.add(new String[] { t.postid, t.userid, t.parent == null ? null : t.parent.postid });
+			synchronized (t) {
+				for (int i = t.children.size() - 1; i >= 0; i--) {
+					stack.push(t.children.get(i));
+				}
+			}
+		}
+		return posts;
+	}
+}
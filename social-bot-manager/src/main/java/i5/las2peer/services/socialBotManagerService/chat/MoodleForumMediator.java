@@ -11,18 +11,64 @@ import org.json.JSONArray;
 import java.io.File;
 import java.io.IOError;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Vector;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Set;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MoodleForumMediator extends ChatMediator {
 	private final static String domainName = "https://moodle.tech4comp.dbis.rwth-aachen.de";
 	private MoodleForumMessageCollector messageCollector = new MoodleForumMessageCollector();
-	private HashMap<String, MessageTree> discussions = new HashMap<String, MessageTree>();
+	public static final int DEFAULT_MAX_DISCUSSIONS = 1000;
+	public static final int DEFAULT_DISCUSSION_TTL = 1209600; // seconds (two weeks)
+
+	private static int maxDiscussions = DEFAULT_MAX_DISCUSSIONS;
+	private static long discussionTtl = DEFAULT_DISCUSSION_TTL * 1000L;
+	// directory the discussions are saved in, null if they are not saved
+	private static String persistenceDir = null;
+	/**
+	 * Key: path of a persistence file
+	 * Value: the mediator that saves its discussions into the file
+	 */
+	private static final HashMap<String, MoodleForumMediator> fileOwners = new HashMap<String, MoodleForumMediator>();
+
+	public static final int DEFAULT_USER_CACHE_SIZE = 10000;
+	public static final int DEFAULT_USER_ID_TTL = 86400; // seconds
+	// number of email addresses resolved with one web service call
+	private static final int USER_LOOKUP_BATCH_SIZE = 50;
+
+	private static int userCacheSize = DEFAULT_USER_CACHE_SIZE;
+	private static long userIdTtl = DEFAULT_USER_ID_TTL * 1000L;
+
+	/**
+	 * Access ordered, the eldest discussion is the least recently used one.
+	 * Key: discussion ID
+	 * Value: posts of the discussion
+	 */
+	private final LinkedHashMap<String, MessageTree> discussions = new LinkedHashMap<String, MessageTree>(16, 0.75f,
+			true);
+	/**
+	 * Key: post ID
+	 * Value: ID of the discussion the post belongs to
+	 */
+	private final ConcurrentHashMap<String, String> postDiscussions = new ConcurrentHashMap<String, String>();
+	/**
+	 * Key: email address in lower case
+	 * Value: Moodle user id
+	 */
+	private final ConcurrentHashMap<String, CachedUserId> userIds = new ConcurrentHashMap<String, CachedUserId>();
 	
 	public MoodleForumMediator(String authToken) throws IOException, AuthTokenException{
 		super(authToken);
@@ -37,6 +83,38 @@ public class MoodleForumMediator extends ChatMediator {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		takeOverPersistenceFile();
+		loadDiscussions();
+	}
+
+	/**
+	 * Makes this mediator the one saving the discussions of its token. A mediator
+	 * replaced by a new one for the same token saves its discussions first and
+	 * does not write the file anymore.
+	 */
+	private void takeOverPersistenceFile() {
+		File file = getPersistenceFile();
+		if (file == null) {
+			return;
+		}
+		synchronized (fileOwners) {
+			MoodleForumMediator previous = fileOwners.put(file.getPath(), this);
+			if (previous != null && previous != this) {
+				previous.writeDiscussions(file);
+			}
+		}
+	}
+
+	/**
+	 * Saves the discussions of all mediators owning a persistence file, called
+	 * when the service stops.
+	 */
+	public static void saveAll() {
+		synchronized (fileOwners) {
+			for (Entry<String, MoodleForumMediator> entry : fileOwners.entrySet()) {
+				entry.getValue().writeDiscussions(new File(entry.getKey()));
+			}
+		}
 	}
 	
 	@Override
@@ -50,22 +128,19 @@ public class MoodleForumMediator extends ChatMediator {
 			args.put("message", text);
 			args.put("subject", "Bot response");
 			
-			for (Entry<String, MessageTree> entry : discussions.entrySet()) {
-				MessageTree discussion = entry.getValue();
-				if (discussion.containsPost(channel)) {
-					noDiscussion = false;
-					MessageTree originPost = discussion.searchPost(channel);
-					if (originPost != null) {
-						String postid = originPost.getSequenceTail().getPostId();
-						args.put("postid", postid); 
-						shouldPost = true;
-						System.out.println("\u001B[33mDebug --- Post found in tree: " + postid + "\u001B[0m");
-					} else {
-						args.put("postid", channel);
-						shouldPost = true;
-						System.out.println("Debug --- Post not in tree: " + channel);
-					}
-					break;
+			MessageTree discussion = getDiscussionOfPost(channel);
+			if (discussion != null) {
+				noDiscussion = false;
+				MessageTree originPost = discussion.searchPost(channel);
+				if (originPost != null) {
+					String postid = originPost.getSequenceTail().getPostId();
+					args.put("postid", postid); 
+					shouldPost = true;
+					System.out.println("\u001B[33mDebug --- Post found in tree: " + postid + "\u001B[0m");
+				} else {
+					args.put("postid", channel);
+					shouldPost = true;
+					System.out.println("Debug --- Post not in tree: " + channel);
 				}
 			}
 			if (noDiscussion) {
@@ -89,11 +164,258 @@ public class MoodleForumMediator extends ChatMediator {
 		return messageSent;
 	}
 
+	/**
+	 * Sets the limits of the discussions kept by the mediators.
+	 *
+	 * @param max        maximum number of discussions per mediator
+	 * @param ttl        seconds after which a discussion without new posts is
+	 *                   dropped
+	 * @param directory  directory the discussions are saved in when the mediator
+	 *                   is closed, null or empty to not save them
+	 */
+	public static void configure(int max, int ttl, String directory) {
+		if (max > 0) {
+			maxDiscussions = max;
+		}
+		if (ttl > 0) {
+			discussionTtl = ttl * 1000L;
+		}
+		persistenceDir = directory == null || directory.isEmpty() ? null : directory;
+	}
+
+	/**
+	 * @param size maximum number of cached Moodle user ids per mediator
+	 * @param ttl  seconds a cached user id is used
+	 */
+	public static void configureUserCache(int size, int ttl) {
+		if (size > 0) {
+			userCacheSize = size;
+		}
+		if (ttl > 0) {
+			userIdTtl = ttl * 1000L;
+		}
+	}
+
+	/**
+	 * @param email email address of a Moodle user
+	 * @return the cached user id or an empty string if it is unknown
+	 */
+	private String getUserId(String email) {
+		CachedUserId cached = userIds.get(email.toLowerCase());
+		if (cached == null || System.currentTimeMillis() - cached.created > userIdTtl) {
+			return "";
+		}
+		return cached.id;
+	}
+
+	/**
+	 * Looks up the Moodle user ids of the given email addresses that are not
+	 * cached yet. The ids are requested with as few web service calls as
+	 * possible.
+	 */
+	private void resolveUserIds(Set<String> emails) {
+		long now = System.currentTimeMillis();
+		ArrayList<String> missing = new ArrayList<String>();
+		for (String email : emails) {
+			CachedUserId cached = userIds.get(email.toLowerCase());
+			if (cached == null || now - cached.created > userIdTtl) {
+				missing.add(email);
+			}
+		}
+		for (int i = 0; i < missing.size(); i += USER_LOOKUP_BATCH_SIZE) {
+			resolveUserIds(missing.subList(i, Math.min(missing.size(), i + USER_LOOKUP_BATCH_SIZE)), now);
+		}
+		if (userIds.size() > userCacheSize) {
+			userIds.values().removeIf(cached -> now - cached.created > userIdTtl);
+			Iterator<String> it = userIds.keySet().iterator();
+			while (userIds.size() > userCacheSize && it.hasNext()) {
+				it.next();
+				it.remove();
+			}
+		}
+	}
+
+	private void resolveUserIds(List<String> batch, long now) {
+		HashMap<String,String> args = new HashMap<String,String>();
+		args.put("field", "email");
+		for (int j = 0; j < batch.size(); j++) {
+			args.put("values[" + j + "]", batch.get(j));
+		}
+		boolean withoutEmail = false;
+		try {
+			String res = sendRequest(domainName, "core_user_get_users_by_field", args);
+			JSONArray users = new JSONArray(res);
+			for (int j = 0; j < users.length(); j++) {
+				JSONObject user = users.getJSONObject(j);
+				String id = Integer.toString(user.getNumber("id").intValue());
+				String email = user.optString("email", batch.size() == 1 ? batch.get(0) : "");
+				if (email.isEmpty()) {
+					withoutEmail = true;
+				} else {
+					userIds.put(email.toLowerCase(), new CachedUserId(id, now));
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		// the token may not be allowed to see email addresses, then the users
+		// cannot be told apart and have to be requested one by one
+		if (withoutEmail && batch.size() > 1) {
+			for (String email : batch) {
+				if (!userIds.containsKey(email.toLowerCase())) {
+					resolveUserIds(Collections.singletonList(email), now);
+				}
+			}
+		}
+	}
+
+	private MessageTree getDiscussion(String discussionid) {
+		synchronized (discussions) {
+			return discussions.get(discussionid);
+		}
+	}
+
+	private MessageTree getDiscussionOfPost(String postid) {
+		String discussionid = postDiscussions.get(postid);
+		return discussionid == null ? null : getDiscussion(discussionid);
+	}
+
+	private void putDiscussion(String discussionid, MessageTree tree) {
+		synchronized (discussions) {
+			MessageTree old = discussions.put(discussionid, tree);
+			if (old != null) {
+				removePosts(discussionid, old);
+			}
+			postDiscussions.put(tree.getPostId(), discussionid);
+			evictDiscussions();
+		}
+	}
+
+	/**
+	 * Drops discussions that exceed the maximum number or had no activity for
+	 * longer than the TTL.
+	 */
+	private void evictDiscussions() {
+		synchronized (discussions) {
+			long now = System.currentTimeMillis();
+			Iterator<Entry<String, MessageTree>> it = discussions.entrySet().iterator();
+			while (it.hasNext()) {
+				Entry<String, MessageTree> entry = it.next();
+				if (discussions.size() > maxDiscussions || now - entry.getValue().getLastActivity() > discussionTtl) {
+					it.remove();
+					removePosts(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+	}
+
+	private void removePosts(String discussionid, MessageTree tree) {
+		for (String postid : tree.getPostIds()) {
+			postDiscussions.remove(postid, discussionid);
+		}
+	}
+
+	private File getPersistenceFile() {
+		if (persistenceDir == null) {
+			return null;
+		}
+		return new File(persistenceDir, "moodle-forum-" + Integer.toHexString(authToken.hashCode()) + ".json");
+	}
+
+	/**
+	 * Restores the discussions saved by {@link #saveDiscussions()}.
+	 */
+	private void loadDiscussions() {
+		File file = getPersistenceFile();
+		if (file == null || !file.exists()) {
+			return;
+		}
+		try {
+			JSONObject saved = new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+			JSONArray ignoreIds = saved.getJSONArray("ignoreIds");
+			for (int i = 0; i < ignoreIds.length(); i++) {
+				MessageTree.setIgnoreId(ignoreIds.getString(i));
+			}
+			JSONObject savedDiscussions = saved.getJSONObject("discussions");
+			for (String discussionid : savedDiscussions.keySet()) {
+				JSONArray posts = savedDiscussions.getJSONArray(discussionid);
+				MessageTree tree = null;
+				for (int i = 0; i < posts.length(); i++) {
+					JSONArray post = posts.getJSONArray(i);
+					if (tree == null) {
+						tree = new MessageTree(post.getString(0), post.getString(1), null);
+						putDiscussion(discussionid, tree);
+					} else if (tree.insertPost(post.getString(0), post.getString(1), post.optString(2, null))) {
+						postDiscussions.put(post.getString(0), discussionid);
+					}
+				}
+			}
+			System.out.println("Restored " + discussions.size() + " forum discussions.");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Saves the discussions, so that replies can still be assigned to their
+	 * sequence after a restart. Does nothing if another mediator took over the
+	 * file.
+	 */
+	public void saveDiscussions() {
+		File file = getPersistenceFile();
+		if (file == null) {
+			return;
+		}
+		synchronized (fileOwners) {
+			if (fileOwners.get(file.getPath()) == this) {
+				writeDiscussions(file);
+			}
+		}
+	}
+
+	private void writeDiscussions(File file) {
+		try {
+			JSONObject saved = new JSONObject();
+			saved.put("ignoreIds", new JSONArray(MessageTree.getIgnoreIds()));
+			JSONObject savedDiscussions = new JSONObject();
+			synchronized (discussions) {
+				for (Entry<String, MessageTree> entry : discussions.entrySet()) {
+					JSONArray posts = new JSONArray();
+					for (String[] post : entry.getValue().getPosts()) {
+						posts.put(new JSONArray(Arrays.asList(post[0], post[1], post[2] == null ? JSONObject.NULL : post[2])));
+					}
+					savedDiscussions.put(entry.getKey(), posts);
+				}
+			}
+			saved.put("discussions", savedDiscussions);
+			file.getParentFile().mkdirs();
+			Files.write(file.toPath(), saved.toString().getBytes(StandardCharsets.UTF_8));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
 	public void handle(ArrayList<String> statements) {
+		evictDiscussions();
+		// Resolve the user ids of all forum statements of the batch at once
+		ArrayList<JSONObject> statementObjs = new ArrayList<JSONObject>();
+		HashSet<String> emails = new HashSet<String>();
 		for (String statement : statements) {
+			try {
+				JSONObject json = new JSONObject(statement);
+				JSONObject statementObj = (JSONObject) json.get("statement");
+				statementObjs.add(statementObj);
+				String verbID = ((JSONObject) statementObj.get("verb")).getString("id");
+				if (verbID.contains("replied") || verbID.contains("posted")) {
+					emails.add(((JSONObject) ((JSONObject) statementObj.get("actor")).get("account")).getString("name"));
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		resolveUserIds(emails);
 
-			JSONObject json = new JSONObject(statement);
-			JSONObject statementObj = (JSONObject) json.get("statement");
+		for (JSONObject statementObj : statementObjs) {
 			JSONObject verb = (JSONObject) statementObj.get("verb");
 			String verbID = verb.getString("id");
 			
@@ -110,17 +432,7 @@ public class MoodleForumMediator extends ChatMediator {
 				
 				String message = description.getString("en-US");
 				String userEmail = account.getString("name");
-				HashMap<String,String> args = new HashMap<String,String>();
-				args.put("field", "email");
-				args.put("values[0]", userEmail);
-				String userid = "";
-				try {
-					String res = sendRequest(domainName, "core_user_get_users_by_field", args);
-					JSONObject resObj = (JSONObject) (new JSONArray(res)).get(0);
-					userid = Integer.toString(resObj.getNumber("id").intValue());
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
+				String userid = getUserId(userEmail);
 
 				try {
 					// Determine discussion id, post id, and parent post id
@@ -135,19 +447,21 @@ public class MoodleForumMediator extends ChatMediator {
 						parentid = null;
 					}
 					
-					if (parentid == null && !discussions.containsKey(discussionid)) {
+					MessageTree discussion = getDiscussion(discussionid);
+					if (parentid == null && discussion == null) {
 						MessageTree newPost = new MessageTree(postid, userid, null);
-						discussions.put(discussionid, newPost);
+						putDiscussion(discussionid, newPost);
 						if (!MessageTree.hasIgnoreId(userid)) {
 							this.messageCollector.handle(postid, userid, message);
 						}
-					} else if (discussions.containsKey(discussionid) && !discussions.get(discussionid).containsPost(postid)) {
+					} else if (discussion != null && !discussion.containsPost(postid)) {
 						
 						// Add post to existing tree
 						//System.out.println("\u001B[33mDebug --- Parent ID: " + parentid + "\u001B[0m");
-						if (discussions.get(discussionid).insertPost(postid, userid, parentid)) {
+						if (discussion.insertPost(postid, userid, parentid)) {
+							postDiscussions.put(postid, discussionid);
 							// Add message to collector with post ID of the original post
-							String originid = discussions.get(discussionid).searchPost(postid).getOriginPid();
+							String originid = discussion.searchPost(postid).getOriginPid();
 							if (!MessageTree.hasIgnoreId(userid)) {
 								this.messageCollector.handle(originid, userid, message);
 							}
@@ -162,7 +476,7 @@ public class MoodleForumMediator extends ChatMediator {
 						
 					// If discussion does not exist (for example, because the service stopped), 
 					} else {
-						if (!MessageTree.hasIgnoreId(userid) && !discussions.containsKey(discussionid)) {
+						if (!MessageTree.hasIgnoreId(userid) && discussion == null) {
 							//MessageTree newPost = new MessageTree(postid, userid, null);
 							//discussions.put(discussionid, newPost);
 							this.messageCollector.handle(postid, userid, message);
@@ -195,6 +509,11 @@ public class MoodleForumMediator extends ChatMediator {
 		return this.messageCollector.getMessages();
 	}
 
+	@Override
+	public ChatMessageCollector getMessageCollector() {
+		return this.messageCollector;
+	}
+
 	@Override
 	public String getChannelByEmail(String email) {
 		// TODO Auto-generated method stub
@@ -226,7 +545,24 @@ public class MoodleForumMediator extends ChatMediator {
 
 	@Override
 	public void close() {
-		// TODO Auto-generated method stub
+		File file = getPersistenceFile();
+		if (file == null) {
+			return;
+		}
+		synchronized (fileOwners) {
+			if (fileOwners.remove(file.getPath(), this)) {
+				writeDiscussions(file);
+			}
+		}
+	}
+
+	private static class CachedUserId {
+		private final String id;
+		private final long created;
 
+		CachedUserId(String id, long created) {
+			this.id = id;
+			this.created = created;
+		}
 	}
 }
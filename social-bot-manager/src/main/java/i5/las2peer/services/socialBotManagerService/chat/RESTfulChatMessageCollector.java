@@ -29,4 +29,21 @@ public class RESTfulChatMessageCollector extends ChatMessageCollector{
             e.printStackTrace();
         }
     } 
+
+    /**
+     * Handles a file that was already put into the file store.
+     *
+     * @param fileId   id of the file in the file store
+     * @param fileName name of the file
+     * @param fileType content type of the file
+     * @param channel  the channel
+     */
+    public void handleFile(String fileId, String fileName, String fileType, String channel) {
+        System.out.println("Handling Attachment " + fileId + ".");
+        ChatMessage cm = new ChatMessage(channel, channel, "", fileName, fileType, null);
+        cm.setFileId(fileId);
+        cm.setEmail(channel);
+        cm.setRole(0);
+        this.addMessage(cm);
+    }
 }
@@ -450,6 +450,7 @@ public class SlackChatMediator extends EventChatMediator {
 				scm.rtm = scm.slack.rtm(scm.authToken);
 				scm.rtm.removeMessageHandler(scm.messageCollector);
 				scm.messageCollector = new SlackChatMessageCollector();
+				scm.messageCollector.setMessageListener(scm.getMessageListener());
 				scm.rtm.addMessageHandler(scm.messageCollector);
 				scm.rtm.connect();
 				System.out.println(scm.messageCollector.isConnected() + scm.rtm.getConnectedBotUser().toString());
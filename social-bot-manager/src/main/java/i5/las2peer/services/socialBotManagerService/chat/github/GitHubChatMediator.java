@@ -181,6 +181,11 @@ public abstract class GitHubChatMediator extends EventChatMediator {
         return this.messageCollector.getMessages();
     }
 
+    @Override
+    public ChatMessageCollector getMessageCollector() {
+        return this.messageCollector;
+    }
+
     /**
      * Returns the id of the GitHub app that the chat mediator is using.
      *
@@ -1,10 +1,6 @@
 package i5.las2peer.services.socialBotManagerService.chat.github;
 
-import i5.las2peer.api.Context;
-import i5.las2peer.services.socialBotManagerService.SocialBotManagerService;
-import i5.las2peer.services.socialBotManagerService.chat.ChatService;
-import i5.las2peer.services.socialBotManagerService.model.Bot;
-import i5.las2peer.services.socialBotManagerService.model.Messenger;
+import i5.las2peer.services.socialBotManagerService.model.BotRegistry;
 import io.swagger.annotations.Api;
 import net.minidev.json.JSONObject;
 import net.minidev.json.JSONValue;
@@ -14,7 +10,6 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.core.Response;
-import java.util.Collection;
 
 @Api(value = "GitHub Webhook Receiver Resource")
 @Path("/github")
@@ -39,26 +34,9 @@ public class GitHubWebhookReceiver {
         eventObj.put("event", eventName);
         eventObj.put("payload", payload);
 
-        SocialBotManagerService service = (SocialBotManagerService) Context.get().getService();
-
         // need to find bot(s) that use this GitHub app id
-        Collection<Bot> bots = service.getConfig().getBots().values();
-        for (Bot bot : bots) {
-            Messenger messenger = bot.getMessenger(ChatService.GITHUB_ISSUES);
-            if (messenger != null) {
-                GitHubIssueMediator mediator = (GitHubIssueMediator) messenger.getChatMediator();
-                if (mediator.getGitHubAppId() == gitHubAppId) {
-                    mediator.handleEvent(eventObj);
-                }
-            }
-
-            messenger = bot.getMessenger(ChatService.GITHUB_PR);
-            if (messenger != null) {
-                GitHubPRMediator mediator = (GitHubPRMediator) messenger.getChatMediator();
-                if (mediator.getGitHubAppId() == gitHubAppId) {
-                    mediator.handleEvent(eventObj);
-                }
-            }
+        for (BotRegistry.Route route : BotRegistry.getInstance().getByGitHubAppId(gitHubAppId)) {
+            ((GitHubChatMediator) route.getMessenger().getChatMediator()).handleEvent(eventObj);
         }
 
         return Response.status(200).build();
@@ -0,0 +1,134 @@
+package i5.las2peer.services.socialBotManagerService.chat.xAPI;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Builds the xAPI statements that are sent for messages with a recognized
+ * intent.
+ *
+ * The parts that are the same for every statement (verb and authority) are
+ * serialized once when the builder is created, the rest is written with a
+ * streaming JSON writer.
+ */
+public class IntentStatementBuilder {
+
+	public static final String INTENT_EXTENSION = "https://tech4comp.de/xapi/context/extensions/intent";
+	public static final String BOT_ACTIVITY_TYPE = "https://tech4comp.de/xapi/activitytype/bot";
+	public static final String BOT_ID_PREFIX = "https://tech4comp.de/bot/";
+
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
+	private final String homePage;
+	private final String verbJson;
+	private final String authorityJson;
+
+	/**
+	 * @param verb          verb of the statements, the English display text is
+	 *                      taken from en-EN
+	 * @param homePage      home page of the accounts of the users
+	 * @param authorityName name of the authority
+	 * @param authorityMbox mbox of the authority
+	 */
+	public IntentStatementBuilder(xAPIVerb verb, String homePage, String authorityName, String authorityMbox) {
+		this.homePage = homePage;
+		this.verbJson = write(g -> {
+			g.writeStartObject();
+			g.writeObjectFieldStart("display");
+			g.writeStringField("en-US", verb.getDisplay().getEnEN());
+			g.writeEndObject();
+			g.writeStringField("id", verb.getId());
+			g.writeEndObject();
+		});
+		this.authorityJson = write(g -> {
+			g.writeStartObject();
+			g.writeStringField("objectType", "Agent");
+			g.writeStringField("name", authorityName);
+			g.writeStringField("mbox", authorityMbox);
+			g.writeEndObject();
+		});
+	}
+
+	/**
+	 * @return the builder for the statements the bots have always sent
+	 */
+	public static IntentStatementBuilder createDefault() {
+		xAPIVerb verb = new xAPIVerb();
+		verb.setId("https://tech4comp.de/xapi/verb/sent_chat_message");
+		verb.getDisplay().setEnEN("sent_chat_message");
+		return new IntentStatementBuilder(verb, "https://chat.tech4comp.dbis.rwth-aachen.de", "New Client",
+				"mailto:hello@learninglocker.net");
+	}
+
+	/**
+	 * @param userMail (pseudonymized) email of the user
+	 * @param botName  name of the bot
+	 * @param intent   recognized intent
+	 * @param text     text of the message
+	 * @return the statement as JSON
+	 */
+	public String build(String userMail, String botName, String intent, String text) {
+		return write(g -> {
+			g.writeStartObject();
+
+			g.writeFieldName("authority");
+			g.writeRawValue(authorityJson);
+
+			g.writeObjectFieldStart("context");
+			g.writeObjectFieldStart("extensions");
+			g.writeObjectFieldStart(INTENT_EXTENSION);
+			g.writeStringField("botName", botName);
+			g.writeStringField("text", text);
+			g.writeEndObject();
+			g.writeEndObject();
+			g.writeEndObject();
+
+			g.writeObjectFieldStart("actor");
+			g.writeStringField("objectType", "Agent");
+			g.writeObjectFieldStart("account");
+			g.writeStringField("name", userMail);
+			g.writeStringField("homePage", homePage);
+			g.writeEndObject();
+			g.writeEndObject();
+
+			g.writeObjectFieldStart("object");
+			g.writeObjectFieldStart("definition");
+			g.writeStringField("interactionType", "other");
+			g.writeObjectFieldStart("name");
+			g.writeStringField("en-US", intent);
+			g.writeEndObject();
+			g.writeObjectFieldStart("description");
+			g.writeStringField("en-US", intent);
+			g.writeEndObject();
+			g.writeStringField("type", BOT_ACTIVITY_TYPE);
+			g.writeEndObject();
+			g.writeStringField("id", BOT_ID_PREFIX + botName);
+			g.writeStringField("objectType", "Activity");
+			g.writeEndObject();
+
+			g.writeFieldName("verb");
+			g.writeRawValue(verbJson);
+
+			g.writeEndObject();
+		});
+	}
+
+	private static String write(JsonWriter writer) {
+		StringWriter out = new StringWriter(512);
+		try (JsonGenerator g = jsonFactory.createGenerator(out)) {
+			writer.write(g);
+		} catch (IOException e) {
+			// not expected when writing into a string
+			throw new UncheckedIOException(e);
+		}
+		return out.toString();
+	}
+
+	private interface JsonWriter {
+		void write(JsonGenerator g) throws IOException;
+	}
+}
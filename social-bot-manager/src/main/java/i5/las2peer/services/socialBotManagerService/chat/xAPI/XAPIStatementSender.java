@@ -0,0 +1,324 @@
+package i5.las2peer.services.socialBotManagerService.chat.xAPI;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends xAPI statements to the LRS in the background.
+ *
+ * Statements are queued in memory and posted in batches to the statements
+ * endpoint of the LRS. Failed batches are retried with an increasing delay. If
+ * the LRS stays unavailable, or if the queue is full, statements are written to
+ * a spool directory and sent once the LRS is reachable again.
+ */
+public class XAPIStatementSender {
+
+	public static final int DEFAULT_QUEUE_SIZE = 10000;
+	public static final int DEFAULT_BATCH_SIZE = 50;
+	public static final int DEFAULT_FLUSH_INTERVAL = 1000; // ms
+	public static final int DEFAULT_MAX_RETRIES = 3;
+
+	private static final long MAX_BACKOFF = 60000; // ms
+	private static final long INITIAL_BACKOFF = 1000; // ms
+
+	private static XAPIStatementSender instance = null;
+
+	private String lrsUrl;
+	private String lrsAuthToken;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int flushInterval = DEFAULT_FLUSH_INTERVAL;
+	private int maxRetries = DEFAULT_MAX_RETRIES;
+	private File spoolDir;
+
+	private ArrayBlockingQueue<String> queue = new ArrayBlockingQueue<String>(DEFAULT_QUEUE_SIZE);
+	private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+	private Thread worker;
+	private volatile boolean running = false;
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong spooled = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong failedRequests = new AtomicLong();
+
+	protected XAPIStatementSender() {
+	}
+
+	public static synchronized XAPIStatementSender getInstance() {
+		if (instance == null) {
+			instance = new XAPIStatementSender();
+		}
+		return instance;
+	}
+
+	/**
+	 * Sets up the sender and starts the background thread. Without LRS URL or
+	 * token no statements are sent.
+	 *
+	 * @param url           URL of the LRS
+	 * @param authToken     basic auth token of the LRS
+	 * @param queueSize     statements kept in memory
+	 * @param batch         maximum statements per request
+	 * @param interval      ms to wait for more statements before a batch is sent
+	 * @param retries       attempts per batch before it is spooled
+	 * @param spoolDirectory directory for statements that could not be sent, null
+	 *                      or empty to drop them instead
+	 */
+	public synchronized void configure(String url, String authToken, int queueSize, int batch, int interval,
+			int retries, String spoolDirectory) {
+		this.lrsUrl = url == null || url.isEmpty() ? null : url;
+		this.lrsAuthToken = authToken == null || authToken.isEmpty() ? null : authToken;
+		if (queueSize > 0 && queueSize != queue.remainingCapacity() + queue.size()) {
+			ArrayBlockingQueue<String> resized = new ArrayBlockingQueue<String>(queueSize);
+			queue.drainTo(resized, queueSize);
+			queue = resized;
+		}
+		if (batch > 0) {
+			this.batchSize = batch;
+		}
+		if (interval > 0) {
+			this.flushInterval = interval;
+		}
+		if (retries > 0) {
+			this.maxRetries = retries;
+		}
+		this.spoolDir = spoolDirectory == null || spoolDirectory.isEmpty() ? null : new File(spoolDirectory);
+		this.spooled.set(countSpooled());
+		if (isEnabled() && !running) {
+			start();
+		}
+	}
+
+	public boolean isEnabled() {
+		return lrsUrl != null && lrsAuthToken != null;
+	}
+
+	/**
+	 * Queues a statement. Does not block, if the queue is full the statement is
+	 * spooled or dropped.
+	 *
+	 * @param statement the statement as JSON
+	 */
+	public void send(String statement) {
+		if (!isEnabled()) {
+			return;
+		}
+		if (!queue.offer(statement)) {
+			spool(Arrays.asList(statement));
+		}
+	}
+
+	private synchronized void start() {
+		running = true;
+		worker = new Thread(this::run, "sbf-xapi-sender");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Stops the background thread. Statements that are still queued are spooled.
+	 */
+	public void stop() {
+		running = false;
+		if (worker != null) {
+			worker.interrupt();
+			try {
+				worker.join(2000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		List<String> rest = new ArrayList<String>();
+		queue.drainTo(rest);
+		if (!rest.isEmpty()) {
+			spool(rest);
+		}
+	}
+
+	private void run() {
+		List<String> batch = new ArrayList<String>();
+		while (running) {
+			try {
+				String first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					// idle, time to send spooled statements
+					resendSpooled();
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, batchSize - 1);
+				if (!sendWithRetries(batch)) {
+					spool(batch);
+				}
+				batch.clear();
+			} catch (InterruptedException e) {
+				if (!batch.isEmpty()) {
+					spool(batch);
+				}
+				return;
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private boolean sendWithRetries(List<String> batch) throws InterruptedException {
+		long backoff = INITIAL_BACKOFF;
+		for (int attempt = 1; attempt <= maxRetries; attempt++) {
+			Boolean result = post(batch);
+			if (result != null) {
+				return result;
+			}
+			if (attempt < maxRetries) {
+				Thread.sleep(backoff);
+				backoff = Math.min(MAX_BACKOFF, backoff * 2);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the LRS accepted the batch, false if it rejected it and
+	 *         null if it should be retried
+	 */
+	private Boolean post(List<String> batch) {
+		String body = "[" + String.join(",", batch) + "]";
+		try {
+			HttpRequest request = HttpRequest.newBuilder(URI.create(lrsUrl + "/data/xAPI/statements"))
+					.timeout(Duration.ofSeconds(30))
+					.header("Content-Type", "application/json; charset=UTF-8")
+					.header("X-Experience-API-Version", "1.0.3")
+					.header("Authorization", "Basic " + lrsAuthToken)
+					.header("Cache-Control", "no-cache")
+					.POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8)).build();
+			HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+			int status = response.statusCode();
+			if (status >= 200 && status < 300) {
+				sent.addAndGet(batch.size());
+				return true;
+			}
+			failedRequests.incrementAndGet();
+			if (status == 429 || status >= 500) {
+				return null;
+			}
+			// the statements are invalid, sending them again does not help
+			System.out.println("LRS rejected " + batch.size() + " xAPI statements with HTTP " + status);
+			dropped.addAndGet(batch.size());
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (Exception e) {
+			failedRequests.incrementAndGet();
+			System.out.println("Could not send xAPI statements: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private synchronized void spool(List<String> statements) {
+		if (spoolDir == null) {
+			dropped.addAndGet(statements.size());
+			return;
+		}
+		try {
+			spoolDir.mkdirs();
+			File file = new File(spoolDir, "xapi-" + System.currentTimeMillis() + "-" + System.nanoTime() + ".json");
+			Files.write(file.toPath(), String.join("\n", statements).getBytes(StandardCharsets.UTF_8));
+			spooled.addAndGet(statements.size());
+		} catch (IOException e) {
+			dropped.addAndGet(statements.size());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Sends the oldest spooled file, if any. One file per call, so that new
+	 * statements are not held back.
+	 */
+	private void resendSpooled() {
+		File[] files = spoolDir == null ? null : spoolDir.listFiles((dir, name) -> name.startsWith("xapi-"));
+		if (files == null || files.length == 0) {
+			return;
+		}
+		Arrays.sort(files);
+		File file = files[0];
+		try {
+			List<String> statements = new ArrayList<String>();
+			for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+				if (!line.isEmpty()) {
+					statements.add(line);
+				}
+			}
+			for (int i = 0; i < statements.size(); i += batchSize) {
+				List<String> batch = statements.subList(i, Math.min(statements.size(), i + batchSize));
+				if (!Boolean.TRUE.equals(post(batch))) {
+					// LRS still unavailable, keep the rest for later
+					if (i > 0) {
+						Files.write(file.toPath(), String.join("\n", statements.subList(i, statements.size()))
+								.getBytes(StandardCharsets.UTF_8));
+					}
+					spooled.addAndGet(-i);
+					return;
+				}
+			}
+			spooled.addAndGet(-statements.size());
+			Files.delete(file.toPath());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private long countSpooled() {
+		File[] files = spoolDir == null ? null : spoolDir.listFiles((dir, name) -> name.startsWith("xapi-"));
+		long count = 0;
+		if (files != null) {
+			for (File file : files) {
+				try {
+					count += Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).stream()
+							.filter(line -> !line.isEmpty()).count();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return statements waiting in memory
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return statements waiting in the spool directory
+	 */
+	public long getSpooled() {
+		return Math.max(0, spooled.get());
+	}
+
+	public long getSent() {
+		return sent.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public long getFailedRequests() {
+		return failedRequests.get();
+	}
+}
@@ -0,0 +1,157 @@
+package i5.las2peer.services.socialBotManagerService.database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The conversation state of a channel as it is saved in a
+ * ConversationStateStore. Incoming messages are referenced by the id of their
+ * node in the bot model.
+ */
+public class ConversationState {
+	private String state;
+	private String previousState;
+	private String previousStateBackup;
+	private String storedSession;
+	private String followupsOf;
+	private String conversationId;
+	private String triggeredFunction;
+	private String nluModel;
+	private int defaultAnswerCount;
+	private HashMap<String, String> userVariables = new HashMap<String, String>();
+	private ArrayList<EntityValue> entities = new ArrayList<EntityValue>();
+	// version of the saved row the state is based on, not part of the JSON
+	private transient volatile long version;
+
+	/**
+	 * @return version of the saved state this state replaces, 0 if there is none
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	/**
+	 * @return id of the current incoming message
+	 */
+	public String getState() {
+		return state;
+	}
+
+	public void setState(String state) {
+		this.state = state;
+	}
+
+	public String getPreviousState() {
+		return previousState;
+	}
+
+	public void setPreviousState(String previousState) {
+		this.previousState = previousState;
+	}
+
+	public String getPreviousStateBackup() {
+		return previousStateBackup;
+	}
+
+	public void setPreviousStateBackup(String previousStateBackup) {
+		this.previousStateBackup = previousStateBackup;
+	}
+
+	/**
+	 * @return id of the incoming message a command interrupted
+	 */
+	public String getStoredSession() {
+		return storedSession;
+	}
+
+	public void setStoredSession(String storedSession) {
+		this.storedSession = storedSession;
+	}
+
+	/**
+	 * @return id of the incoming message whose followups the current default
+	 *         answer continues with, null if the state is not a default answer
+	 */
+	public String getFollowupsOf() {
+		return followupsOf;
+	}
+
+	public void setFollowupsOf(String followupsOf) {
+		this.followupsOf = followupsOf;
+	}
+
+	public String getConversationId() {
+		return conversationId;
+	}
+
+	public void setConversationId(String conversationId) {
+		this.conversationId = conversationId;
+	}
+
+	public String getTriggeredFunction() {
+		return triggeredFunction;
+	}
+
+	public void setTriggeredFunction(String triggeredFunction) {
+		this.triggeredFunction = triggeredFunction;
+	}
+
+	public String getNluModel() {
+		return nluModel;
+	}
+
+	public void setNluModel(String nluModel) {
+		this.nluModel = nluModel;
+	}
+
+	public int getDefaultAnswerCount() {
+		return defaultAnswerCount;
+	}
+
+	public void setDefaultAnswerCount(int defaultAnswerCount) {
+		this.defaultAnswerCount = defaultAnswerCount;
+	}
+
+	public Map<String, String> getUserVariables() {
+		return userVariables;
+	}
+
+	public void setUserVariables(Map<String, String> userVariables) {
+		this.userVariables = new HashMap<String, String>(userVariables);
+	}
+
+	/**
+	 * @return the entities recognized during the conversation
+	 */
+	public List<EntityValue> getEntities() {
+		return entities;
+	}
+
+	public void addEntity(String name, String value) {
+		this.entities.add(new EntityValue(name, value));
+	}
+
+	public static class EntityValue {
+		private String name;
+		private String value;
+
+		public EntityValue(String name, String value) {
+			this.name = name;
+			this.value = value;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getValue() {
+			return value;
+		}
+	}
+}
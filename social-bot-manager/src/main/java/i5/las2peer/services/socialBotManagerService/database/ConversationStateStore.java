@@ -0,0 +1,55 @@
+package i5.las2peer.services.socialBotManagerService.database;
+
+/**
+ * Keeps the conversation state of the channels outside of the messengers, so
+ * that conversations survive a restart and channels can move between nodes.
+ *
+ * States are saved per owner (bot and messenger) and channel.
+ */
+public interface ConversationStateStore {
+
+	/**
+	 * @param owner   bot name + "/" + messenger name
+	 * @param channel the channel
+	 * @return the saved state, null if there is none
+	 */
+	ConversationState load(String owner, String channel);
+
+	/**
+	 * Saves the state, replacing the previous one. The state must not be changed
+	 * afterwards.
+	 *
+	 * @param owner   bot name + "/" + messenger name
+	 * @param channel the channel
+	 * @param state   the state
+	 */
+	void save(String owner, String channel, ConversationState state);
+
+	/**
+	 * @param owner   bot name + "/" + messenger name
+	 * @param channel the channel
+	 */
+	void remove(String owner, String channel);
+
+	/**
+	 * Called when a messenger dropped the session of an idle channel. Stores that
+	 * only live in memory may forget the state as well.
+	 *
+	 * @param owner   bot name + "/" + messenger name
+	 * @param channel the channel
+	 */
+	default void evicted(String owner, String channel) {
+	}
+
+	/**
+	 * @param database database of the service, may be null
+	 * @return the MySQL store if it is enabled and there is a database, else the
+	 *         in-memory store
+	 */
+	static ConversationStateStore get(SQLDatabase database) {
+		if (database != null && SQLConversationStateStore.isEnabled()) {
+			return SQLConversationStateStore.getInstance(database);
+		}
+		return InMemoryConversationStateStore.getInstance();
+	}
+}
@@ -0,0 +1,368 @@
+package i5.las2peer.services.socialBotManagerService.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind store for the entities kept in the `attributes` table.
+ *
+ * Entity writes are collected for a short time and then written with a single
+ * batched `INSERT ... ON DUPLICATE KEY UPDATE` (relies on the unique index on
+ * bot, channel, user and key). Reads see the values that were not written yet.
+ * Rows of a failed write are queued again, unless a newer value replaced them,
+ * and dropped after a few attempts. Pending writes are flushed when the
+ * service stops.
+ *
+ * Values that were read or written are kept per channel in a read-through
+ * cache. The number of cached channels is bounded and channels that were not
+ * used for a while are evicted.
+ */
+public class EntityStore {
+
+	public static final int DEFAULT_FLUSH_INTERVAL = 100; // ms
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	public static final int DEFAULT_CACHED_CHANNELS = 5000;
+	public static final int DEFAULT_CHANNEL_IDLE_TIME = 1800; // seconds
+	private static final int MAX_ATTEMPTS = 5; // writes of a row before it is dropped
+	private static final long MAX_RETRY_DELAY = 30000; // ms
+
+	private static int flushInterval = DEFAULT_FLUSH_INTERVAL;
+	private static int batchSize = DEFAULT_BATCH_SIZE;
+	private static int cachedChannels = DEFAULT_CACHED_CHANNELS;
+	private static long channelIdleTime = DEFAULT_CHANNEL_IDLE_TIME * 1000L;
+
+	private static final ConcurrentHashMap<SQLDatabase, EntityStore> stores = new ConcurrentHashMap<SQLDatabase, EntityStore>();
+
+	private final SQLDatabase database;
+
+	/**
+	 * Writes that were not flushed yet, the last write of a row wins.
+	 * Key: bot, channel, user and key of the row
+	 */
+	private final LinkedHashMap<String, Row> pending = new LinkedHashMap<String, Row>();
+
+	/**
+	 * Latest value per channel and key that is not in the database yet, either
+	 * pending or currently being written.
+	 * Key: channel and key
+	 */
+	private final HashMap<String, Row> unwritten = new HashMap<String, Row>();
+
+	/**
+	 * Read-through cache, access ordered so that the eldest channel is the least
+	 * recently used one.
+	 * Key: channel ID
+	 * Value: entity values of the channel
+	 */
+	private final LinkedHashMap<String, ChannelEntities> cache = new LinkedHashMap<String, ChannelEntities>(16, 0.75f,
+			true);
+
+	private final Object flushLock = new Object();
+	// after a failed write, flushes wait until the database may be back
+	private long retryDelay = 0;
+	private long retryAt = 0;
+	private final ScheduledExecutorService flusher;
+
+	private EntityStore(SQLDatabase database) {
+		this.database = database;
+		this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "sbf-entity-store");
+			t.setDaemon(true);
+			return t;
+		});
+		this.flusher.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+		this.flusher.scheduleWithFixedDelay(this::evictIdleChannels, 1, 1, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * @param interval  milliseconds between two flushes
+	 * @param batchRows maximum number of rows per INSERT statement
+	 */
+	public static void configure(int interval, int batchRows) {
+		if (interval > 0) {
+			flushInterval = interval;
+		}
+		if (batchRows > 0) {
+			batchSize = batchRows;
+		}
+	}
+
+	/**
+	 * @param channels maximum number of channels whose entities are cached, 0
+	 *                 disables the cache
+	 * @param idleTime seconds after which an unused channel is evicted
+	 */
+	public static void configureCache(int channels, int idleTime) {
+		if (channels >= 0) {
+			cachedChannels = channels;
+		}
+		if (idleTime > 0) {
+			channelIdleTime = idleTime * 1000L;
+		}
+	}
+
+	/**
+	 * @param database the database the `attributes` table is in
+	 * @return the entity store for the given database
+	 */
+	public static EntityStore getInstance(SQLDatabase database) {
+		return stores.computeIfAbsent(database, EntityStore::new);
+	}
+
+	/**
+	 * Closes the stores of all databases, called when the service stops.
+	 */
+	public static void closeAll() {
+		for (SQLDatabase database : stores.keySet()) {
+			EntityStore store = stores.remove(database);
+			if (store != null) {
+				store.close();
+			}
+		}
+	}
+
+	/**
+	 * Queues an entity value. It is written with the next flush.
+	 */
+	public void save(String bot, String channel, String user, String key, String value) {
+		Row row = new Row(bot, channel, user, key, value);
+		boolean full;
+		synchronized (this) {
+			// re-insert so that the row moves to the end of the batch
+			pending.remove(row.rowKey());
+			pending.put(row.rowKey(), row);
+			unwritten.put(row.lookupKey(), row);
+			ChannelEntities entities = cache.get(channel);
+			if (entities != null) {
+				entities.put(key, value);
+			}
+			full = pending.size() >= batchSize;
+		}
+		if (full && !flusher.isShutdown()) {
+			flusher.execute(this::flush);
+		}
+	}
+
+	/**
+	 * Returns the latest value of an entity in the given channel.
+	 *
+	 * @param channel the channel
+	 * @param key     name of the entity
+	 * @return the value or an empty string if there is none
+	 */
+	public String getValue(String channel, String key) {
+		synchronized (this) {
+			Row row = unwritten.get(lookupKey(channel, key));
+			if (row != null) {
+				return row.value == null ? "" : row.value;
+			}
+			ChannelEntities entities = cache.get(channel);
+			if (entities != null && entities.containsKey(key)) {
+				return entities.get(key);
+			}
+		}
+		String val = loadValue(channel, key);
+		synchronized (this) {
+			// a write that happened during the query takes precedence
+			if (cachedChannels > 0 && !unwritten.containsKey(lookupKey(channel, key))) {
+				ChannelEntities entities = cache.get(channel);
+				if (entities == null) {
+					entities = new ChannelEntities();
+					cache.put(channel, entities);
+					while (cache.size() > cachedChannels) {
+						cache.remove(cache.keySet().iterator().next());
+					}
+				}
+				entities.putIfAbsent(key, val);
+			}
+		}
+		return val;
+	}
+
+	/**
+	 * @return number of channels whose entities are currently cached
+	 */
+	public synchronized int getCachedChannels() {
+		return cache.size();
+	}
+
+	private synchronized void evictIdleChannels() {
+		long now = System.currentTimeMillis();
+		cache.values().removeIf(entities -> now - entities.lastAccess > channelIdleTime);
+	}
+
+	private String loadValue(String channel, String key) {
+		String val = "";
+		try (Connection conn = database.getDataSource().getConnection();
+				PreparedStatement stmt = conn.prepareStatement(
+						"SELECT value FROM attributes WHERE `channel`=? AND `key`=? ORDER BY id DESC LIMIT 1")) {
+			stmt.setString(1, channel);
+			stmt.setString(2, key);
+			try (ResultSet rs = stmt.executeQuery()) {
+				if (rs.next()) {
+					val = rs.getString("value");
+					if (val == null) {
+						val = "";
+					}
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return val;
+	}
+
+	/**
+	 * Writes all pending entity values to the database.
+	 */
+	public void flush() {
+		flush(false);
+	}
+
+	private void flush(boolean force) {
+		synchronized (flushLock) {
+			if (!force && System.currentTimeMillis() < retryAt) {
+				return;
+			}
+			List<Row> batch;
+			synchronized (this) {
+				if (pending.isEmpty()) {
+					return;
+				}
+				batch = new ArrayList<Row>(pending.values());
+				pending.clear();
+			}
+			List<Row> failed = new ArrayList<Row>();
+			for (int i = 0; i < batch.size(); i += batchSize) {
+				List<Row> rows = batch.subList(i, Math.min(batch.size(), i + batchSize));
+				try {
+					write(rows);
+				} catch (SQLException e) {
+					System.out.println("Could not write " + rows.size() + " entities: " + e.getMessage());
+					e.printStackTrace();
+					failed.addAll(rows);
+				}
+			}
+			if (failed.isEmpty()) {
+				retryDelay = 0;
+				retryAt = 0;
+			} else {
+				retryDelay = Math.min(MAX_RETRY_DELAY, Math.max(flushInterval, retryDelay * 2));
+				retryAt = System.currentTimeMillis() + retryDelay;
+			}
+			int dropped = 0;
+			synchronized (this) {
+				for (Row row : failed) {
+					row.attempts++;
+					if (pending.containsKey(row.rowKey())) {
+						// a newer value replaced the row
+						continue;
+					}
+					if (row.attempts < MAX_ATTEMPTS) {
+						pending.put(row.rowKey(), row);
+					} else {
+						dropped++;
+						unwritten.remove(row.lookupKey(), row);
+					}
+				}
+				for (Row row : batch) {
+					// only if the value was not overwritten in the meantime and is not retried
+					if (pending.get(row.rowKey()) != row) {
+						unwritten.remove(row.lookupKey(), row);
+					}
+				}
+			}
+			if (dropped > 0) {
+				System.out.println("Dropped " + dropped + " entities after " + MAX_ATTEMPTS + " failed writes");
+			}
+		}
+	}
+
+	private void write(List<Row> rows) throws SQLException {
+		StringBuilder sql = new StringBuilder(
+				"INSERT INTO attributes (`bot`, `channel`, `user`, `key`, `value`) VALUES ");
+		for (int i = 0; i < rows.size(); i++) {
+			sql.append(i == 0 ? "(?,?,?,?,?)" : ",(?,?,?,?,?)");
+		}
+		sql.append(" ON DUPLICATE KEY UPDATE `value`=VALUES(`value`)");
+		try (Connection conn = database.getDataSource().getConnection();
+				PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+			int i = 1;
+			for (Row row : rows) {
+				stmt.setString(i++, row.bot);
+				stmt.setString(i++, row.channel);
+				stmt.setString(i++, row.user);
+				stmt.setString(i++, row.key);
+				stmt.setString(i++, row.value);
+			}
+			stmt.executeUpdate();
+		}
+	}
+
+	/**
+	 * Flushes the pending writes and stops the background flushing.
+	 */
+	public void close() {
+		flusher.shutdown();
+		flush(true);
+	}
+
+	private static String lookupKey(String channel, String key) {
+		return channel + "\u0000" + key;
+	}
+
+	private static class ChannelEntities extends HashMap<String, String> {
+		private static final long serialVersionUID = 1L;
+
+		private long lastAccess = System.currentTimeMillis();
+
+		@Override
+		public String get(Object key) {
+			lastAccess = System.currentTimeMillis();
+			return super.get(key);
+		}
+
+		@Override
+		public String put(String key, String value) {
+			lastAccess = System.currentTimeMillis();
+			return super.put(key, value == null ? "" : value);
+		}
+	}
+
+	private static class Row {
+		private final String bot;
+		private final String channel;
+		private final String user;
+		private final String key;
+		private final String value;
+		// failed writes
+		private int attempts = 0;
+
+		Row(String bot, String channel, String user, String key, String value) {
+			this.bot = bot;
+			this.channel = channel;
+			// NULLs never collide in the unique index, every write would add a row
+			this.user = user == null ? "" : user;
+			this.key = key;
+			this.value = value;
+		}
+
+		String rowKey() {
+			return bot + "\u0000" + channel + "\u0000" + user + "\u0000" + key;
+		}
+
+		String lookupKey() {
+			return EntityStore.lookupKey(channel, key);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package i5.las2peer.services.socialBotManagerService.database;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the conversation states in the memory of this node. They are lost on
+ * restart and when the session of the channel is evicted.
+ */
+public class InMemoryConversationStateStore implements ConversationStateStore {
+
+	private static InMemoryConversationStateStore instance = null;
+
+	private final ConcurrentHashMap<String, ConversationState> states = new ConcurrentHashMap<String, ConversationState>();
+
+	protected InMemoryConversationStateStore() {
+	}
+
+	public static synchronized InMemoryConversationStateStore getInstance() {
+		if (instance == null) {
+			instance = new InMemoryConversationStateStore();
+		}
+		return instance;
+	}
+
+	@Override
+	public ConversationState load(String owner, String channel) {
+		return states.get(key(owner, channel));
+	}
+
+	@Override
+	public void save(String owner, String channel, ConversationState state) {
+		states.put(key(owner, channel), state);
+	}
+
+	@Override
+	public void remove(String owner, String channel) {
+		states.remove(key(owner, channel));
+	}
+
+	/**
+	 * The state would be lost on restart anyway, so the state of an idle channel
+	 * is not kept any longer than its session.
+	 */
+	@Override
+	public void evicted(String owner, String channel) {
+		states.remove(key(owner, channel));
+	}
+
+	/**
+	 * @return number of channels with a saved state
+	 */
+	public int size() {
+		return states.size();
+	}
+
+	private static String key(String owner, String channel) {
+		return owner + "\u0000" + channel;
+	}
+}
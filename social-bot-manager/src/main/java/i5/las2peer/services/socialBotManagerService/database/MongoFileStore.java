@@ -0,0 +1,331 @@
+package i5.las2peer.services.socialBotManagerService.database;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.Base64;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tika.Tika;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.bson.types.ObjectId;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+
+/**
+ * The MongoDB connection used for the files exchanged in RESTful chats.
+ *
+ * One client (and therefore one connection pool) and one GridFS bucket are
+ * shared by all requests. Both are thread safe. The client is closed when the
+ * service stops.
+ *
+ * Uploaded files are streamed into GridFS. Their type is detected on the first
+ * bytes only, the size and the number of concurrent uploads are limited.
+ */
+public class MongoFileStore {
+
+	public static final String BUCKET_NAME = "files";
+	public static final int DEFAULT_MAX_POOL_SIZE = 20;
+	public static final int DEFAULT_MIN_POOL_SIZE = 0;
+	public static final int DEFAULT_MAX_IDLE_TIME = 60000; // ms
+	public static final int DEFAULT_CONNECT_TIMEOUT = 5000; // ms
+	public static final int DEFAULT_HEARTBEAT_FREQUENCY = 10000; // ms
+	public static final long DEFAULT_MAX_FILE_SIZE = 20 * 1024 * 1024; // bytes
+	public static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 8;
+	// number of bytes the content type is detected on
+	public static final int DETECTION_LENGTH = 8192;
+
+	private static final Tika tika = new Tika();
+
+	private final MongoClient client;
+	private final MongoDatabase database;
+	private final GridFSBucket bucket;
+	private volatile boolean closed = false;
+
+	private long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+	private Semaphore uploads = new Semaphore(DEFAULT_MAX_CONCURRENT_UPLOADS);
+	private final int connectTimeout;
+
+	/**
+	 * @param uri            connection string of the MongoDB server
+	 * @param databaseName   database the files are stored in
+	 * @param maxPoolSize    maximum number of open connections
+	 * @param minPoolSize    number of connections that are kept open
+	 * @param maxIdleTime    ms after which an unused connection is closed
+	 * @param connectTimeout ms to wait for a connection or server selection
+	 */
+	public MongoFileStore(String uri, String databaseName, int maxPoolSize, int minPoolSize, int maxIdleTime,
+			int connectTimeout) {
+		CodecRegistry pojoCodecRegistry = fromProviders(PojoCodecProvider.builder().automatic(true).build());
+		CodecRegistry codecRegistry = fromRegistries(MongoClientSettings.getDefaultCodecRegistry(), pojoCodecRegistry);
+		MongoClientSettings settings = MongoClientSettings.builder()
+				.uuidRepresentation(UuidRepresentation.STANDARD)
+				.applyConnectionString(new ConnectionString(uri))
+				.codecRegistry(codecRegistry)
+				.applyToConnectionPoolSettings(pool -> pool
+						.maxSize(Math.max(1, maxPoolSize))
+						.minSize(Math.max(0, Math.min(minPoolSize, maxPoolSize)))
+						.maxConnectionIdleTime(maxIdleTime, TimeUnit.MILLISECONDS)
+						.maxWaitTime(connectTimeout, TimeUnit.MILLISECONDS))
+				.applyToSocketSettings(socket -> socket.connectTimeout(connectTimeout, TimeUnit.MILLISECONDS))
+				.applyToClusterSettings(cluster -> cluster.serverSelectionTimeout(connectTimeout, TimeUnit.MILLISECONDS))
+				.applyToServerSettings(server -> server.heartbeatFrequency(DEFAULT_HEARTBEAT_FREQUENCY,
+						TimeUnit.MILLISECONDS))
+				.build();
+		this.connectTimeout = connectTimeout;
+		this.client = MongoClients.create(settings);
+		this.database = client.getDatabase(databaseName);
+		this.bucket = GridFSBuckets.create(database, BUCKET_NAME);
+	}
+
+	/**
+	 * @param maxConcurrentUploads uploads that are stored at the same time, further
+	 *                             uploads wait up to the connect timeout
+	 * @param maxSize              maximum size of an uploaded file in bytes
+	 */
+	public void configureUploads(int maxConcurrentUploads, long maxSize) {
+		if (maxConcurrentUploads > 0) {
+			this.uploads = new Semaphore(maxConcurrentUploads);
+		}
+		if (maxSize > 0) {
+			this.maxFileSize = maxSize;
+		}
+	}
+
+	public long getMaxFileSize() {
+		return maxFileSize;
+	}
+
+	public GridFSBucket getBucket() {
+		return bucket;
+	}
+
+	public MongoDatabase getDatabase() {
+		return database;
+	}
+
+	/**
+	 * Sends a ping to the MongoDB server.
+	 *
+	 * @return true if the server answered
+	 */
+	public boolean isHealthy() {
+		if (closed) {
+			return false;
+		}
+		try {
+			database.runCommand(new BsonDocument("ping", new BsonInt64(1)));
+			return true;
+		} catch (Exception e) {
+			System.err.println("MongoDB ping failed: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Streams an uploaded file into GridFS. The detected content type is stored in
+	 * the metadata of the file.
+	 *
+	 * @param in       content of the file
+	 * @param fileName name of the file
+	 * @param metadata additional metadata, may be null
+	 * @return the stored file
+	 * @throws FileTooLargeException if the file exceeds the maximum size, nothing
+	 *                               is stored in that case
+	 * @throws IOException           if the upload could not be stored
+	 */
+	public StoredFile store(InputStream in, String fileName, Document metadata) throws IOException {
+		Semaphore permits = uploads;
+		try {
+			if (!permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+				throw new IOException("Too many concurrent uploads");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for upload slot", e);
+		}
+		try {
+			byte[] prefix = in.readNBytes(DETECTION_LENGTH);
+			String contentType = detectContentType(prefix, fileName);
+			Document meta = metadata == null ? new Document() : metadata;
+			meta.put("contentType", contentType);
+			LimitedInputStream content = new LimitedInputStream(
+					new SequenceInputStream(new ByteArrayInputStream(prefix), in), maxFileSize);
+			try {
+				// GridFS removes the chunks that were written if reading fails
+				ObjectId id = bucket.uploadFromStream(fileName, content, new GridFSUploadOptions().metadata(meta));
+				return new StoredFile(id, fileName, contentType, content.getCount());
+			} catch (RuntimeException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw e;
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Writes a stored file to a stream.
+	 *
+	 * @param id  id of the file
+	 * @param out stream the content is written to
+	 */
+	public void download(ObjectId id, OutputStream out) {
+		bucket.downloadToStream(id, out);
+	}
+
+	/**
+	 * Reads a stored file Base64 encoded, for legacy receivers that expect the
+	 * content inline. Keeps the whole file in memory.
+	 *
+	 * @param id id of the file
+	 * @return content of the file
+	 */
+	public String readBase64(ObjectId id) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (OutputStream encoder = Base64.getEncoder().wrap(out)) {
+			bucket.downloadToStream(id, encoder);
+		}
+		return out.toString("ISO-8859-1");
+	}
+
+	/**
+	 * Detects the content type on the first bytes of a file and its name.
+	 *
+	 * @param prefix   first bytes of the file
+	 * @param fileName name of the file, may be null
+	 * @return the content type
+	 */
+	public static String detectContentType(byte[] prefix, String fileName) {
+		return tika.detect(prefix, fileName);
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Closes the client and its connection pool.
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		client.close();
+	}
+
+	public static class StoredFile {
+		private final ObjectId id;
+		private final String fileName;
+		private final String contentType;
+		private final long length;
+
+		StoredFile(ObjectId id, String fileName, String contentType, long length) {
+			this.id = id;
+			this.fileName = fileName;
+			this.contentType = contentType;
+			this.length = length;
+		}
+
+		public ObjectId getId() {
+			return id;
+		}
+
+		public String getFileName() {
+			return fileName;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public long getLength() {
+			return length;
+		}
+	}
+
+	public static class FileTooLargeException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public FileTooLargeException(long maxSize) {
+			super("File exceeds the maximum size of " + maxSize + " bytes");
+		}
+	}
+
+	/**
+	 * Fails as soon as more than the allowed number of bytes was read.
+	 */
+	public static class LimitedInputStream extends FilterInputStream {
+		private final long limit;
+		private long count = 0;
+
+		public LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.limit = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count(n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count(skipped);
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		private void count(long n) throws FileTooLargeException {
+			count += n;
+			if (count > limit) {
+				throw new FileTooLargeException(limit);
+			}
+		}
+
+		public long getCount() {
+			return count;
+		}
+	}
+}
@@ -0,0 +1,382 @@
+package i5.las2peer.services.socialBotManagerService.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+
+import i5.las2peer.services.socialBotManagerService.model.ChannelRing;
+
+/**
+ * Keeps the conversation states in the `conversation_state` table, as JSON.
+ *
+ * Only the node owning a channel (see {@link ChannelRing}) writes its state.
+ * The owner keeps the states in a near cache of bounded size and writes them
+ * behind: the latest state of a channel is written with the next flush, states
+ * saved in between are skipped. Other nodes always read the state from the
+ * database and do not save it.
+ *
+ * Every row has a version that is increased with each write. A state is only
+ * written if the row still has the version the state is based on. Otherwise
+ * another node wrote the row, e.g. the previous owner while the channel moved,
+ * and the cached state is dropped so that the next load reads the row again.
+ * Pending writes are flushed when the service stops.
+ */
+public class SQLConversationStateStore implements ConversationStateStore {
+
+	public static final int DEFAULT_CACHE_SIZE = 5000; // channels
+	public static final int DEFAULT_FLUSH_INTERVAL = 100; // ms
+	private static final int BATCH_SIZE = 200; // states per batch
+	private static final long MAX_RETRY_DELAY = 30000; // ms
+
+	private static boolean enabled = false;
+	private static int cacheSize = DEFAULT_CACHE_SIZE;
+	private static int flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+	private static final ConcurrentHashMap<SQLDatabase, SQLConversationStateStore> stores = new ConcurrentHashMap<SQLDatabase, SQLConversationStateStore>();
+	private static final Gson gson = new Gson();
+
+	private final SQLDatabase database;
+
+	// owner + channel -> state that was not written yet
+	private final LinkedHashMap<String, Pending> pending = new LinkedHashMap<String, Pending>();
+	// owner + channel -> state, access ordered so that the eldest is the least recently used
+	private final LinkedHashMap<String, ConversationState> cache = new LinkedHashMap<String, ConversationState>(16,
+			0.75f, true);
+
+	private final Object flushLock = new Object();
+	// after a failed write, flushes wait until the database may be back
+	private long retryDelay = 0;
+	private long retryAt = 0;
+	private final ScheduledExecutorService flusher;
+
+	private SQLConversationStateStore(SQLDatabase database) {
+		this.database = database;
+		this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "sbf-conversation-store");
+			t.setDaemon(true);
+			return t;
+		});
+		this.flusher.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param store    "mysql" to keep the states in the database, anything else
+	 *                 keeps them in memory
+	 * @param channels maximum number of cached channel states
+	 * @param interval milliseconds between two flushes
+	 */
+	public static void configure(String store, int channels, int interval) {
+		enabled = "mysql".equalsIgnoreCase(store == null ? "" : store.trim());
+		if (channels >= 0) {
+			cacheSize = channels;
+		}
+		if (interval > 0) {
+			flushInterval = interval;
+		}
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param database the database the `conversation_state` table is in
+	 * @return the store for the given database
+	 */
+	public static SQLConversationStateStore getInstance(SQLDatabase database) {
+		return stores.computeIfAbsent(database, SQLConversationStateStore::new);
+	}
+
+	/**
+	 * Closes the stores of all databases, called when the service stops.
+	 */
+	public static void closeAll() {
+		for (SQLDatabase database : stores.keySet()) {
+			SQLConversationStateStore store = stores.remove(database);
+			if (store != null) {
+				store.close();
+			}
+		}
+	}
+
+	@Override
+	public ConversationState load(String owner, String channel) {
+		String key = key(owner, channel);
+		boolean owned = ChannelRing.getInstance().isOwner(channel);
+		synchronized (this) {
+			Pending p = pending.get(key);
+			if (p != null) {
+				return p.state;
+			}
+			if (owned) {
+				ConversationState state = cache.get(key);
+				if (state != null) {
+					return state;
+				}
+			} else {
+				cache.remove(key);
+			}
+		}
+		ConversationState state = read(owner, channel);
+		if (state != null && owned) {
+			synchronized (this) {
+				// a save during the query takes precedence
+				if (!pending.containsKey(key)) {
+					cache(key, state);
+				}
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Saves the state if this node owns the channel, else the state is dropped.
+	 */
+	@Override
+	public void save(String owner, String channel, ConversationState state) {
+		String key = key(owner, channel);
+		if (!ChannelRing.getInstance().isOwner(channel)) {
+			synchronized (this) {
+				pending.remove(key);
+				cache.remove(key);
+			}
+			return;
+		}
+		synchronized (this) {
+			// the cached state knows the latest version written by this node
+			ConversationState cached = cache.get(key);
+			Pending previous = pending.remove(key);
+			long version = previous != null ? previous.version
+					: cached != null ? cached.getVersion() : state.getVersion();
+			state.setVersion(version);
+			pending.put(key, new Pending(owner, channel, state, version));
+			cache(key, state);
+		}
+	}
+
+	@Override
+	public void remove(String owner, String channel) {
+		String key = key(owner, channel);
+		synchronized (this) {
+			pending.remove(key);
+			cache.remove(key);
+		}
+		try (Connection conn = database.getDataSource().getConnection();
+				PreparedStatement stmt = conn
+						.prepareStatement("DELETE FROM conversation_state WHERE `owner`=? AND `channel`=?")) {
+			stmt.setString(1, owner);
+			stmt.setString(2, channel);
+			stmt.executeUpdate();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return number of cached channel states
+	 */
+	public synchronized int getCachedChannels() {
+		return cache.size();
+	}
+
+	/**
+	 * @return number of states waiting to be written
+	 */
+	public synchronized int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * Needs the lock.
+	 */
+	private void cache(String key, ConversationState state) {
+		if (cacheSize == 0) {
+			return;
+		}
+		cache.put(key, state);
+		while (cache.size() > cacheSize) {
+			cache.remove(cache.keySet().iterator().next());
+		}
+	}
+
+	private ConversationState read(String owner, String channel) {
+		try (Connection conn = database.getDataSource().getConnection();
+				PreparedStatement stmt = conn.prepareStatement(
+						"SELECT `state`, `version` FROM conversation_state WHERE `owner`=? AND `channel`=?")) {
+			stmt.setString(1, owner);
+			stmt.setString(2, channel);
+			try (ResultSet rs = stmt.executeQuery()) {
+				if (rs.next()) {
+					ConversationState state = gson.fromJson(rs.getString("state"), ConversationState.class);
+					state.setVersion(rs.getLong("version"));
+					return state;
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Writes all pending states to the database. States that could not be
+	 * written stay pending and are retried with a growing delay.
+	 */
+	public void flush() {
+		flush(false);
+	}
+
+	private void flush(boolean force) {
+		synchronized (flushLock) {
+			if (!force && System.currentTimeMillis() < retryAt) {
+				return;
+			}
+			List<Pending> batch;
+			synchronized (this) {
+				if (pending.isEmpty()) {
+					return;
+				}
+				batch = new ArrayList<Pending>(pending.values());
+			}
+			Set<Pending> conflicts = new HashSet<Pending>();
+			Set<Pending> failed = new HashSet<Pending>();
+			for (int i = 0; i < batch.size(); i += BATCH_SIZE) {
+				List<Pending> states = batch.subList(i, Math.min(batch.size(), i + BATCH_SIZE));
+				try {
+					conflicts.addAll(write(states));
+				} catch (SQLException e) {
+					System.out.println("Could not write " + states.size() + " conversation states: " + e.getMessage());
+					e.printStackTrace();
+					failed.addAll(states);
+				}
+			}
+			if (failed.isEmpty()) {
+				retryDelay = 0;
+				retryAt = 0;
+			} else {
+				retryDelay = Math.min(MAX_RETRY_DELAY, Math.max(flushInterval, retryDelay * 2));
+				retryAt = System.currentTimeMillis() + retryDelay;
+				System.out.println(failed.size() + " conversation states stay pending, retrying in " + retryDelay
+						+ " ms");
+			}
+			synchronized (this) {
+				for (Pending p : batch) {
+					if (failed.contains(p)) {
+						// still pending, or replaced by a newer state with the same version
+						continue;
+					}
+					String key = key(p.owner, p.channel);
+					Pending current = pending.get(key);
+					if (conflicts.contains(p)) {
+						// the newer state of the channel is based on the outdated one as well
+						System.out.println("Conversation state of channel " + p.channel
+								+ " was changed by another node, it is read again");
+						pending.remove(key);
+						cache.remove(key);
+					} else {
+						p.state.setVersion(p.version + 1);
+						if (current == p) {
+							pending.remove(key);
+						} else if (current != null) {
+							// saved again in the meantime, based on the written state
+							current.version = p.version + 1;
+							current.state.setVersion(p.version + 1);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the states whose rows still have the version they are based on.
+	 * States without a row are inserted.
+	 *
+	 * @return the states that were not written because the row has another
+	 *         version
+	 * @throws SQLException if the states could not be written, some may have
+	 *                      been written nonetheless
+	 */
+	private List<Pending> write(List<Pending> states) throws SQLException {
+		List<Pending> conflicts = new ArrayList<Pending>();
+		List<Pending> updates = new ArrayList<Pending>();
+		List<Pending> inserts = new ArrayList<Pending>();
+		for (Pending p : states) {
+			(p.version > 0 ? updates : inserts).add(p);
+		}
+		try (Connection conn = database.getDataSource().getConnection();
+				PreparedStatement update = conn.prepareStatement(
+						"UPDATE conversation_state SET `state`=?, `version`=`version`+1 WHERE `owner`=? AND `channel`=? AND `version`=?");
+				PreparedStatement insert = conn.prepareStatement(
+						"INSERT IGNORE INTO conversation_state (`owner`, `channel`, `state`, `version`) VALUES (?,?,?,1)")) {
+			for (Pending p : updates) {
+				update.setString(1, gson.toJson(p.state));
+				update.setString(2, p.owner);
+				update.setString(3, p.channel);
+				update.setLong(4, p.version);
+				update.addBatch();
+			}
+			for (Pending p : inserts) {
+				insert.setString(1, p.owner);
+				insert.setString(2, p.channel);
+				insert.setString(3, gson.toJson(p.state));
+				insert.addBatch();
+			}
+			collectConflicts(updates.isEmpty() ? new int[0] : update.executeBatch(), updates, conflicts);
+			collectConflicts(inserts.isEmpty() ? new int[0] : insert.executeBatch(), inserts, conflicts);
+		}
+		return conflicts;
+	}
+
+	private static void collectConflicts(int[] counts, List<Pending> states, List<Pending> conflicts) {
+		for (int i = 0; i < counts.length; i++) {
+			// no row changed, SUCCESS_NO_INFO is negative
+			if (counts[i] == 0) {
+				conflicts.add(states.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Flushes the pending states and stops the background flushing.
+	 */
+	public void close() {
+		flusher.shutdown();
+		flush(true);
+		int lost = getPending();
+		if (lost > 0) {
+			System.out.println(lost + " conversation states could not be written before closing");
+		}
+	}
+
+	private static String key(String owner, String channel) {
+		return owner + "\u0000" + channel;
+	}
+
+	private static class Pending {
+		private final String owner;
+		private final String channel;
+		private final ConversationState state;
+		// version of the row the state is based on, 0 if there is no row yet
+		private volatile long version;
+
+		Pending(String owner, String channel, ConversationState state, long version) {
+			this.owner = owner;
+			this.channel = channel;
+			this.state = state;
+			this.version = version;
+		}
+	}
+}
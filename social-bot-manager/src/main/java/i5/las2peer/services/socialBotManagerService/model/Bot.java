@@ -22,6 +22,7 @@ public class Bot {
 
 	private HashMap<String, ServiceFunction> botServiceFunctions;
 	private HashSet<Trigger> triggerList;
+	private TriggerTable triggerTable;
 
 	private HashMap<String, Messenger> messengers;
 
@@ -100,10 +101,29 @@ public class Bot {
 
 	public void setTriggerList(HashSet<Trigger> triggerList) {
 		this.triggerList = triggerList;
+		this.triggerTable = null;
 	}
 
 	public void addTrigger(Trigger t) {
 		this.triggerList.add(t);
+		this.triggerTable = null;
+	}
+
+	/**
+	 * @return the service function triggers of the bot, compiled on first use if
+	 *         the BotParser did not do it
+	 */
+	public TriggerTable getTriggerTable() {
+		TriggerTable table = triggerTable;
+		if (table == null) {
+			table = TriggerTable.compile(this);
+			triggerTable = table;
+		}
+		return table;
+	}
+
+	public void setTriggerTable(TriggerTable triggerTable) {
+		this.triggerTable = triggerTable;
 	}
 
 	public String getVersion() {
@@ -148,6 +168,7 @@ public class Bot {
 	public void addMessenger(Messenger messenger, String url) throws IOException, DeploymentException, ParseBotException, AuthTokenException {
 		messenger.setUrl(url);
 		this.messengers.put(messenger.getName(), messenger);
+		MessageDispatcher.getInstance().register(this, messenger);
 	}
 
 	public void deactivateAll() {
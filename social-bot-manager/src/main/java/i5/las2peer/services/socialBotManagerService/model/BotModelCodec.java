@@ -0,0 +1,162 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Storage format of the BotModels in the `models` table.
+ *
+ * A stored model starts with a header consisting of the magic bytes "SBFM",
+ * the schema version and the id of the codec that wrote the rest of the data.
+ * Rows that were written with Java serialization before are still readable and
+ * are rewritten in the current format the next time they are read.
+ */
+public abstract class BotModelCodec {
+
+	public static final int SCHEMA_VERSION = 1;
+	public static final int HEADER_LENGTH = 6;
+	public static final String DEFAULT_CODEC = "smile";
+
+	private static final byte[] MAGIC = { 'S', 'B', 'F', 'M' };
+	// first two bytes of a Java serialization stream
+	private static final int JAVA_MAGIC_1 = 0xAC;
+	private static final int JAVA_MAGIC_2 = 0xED;
+
+	/**
+	 * Key: id of the codec
+	 * Value: the codec
+	 */
+	private static final ConcurrentHashMap<Integer, BotModelCodec> codecs = new ConcurrentHashMap<Integer, BotModelCodec>();
+	private static final ConcurrentHashMap<String, BotModelCodec> codecsByName = new ConcurrentHashMap<String, BotModelCodec>();
+
+	private static volatile BotModelCodec defaultCodec;
+
+	static {
+		register(new JacksonBotModelCodec(1, "smile", new SmileFactory()));
+		register(new JacksonBotModelCodec(2, "json", new JsonFactory()));
+		defaultCodec = codecsByName.get(DEFAULT_CODEC);
+	}
+
+	/**
+	 * @return id that is written into the header, between 1 and 255
+	 */
+	public abstract int getId();
+
+	public abstract String getName();
+
+	protected abstract void write(BotModel model, OutputStream out) throws IOException;
+
+	protected abstract BotModel read(InputStream in) throws IOException;
+
+	public static void register(BotModelCodec codec) {
+		if (codec.getId() < 1 || codec.getId() > 255) {
+			throw new IllegalArgumentException("Codec id must be between 1 and 255");
+		}
+		codecs.put(codec.getId(), codec);
+		codecsByName.put(codec.getName().toLowerCase(), codec);
+	}
+
+	/**
+	 * Sets the codec that is used to write models.
+	 *
+	 * @param name name of a registered codec, e.g. "smile" or "json"
+	 */
+	public static void setDefault(String name) {
+		if (name == null || name.isEmpty()) {
+			return;
+		}
+		BotModelCodec codec = codecsByName.get(name.toLowerCase());
+		if (codec == null) {
+			System.out.println("Unknown model codec " + name + ", using " + defaultCodec.getName());
+			return;
+		}
+		defaultCodec = codec;
+	}
+
+	public static BotModelCodec getDefault() {
+		return defaultCodec;
+	}
+
+	/**
+	 * Writes the model with the default codec.
+	 *
+	 * @param model the model
+	 * @return header and encoded model
+	 */
+	public static byte[] encode(BotModel model) throws IOException {
+		BotModelCodec codec = defaultCodec;
+		ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+		out.write(MAGIC);
+		out.write(SCHEMA_VERSION);
+		out.write(codec.getId());
+		codec.write(model, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reads a model while it is streamed from the database. Accepts every
+	 * registered codec and models stored with Java serialization.
+	 *
+	 * @param stream stored model
+	 * @return the model
+	 */
+	public static BotModel decode(InputStream stream) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(stream);
+		in.mark(HEADER_LENGTH);
+		byte[] header = in.readNBytes(HEADER_LENGTH);
+		if (isJavaSerialized(header)) {
+			in.reset();
+			try {
+				return (BotModel) new ObjectInputStream(in).readObject();
+			} catch (ClassNotFoundException | ClassCastException e) {
+				throw new IOException("Could not read Java serialized model", e);
+			}
+		}
+		if (!hasMagic(header)) {
+			throw new IOException("Unknown model format");
+		}
+		int version = header[4] & 0xFF;
+		if (version > SCHEMA_VERSION) {
+			throw new IOException("Model was written with the newer schema version " + version);
+		}
+		BotModelCodec codec = codecs.get(header[5] & 0xFF);
+		if (codec == null) {
+			throw new IOException("Model was written with the unknown codec " + (header[5] & 0xFF));
+		}
+		return codec.read(in);
+	}
+
+	/**
+	 * @param header the first HEADER_LENGTH bytes of a stored model
+	 * @return true if the model was written with the current schema version and
+	 *         the default codec, false if it should be rewritten
+	 */
+	public static boolean isCurrent(byte[] header) {
+		return hasMagic(header) && (header[4] & 0xFF) == SCHEMA_VERSION
+				&& (header[5] & 0xFF) == defaultCodec.getId();
+	}
+
+	private static boolean hasMagic(byte[] header) {
+		if (header == null || header.length < HEADER_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (header[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isJavaSerialized(byte[] header) {
+		return header.length >= 2 && (header[0] & 0xFF) == JAVA_MAGIC_1 && (header[1] & 0xFF) == JAVA_MAGIC_2;
+	}
+}
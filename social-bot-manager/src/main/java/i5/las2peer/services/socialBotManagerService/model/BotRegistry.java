@@ -0,0 +1,239 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import i5.las2peer.services.socialBotManagerService.chat.ChatMediator;
+import i5.las2peer.services.socialBotManagerService.chat.ChatService;
+import i5.las2peer.services.socialBotManagerService.chat.github.GitHubChatMediator;
+
+/**
+ * Finds the bot and messenger an incoming request belongs to without looking
+ * at every bot.
+ *
+ * Bots are registered by the BotParser and can be looked up by their name
+ * (ignoring case), the token of one of their messengers, the GitHub app id of
+ * their GitHub messengers and the RESTful chat channels they talked in. Tokens
+ * are only kept as SHA-256 hashes.
+ */
+public class BotRegistry {
+
+	private static BotRegistry instance = null;
+
+	private final ConcurrentHashMap<String, Bot> bots = new ConcurrentHashMap<String, Bot>();
+	// chat service + ":" + token hash
+	private final ConcurrentHashMap<String, Route> tokens = new ConcurrentHashMap<String, Route>();
+	private final ConcurrentHashMap<Integer, List<Route>> gitHubApps = new ConcurrentHashMap<Integer, List<Route>>();
+	// organization + "-" + channel
+	private final ConcurrentHashMap<String, Route> channels = new ConcurrentHashMap<String, Route>();
+
+	// keys added per bot name, to remove them when the bot is replaced
+	private final HashMap<String, List<String>> tokenKeys = new HashMap<String, List<String>>();
+	private final HashMap<String, List<Integer>> appKeys = new HashMap<String, List<Integer>>();
+	private final HashMap<String, List<String>> channelKeys = new HashMap<String, List<String>>();
+
+	protected BotRegistry() {
+	}
+
+	public static synchronized BotRegistry getInstance() {
+		if (instance == null) {
+			instance = new BotRegistry();
+		}
+		return instance;
+	}
+
+	/**
+	 * Registers the bot and its messengers, replacing a bot with the same name.
+	 *
+	 * @param bot the bot
+	 */
+	public synchronized void register(Bot bot) {
+		String name = normalize(bot.getName());
+		unregister(name);
+		bots.put(name, bot);
+		List<String> keys = new ArrayList<String>();
+		List<Integer> apps = new ArrayList<Integer>();
+		for (Messenger m : bot.getMessengers().values()) {
+			ChatMediator mediator = m.getChatMediator();
+			if (mediator == null) {
+				continue;
+			}
+			Route route = new Route(bot, m);
+			if (mediator.getAuthToken() != null) {
+				String key = tokenKey(m.getChatService(), mediator.getAuthToken());
+				tokens.put(key, route);
+				keys.add(key);
+			}
+			if (mediator instanceof GitHubChatMediator) {
+				int appId = ((GitHubChatMediator) mediator).getGitHubAppId();
+				gitHubApps.computeIfAbsent(appId, k -> new CopyOnWriteArrayList<Route>()).add(route);
+				apps.add(appId);
+			}
+		}
+		tokenKeys.put(name, keys);
+		appKeys.put(name, apps);
+	}
+
+	/**
+	 * Removes the bot, its messengers and channels.
+	 *
+	 * @param bot the bot
+	 */
+	public synchronized void unregister(Bot bot) {
+		String name = normalize(bot.getName());
+		if (bots.get(name) == bot) {
+			unregister(name);
+		}
+	}
+
+	private void unregister(String name) {
+		bots.remove(name);
+		List<String> keys = tokenKeys.remove(name);
+		if (keys != null) {
+			for (String key : keys) {
+				// another bot may have taken over the key
+				tokens.computeIfPresent(key, (k, r) -> belongsTo(r, name) ? null : r);
+			}
+		}
+		List<Integer> apps = appKeys.remove(name);
+		if (apps != null) {
+			for (Integer appId : apps) {
+				List<Route> routes = gitHubApps.get(appId);
+				if (routes != null) {
+					routes.removeIf(r -> belongsTo(r, name));
+					if (routes.isEmpty()) {
+						gitHubApps.remove(appId);
+					}
+				}
+			}
+		}
+		keys = channelKeys.remove(name);
+		if (keys != null) {
+			for (String key : keys) {
+				channels.computeIfPresent(key, (k, r) -> belongsTo(r, name) ? null : r);
+			}
+		}
+	}
+
+	private static boolean belongsTo(Route route, String name) {
+		return normalize(route.getBot().getName()).equals(name);
+	}
+
+	/**
+	 * @param name name of the bot, case is ignored
+	 * @return the bot, null if there is none
+	 */
+	public Bot getBot(String name) {
+		return name == null ? null : bots.get(normalize(name));
+	}
+
+	/**
+	 * @param service chat service of the messenger
+	 * @param token   auth token of the messenger
+	 * @return the bot and messenger, null if there is none
+	 */
+	public Route getByToken(ChatService service, String token) {
+		return token == null ? null : tokens.get(tokenKey(service, token));
+	}
+
+	/**
+	 * @param appId id of a GitHub app
+	 * @return the GitHub messengers using the app
+	 */
+	public List<Route> getByGitHubAppId(int appId) {
+		List<Route> routes = gitHubApps.get(appId);
+		return routes == null ? Collections.<Route>emptyList() : routes;
+	}
+
+	/**
+	 * Remembers which messenger handles a RESTful chat channel.
+	 *
+	 * @param channel   organization + "-" + channel
+	 * @param bot       bot of the messenger
+	 * @param messenger the messenger
+	 */
+	public void registerChannel(String channel, Bot bot, Messenger messenger) {
+		Route previous = channels.get(channel);
+		if (previous != null && previous.getBot() == bot && previous.getMessenger() == messenger) {
+			return;
+		}
+		synchronized (this) {
+			previous = channels.put(channel, new Route(bot, messenger));
+			String name = normalize(bot.getName());
+			if (previous != null && !belongsTo(previous, name)) {
+				// the channel moved to another bot
+				List<String> keys = channelKeys.get(normalize(previous.getBot().getName()));
+				if (keys != null) {
+					keys.remove(channel);
+				}
+			}
+			List<String> keys = channelKeys.computeIfAbsent(name, k -> new ArrayList<String>());
+			if (!keys.contains(channel)) {
+				keys.add(channel);
+			}
+		}
+	}
+
+	/**
+	 * @param channel organization + "-" + channel
+	 * @return the messenger handling the channel, null if there is none
+	 */
+	public Messenger getChannelMessenger(String channel) {
+		Route route = channels.get(channel);
+		return route == null ? null : route.getMessenger();
+	}
+
+	private static String normalize(String name) {
+		return name.trim().toLowerCase(Locale.ROOT);
+	}
+
+	private static String tokenKey(ChatService service, String token) {
+		return service + ":" + hashToken(token);
+	}
+
+	/**
+	 * @param token auth token
+	 * @return the SHA-256 hash of the token as hex
+	 */
+	public static String hashToken(String token) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * A bot and one of its messengers.
+	 */
+	public static class Route {
+		private final Bot bot;
+		private final Messenger messenger;
+
+		Route(Bot bot, Messenger messenger) {
+			this.bot = bot;
+			this.messenger = messenger;
+		}
+
+		public Bot getBot() {
+			return bot;
+		}
+
+		public Messenger getMessenger() {
+			return messenger;
+		}
+	}
+}
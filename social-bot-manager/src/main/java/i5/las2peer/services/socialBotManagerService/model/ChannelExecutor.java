@@ -0,0 +1,207 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes tasks per channel on a shared, bounded worker pool.
+ *
+ * Every channel owns a mailbox. A mailbox is handled by at most one worker at
+ * a time, so tasks of one channel run strictly in the order they were
+ * submitted, while tasks of different channels run in parallel. After each
+ * task the mailbox is handed back to the pool, so a busy channel cannot keep a
+ * worker to itself. Empty mailboxes are dropped.
+ */
+public class ChannelExecutor {
+
+	public static final int DEFAULT_POOL_SIZE = 16;
+
+	private static int poolSize = DEFAULT_POOL_SIZE;
+	private static ExecutorService pool = null;
+
+	/**
+	 * Key: channel ID
+	 * Value: pending tasks of the channel
+	 */
+	private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<String, Mailbox>();
+
+	// channel whose task the current worker thread runs
+	private final ThreadLocal<String> current = new ThreadLocal<String>();
+
+	/**
+	 * Sets the number of worker threads shared by all channel executors. Only
+	 * has an effect before the first task was submitted.
+	 *
+	 * @param size number of worker threads
+	 */
+	public static synchronized void setPoolSize(int size) {
+		if (size > 0 && pool == null) {
+			poolSize = size;
+		}
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			AtomicInteger count = new AtomicInteger();
+			ThreadFactory factory = r -> {
+				Thread t = new Thread(r, "sbf-channel-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			};
+			pool = Executors.newFixedThreadPool(poolSize, factory);
+		}
+		return pool;
+	}
+
+	/**
+	 * Stops the shared worker pool. Tasks that are already queued are still
+	 * executed, new ones are rejected. Waits a few seconds for them, afterwards
+	 * the next task starts a new pool.
+	 */
+	public static void shutdown() {
+		ExecutorService p;
+		synchronized (ChannelExecutor.class) {
+			p = pool;
+			if (p == null || p.isShutdown()) {
+				return;
+			}
+			p.shutdown();
+		}
+		try {
+			if (!p.awaitTermination(5, TimeUnit.SECONDS)) {
+				System.out.println("Channel tasks did not finish in time");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (ChannelExecutor.class) {
+			if (pool == p) {
+				pool = null;
+			}
+		}
+	}
+
+	/**
+	 * Queues a task for the given channel.
+	 *
+	 * @param channel channel the task belongs to
+	 * @param task    the task
+	 * @return future that completes once the task was executed
+	 */
+	public CompletableFuture<Void> submit(String channel, Runnable task) {
+		String key = channel == null ? "" : channel;
+		CompletableFuture<Void> done = new CompletableFuture<Void>();
+		Runnable wrapped = () -> {
+			try {
+				task.run();
+				done.complete(null);
+			} catch (Throwable e) {
+				e.printStackTrace();
+				done.completeExceptionally(e);
+			}
+		};
+		try {
+			while (!mailboxes.computeIfAbsent(key, Mailbox::new).offer(wrapped)) {
+				// mailbox was dropped in the meantime, retry with a fresh one
+			}
+		} catch (RejectedExecutionException e) {
+			// the pool is shutting down
+			done.completeExceptionally(e);
+		}
+		return done;
+	}
+
+	/**
+	 * Queues a task for the given channel and waits until it was executed. If the
+	 * calling thread runs a task of the same channel, the task is executed right
+	 * away, it would wait for itself otherwise.
+	 *
+	 * @param channel channel the task belongs to
+	 * @param task    the task
+	 */
+	public void execute(String channel, Runnable task) {
+		String key = channel == null ? "" : channel;
+		if (key.equals(current.get())) {
+			task.run();
+			return;
+		}
+		try {
+			submit(key, task).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			e.printStackTrace();
+		} catch (ExecutionException e) {
+			// printed by the mailbox, or rejected while the pool shuts down
+		}
+	}
+
+	/**
+	 * @return number of channels that currently have queued or running tasks
+	 */
+	public int getActiveChannels() {
+		return mailboxes.size();
+	}
+
+	private class Mailbox implements Runnable {
+		private final String channel;
+		private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+		private boolean running = false;
+		private boolean closed = false;
+
+		Mailbox(String channel) {
+			this.channel = channel;
+		}
+
+		synchronized boolean offer(Runnable task) {
+			if (closed) {
+				return false;
+			}
+			if (!running) {
+				getPool().execute(this);
+				running = true;
+			}
+			tasks.add(task);
+			return true;
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Runnable task;
+				synchronized (this) {
+					task = tasks.poll();
+				}
+				if (task != null) {
+					current.set(channel);
+					try {
+						task.run();
+					} finally {
+						current.remove();
+					}
+				}
+				synchronized (this) {
+					if (tasks.isEmpty()) {
+						running = false;
+						closed = true;
+						mailboxes.remove(channel, this);
+						return;
+					}
+					try {
+						getPool().execute(this);
+						return;
+					} catch (RejectedExecutionException e) {
+						// the pool is shutting down, the queued tasks are run by this worker
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.UriBuilder;
+
+import com.google.gson.Gson;
+
+import i5.las2peer.services.socialBotManagerService.chat.ChatMessage;
+
+/**
+ * Forwards chat messages to the node owning their channel (see
+ * {@link ChannelRing}). The owner receives them at
+ * /bots/{botName}/messengers/{messenger}/messages.
+ */
+public class ChannelForwarder {
+
+	public static final int TIMEOUT = 10000; // ms
+
+	private static ChannelForwarder instance = null;
+
+	private final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofMillis(TIMEOUT)).build();
+	private final Gson gson = new Gson();
+
+	protected ChannelForwarder() {
+	}
+
+	public static synchronized ChannelForwarder getInstance() {
+		if (instance == null) {
+			instance = new ChannelForwarder();
+		}
+		return instance;
+	}
+
+	/**
+	 * Sends the message to the node owning its channel.
+	 *
+	 * @param bot       name of the bot
+	 * @param messenger name of the messenger that received the message
+	 * @param message   the message
+	 * @return completes with true once the owner accepted the message, with
+	 *         false if the URL of the owner is not known or it could not be
+	 *         reached
+	 */
+	public CompletableFuture<Boolean> forward(String bot, String messenger, ChatMessage message) {
+		String channel = message.getChannel();
+		String url = ChannelRing.getInstance().getOwnerUrl(channel);
+		if (url == null) {
+			return CompletableFuture.completedFuture(false);
+		}
+		HttpRequest request;
+		try {
+			URI uri = UriBuilder.fromUri(url).path("bots/{bot}/messengers/{messenger}/messages").build(bot,
+					messenger);
+			request = HttpRequest.newBuilder(uri).timeout(Duration.ofMillis(TIMEOUT))
+					.header("Content-Type", MediaType.APPLICATION_JSON)
+					.POST(HttpRequest.BodyPublishers.ofString(gson.toJson(message), StandardCharsets.UTF_8)).build();
+			return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).handle((response, e) -> {
+				if (e != null) {
+					System.err.println("Could not forward message of channel " + channel + " to " + url + ": " + e);
+					return false;
+				}
+				if (response.statusCode() != 200) {
+					System.err.println("Owner " + url + " of channel " + channel + " did not accept the message: HTTP "
+							+ response.statusCode());
+					return false;
+				}
+				return true;
+			});
+		} catch (Exception e) {
+			e.printStackTrace();
+			return CompletableFuture.completedFuture(false);
+		}
+	}
+}
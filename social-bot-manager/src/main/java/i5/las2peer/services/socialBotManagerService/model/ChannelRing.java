@@ -0,0 +1,148 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Decides which node of a cluster of managers owns a chat channel.
+ *
+ * Channels are spread over the nodes by consistent hashing: every node is put
+ * on a ring of hashes several times (virtual nodes) and a channel belongs to
+ * the first node after the hash of the channel. If a node is added or removed
+ * only the channels next to it change their owner.
+ *
+ * Only the owner of a channel answers its messages and saves its conversation
+ * state. Messages that reach another node are forwarded to the owner (see
+ * {@link ChannelForwarder}), RESTful chat requests are redirected to it. Both
+ * need the URLs of the nodes. Without configured nodes this node owns every
+ * channel.
+ */
+public class ChannelRing {
+
+	public static final int DEFAULT_VIRTUAL_NODES = 100;
+	public static final String LOCAL_NODE = "local";
+
+	private static ChannelRing instance = null;
+
+	private volatile String nodeId = LOCAL_NODE;
+	private volatile List<String> nodes = Collections.singletonList(LOCAL_NODE);
+	private volatile TreeMap<Long, String> ring = new TreeMap<Long, String>();
+	private volatile Map<String, String> urls = Collections.emptyMap();
+
+	protected ChannelRing() {
+	}
+
+	public static synchronized ChannelRing getInstance() {
+		if (instance == null) {
+			instance = new ChannelRing();
+		}
+		return instance;
+	}
+
+	/**
+	 * @param nodeId       id of this node, empty for "local"
+	 * @param nodes        comma separated ids of all nodes, empty if this node is
+	 *                     the only one
+	 * @param virtualNodes places of each node on the ring
+	 * @param nodeUrls     comma separated id=URL pairs, the URL of the
+	 *                     SBFManager service of each node
+	 */
+	public synchronized void configure(String nodeId, String nodes, int virtualNodes, String nodeUrls) {
+		String self = nodeId == null || nodeId.trim().isEmpty() ? LOCAL_NODE : nodeId.trim();
+		List<String> list = new ArrayList<String>();
+		if (nodes != null) {
+			for (String node : nodes.split(",")) {
+				if (!node.trim().isEmpty() && !list.contains(node.trim())) {
+					list.add(node.trim());
+				}
+			}
+		}
+		if (list.isEmpty()) {
+			list.add(self);
+		} else if (!list.contains(self)) {
+			System.out.println("Node " + self + " is not one of the cluster nodes " + list + ", it owns no channels");
+		}
+		int replicas = virtualNodes > 0 ? virtualNodes : DEFAULT_VIRTUAL_NODES;
+		TreeMap<Long, String> ring = new TreeMap<Long, String>();
+		for (String node : list) {
+			for (int i = 0; i < replicas; i++) {
+				ring.put(hash(node + "#" + i), node);
+			}
+		}
+		HashMap<String, String> urls = new HashMap<String, String>();
+		if (nodeUrls != null) {
+			for (String pair : nodeUrls.split(",")) {
+				int i = pair.indexOf('=');
+				if (i > 0) {
+					String url = pair.substring(i + 1).trim();
+					while (url.endsWith("/")) {
+						url = url.substring(0, url.length() - 1);
+					}
+					urls.put(pair.substring(0, i).trim(), url);
+				}
+			}
+		}
+		this.ring = ring;
+		this.urls = Collections.unmodifiableMap(urls);
+		this.nodes = Collections.unmodifiableList(list);
+		this.nodeId = self;
+	}
+
+	/**
+	 * @param channel a channel
+	 * @return id of the node owning the channel
+	 */
+	public String getOwner(String channel) {
+		TreeMap<Long, String> r = ring;
+		if (r.isEmpty()) {
+			return nodeId;
+		}
+		Map.Entry<Long, String> entry = r.ceilingEntry(hash(channel));
+		return entry == null ? r.firstEntry().getValue() : entry.getValue();
+	}
+
+	/**
+	 * @param channel a channel
+	 * @return whether this node owns the channel
+	 */
+	public boolean isOwner(String channel) {
+		return nodeId.equals(getOwner(channel));
+	}
+
+	/**
+	 * @param channel a channel
+	 * @return URL of the SBFManager service of the node owning the channel, null
+	 *         if it is not known
+	 */
+	public String getOwnerUrl(String channel) {
+		return urls.get(getOwner(channel));
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	public List<String> getNodes() {
+		return nodes;
+	}
+
+	private static long hash(String s) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(s.getBytes(StandardCharsets.UTF_8));
+			long h = 0;
+			for (int i = 0; i < 8; i++) {
+				h = (h << 8) | (digest[i] & 0xFF);
+			}
+			return h;
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
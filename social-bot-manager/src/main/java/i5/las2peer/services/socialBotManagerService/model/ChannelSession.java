@@ -0,0 +1,186 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import i5.las2peer.services.socialBotManagerService.database.ConversationState;
+import i5.las2peer.services.socialBotManagerService.nlu.Entity;
+
+/**
+ * Everything a messenger keeps about one channel: the state of the
+ * conversation, its context and the messages exchanged so far.
+ */
+public class ChannelSession {
+
+	private final String channel;
+
+	// current state of the conversation (last IncomingMessage)
+	private volatile IncomingMessage state;
+	/*
+	 * Used to determine if a new conversation was started. A new conversation
+	 * starts if no followup messages are found for the current state and the
+	 * context of the last function call is closed.
+	 */
+	private volatile IncomingMessage previousState;
+	private volatile IncomingMessage previousStateBackup;
+	// state the conversation was in when a command was triggered
+	private volatile IncomingMessage storedSession;
+	// entities that were recognized during the conversation
+	private volatile Collection<Entity> recognizedEntities;
+	// used for keeping context between assessment and non-assessment states
+	private volatile String nluModel;
+	// function the received intents/messages are sent to, set while talking with a service
+	private volatile String triggeredFunction;
+	// number of times a default message was given out in a conversation state
+	private volatile int defaultAnswerCount = 0;
+	// id of the conversation the channel is in, kept here as states are shared by all channels
+	private volatile UUID conversationId;
+	private final ConcurrentHashMap<String, String> userVariables = new ConcurrentHashMap<String, String>();
+	private final ConversationHistory conversation = new ConversationHistory();
+
+	// state last taken from or handed to the conversation state store
+	private volatile ConversationState savedState;
+	private volatile long lastAccess = System.currentTimeMillis();
+
+	public ChannelSession(String channel) {
+		this.channel = channel;
+	}
+
+	public String getChannel() {
+		return channel;
+	}
+
+	public IncomingMessage getState() {
+		return state;
+	}
+
+	public void setState(IncomingMessage state) {
+		this.state = state;
+	}
+
+	public IncomingMessage getPreviousState() {
+		return previousState;
+	}
+
+	public void setPreviousState(IncomingMessage previousState) {
+		this.previousState = previousState;
+	}
+
+	public IncomingMessage getPreviousStateBackup() {
+		return previousStateBackup;
+	}
+
+	public void setPreviousStateBackup(IncomingMessage previousStateBackup) {
+		this.previousStateBackup = previousStateBackup;
+	}
+
+	public IncomingMessage getStoredSession() {
+		return storedSession;
+	}
+
+	public void setStoredSession(IncomingMessage storedSession) {
+		this.storedSession = storedSession;
+	}
+
+	public Collection<Entity> getRecognizedEntities() {
+		return recognizedEntities;
+	}
+
+	public void setRecognizedEntities(Collection<Entity> recognizedEntities) {
+		this.recognizedEntities = recognizedEntities;
+	}
+
+	public String getNluModel() {
+		return nluModel;
+	}
+
+	public void setNluModel(String nluModel) {
+		this.nluModel = nluModel;
+	}
+
+	public String getTriggeredFunction() {
+		return triggeredFunction;
+	}
+
+	public void setTriggeredFunction(String triggeredFunction) {
+		this.triggeredFunction = triggeredFunction;
+	}
+
+	public int getDefaultAnswerCount() {
+		return defaultAnswerCount;
+	}
+
+	public void setDefaultAnswerCount(int defaultAnswerCount) {
+		this.defaultAnswerCount = defaultAnswerCount;
+	}
+
+	public UUID getConversationId() {
+		return conversationId;
+	}
+
+	public void setConversationId(UUID conversationId) {
+		this.conversationId = conversationId;
+	}
+
+	public ConcurrentHashMap<String, String> getUserVariables() {
+		return userVariables;
+	}
+
+	public void setUserVariables(Map<String, String> variables) {
+		this.userVariables.clear();
+		this.userVariables.putAll(variables);
+	}
+
+	public ConversationHistory getConversation() {
+		return conversation;
+	}
+
+	/**
+	 * @return the state last taken from or handed to the conversation state
+	 *         store, null if there is none
+	 */
+	public ConversationState getSavedState() {
+		return savedState;
+	}
+
+	public void setSavedState(ConversationState savedState) {
+		this.savedState = savedState;
+	}
+
+	public long getLastAccess() {
+		return lastAccess;
+	}
+
+	public void touch() {
+		this.lastAccess = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return rough number of bytes kept for the channel
+	 */
+	public long estimateSize() {
+		// object headers, fields and the map entry of the session
+		long size = 160 + chars(channel);
+		for (Map.Entry<String, String> e : userVariables.entrySet()) {
+			size += 48 + chars(e.getKey()) + chars(e.getValue());
+		}
+		Collection<Entity> entities = recognizedEntities;
+		if (entities != null) {
+			for (Entity e : new ArrayList<Entity>(entities)) {
+				size += 40 + chars(e.getEntityName()) + chars(e.getValue());
+			}
+		}
+		size += 16 + 4 * conversation.getCapacity();
+		for (ConversationMessage m : conversation) {
+			size += 40 + chars(m.getConversationId()) + chars(m.getRole()) + chars(m.getContent());
+		}
+		return size;
+	}
+
+	private static long chars(String s) {
+		return s == null ? 0 : 40 + s.length();
+	}
+}
@@ -0,0 +1,180 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The channel sessions of a messenger.
+ *
+ * Sessions that were not used for the idle time are evicted. If there are
+ * more sessions than the configured maximum, the least recently used ones are
+ * evicted until 90% of the maximum is left. Evicted sessions are handed to the
+ * eviction handler, their conversation state is still in the conversation
+ * state store.
+ *
+ * Expired sessions are looked for while the sessions are used, at most once
+ * per sweep interval.
+ */
+public class ChannelSessions {
+
+	public static final int DEFAULT_MAX_SESSIONS = 10000; // per messenger
+	public static final int DEFAULT_IDLE_TIME = 3600; // seconds
+	private static final long SWEEP_INTERVAL = 60000; // ms
+
+	private static int maxSessions = DEFAULT_MAX_SESSIONS;
+	private static long idleTime = DEFAULT_IDLE_TIME * 1000L;
+
+	// all instances, for the metrics
+	private static final Set<ChannelSessions> instances = Collections
+			.newSetFromMap(new WeakHashMap<ChannelSessions, Boolean>());
+	private static final AtomicLong evicted = new AtomicLong();
+
+	private final ConcurrentHashMap<String, ChannelSession> sessions = new ConcurrentHashMap<String, ChannelSession>();
+	private final Consumer<ChannelSession> evictionHandler;
+	private final AtomicBoolean sweeping = new AtomicBoolean(false);
+	private volatile long lastSweep = System.currentTimeMillis();
+
+	/**
+	 * @param evictionHandler called for every evicted session
+	 */
+	public ChannelSessions(Consumer<ChannelSession> evictionHandler) {
+		this.evictionHandler = evictionHandler;
+		synchronized (instances) {
+			instances.add(this);
+		}
+	}
+
+	/**
+	 * @param sessions maximum number of sessions per messenger
+	 * @param idle     seconds after which an unused session is evicted
+	 */
+	public static void configure(int sessions, int idle) {
+		if (sessions > 0) {
+			maxSessions = sessions;
+		}
+		if (idle > 0) {
+			idleTime = idle * 1000L;
+		}
+	}
+
+	/**
+	 * @param channel the channel
+	 * @return the session of the channel, created if there is none
+	 */
+	public ChannelSession get(String channel) {
+		ChannelSession session = sessions.get(channel);
+		if (session == null) {
+			session = sessions.computeIfAbsent(channel, ChannelSession::new);
+			if (sessions.size() > maxSessions) {
+				sweep(true);
+			}
+		}
+		session.touch();
+		if (System.currentTimeMillis() - lastSweep > SWEEP_INTERVAL) {
+			sweep(false);
+		}
+		return session;
+	}
+
+	/**
+	 * @param channel the channel
+	 * @return the session of the channel, null if there is none
+	 */
+	public ChannelSession peek(String channel) {
+		return sessions.get(channel);
+	}
+
+	public int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * @return rough number of bytes kept in the sessions
+	 */
+	public long estimateSize() {
+		long size = 0;
+		for (ChannelSession session : sessions.values()) {
+			size += session.estimateSize();
+		}
+		return size;
+	}
+
+	private void sweep(boolean overflow) {
+		if (!sweeping.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			long now = System.currentTimeMillis();
+			lastSweep = now;
+			for (ChannelSession session : sessions.values()) {
+				if (now - session.getLastAccess() > idleTime) {
+					evict(session);
+				}
+			}
+			if (overflow && sessions.size() > maxSessions) {
+				List<ChannelSession> list = new ArrayList<ChannelSession>(sessions.values());
+				list.sort(Comparator.comparingLong(ChannelSession::getLastAccess));
+				int excess = list.size() - maxSessions * 9 / 10;
+				for (int i = 0; i < excess; i++) {
+					evict(list.get(i));
+				}
+			}
+		} finally {
+			sweeping.set(false);
+		}
+	}
+
+	private void evict(ChannelSession session) {
+		if (sessions.remove(session.getChannel(), session)) {
+			evicted.incrementAndGet();
+			try {
+				evictionHandler.accept(session);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return sessions of all messengers
+	 */
+	public static int getActiveSessions() {
+		int n = 0;
+		for (ChannelSessions s : snapshot()) {
+			n += s.size();
+		}
+		return n;
+	}
+
+	/**
+	 * @return rough number of bytes kept in the sessions of all messengers
+	 */
+	public static long getRetainedBytes() {
+		long size = 0;
+		for (ChannelSessions s : snapshot()) {
+			size += s.estimateSize();
+		}
+		return size;
+	}
+
+	/**
+	 * @return sessions evicted since the start
+	 */
+	public static long getEvicted() {
+		return evicted.get();
+	}
+
+	private static List<ChannelSessions> snapshot() {
+		synchronized (instances) {
+			return new ArrayList<ChannelSessions>(instances);
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONAware;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONStreamAware;
+import net.minidev.json.JSONValue;
+
+/**
+ * The last messages of the conversation in a channel. Keeps a fixed number of
+ * messages, adding a message to a full history drops the oldest one.
+ *
+ * Service functions get a {@link Window} of the history as "conversationPath",
+ * which is written into the request body as it is serialized.
+ */
+public class ConversationHistory extends AbstractCollection<ConversationMessage> {
+
+	public static final int DEFAULT_CAPACITY = 50; // messages per channel
+
+	private static int defaultCapacity = DEFAULT_CAPACITY;
+
+	private final ConversationMessage[] messages;
+	// index of the oldest message
+	private int head = 0;
+	private int size = 0;
+
+	public ConversationHistory() {
+		this(defaultCapacity);
+	}
+
+	public ConversationHistory(int capacity) {
+		this.messages = new ConversationMessage[Math.max(1, capacity)];
+	}
+
+	/**
+	 * @param capacity number of messages kept per channel
+	 */
+	public static void configure(int capacity) {
+		if (capacity > 0) {
+			defaultCapacity = capacity;
+		}
+	}
+
+	public int getCapacity() {
+		return messages.length;
+	}
+
+	@Override
+	public synchronized boolean add(ConversationMessage message) {
+		if (size < messages.length) {
+			messages[(head + size) % messages.length] = message;
+			size++;
+		} else {
+			messages[head] = message;
+			head = (head + 1) % messages.length;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the latest message, null if there is none
+	 */
+	public synchronized ConversationMessage getLast() {
+		return size == 0 ? null : messages[(head + size - 1) % messages.length];
+	}
+
+	/**
+	 * Replaces the latest message, or adds the message if there is none.
+	 */
+	public synchronized void replaceLast(ConversationMessage message) {
+		if (size == 0) {
+			add(message);
+		} else {
+			messages[(head + size - 1) % messages.length] = message;
+		}
+	}
+
+	@Override
+	public synchronized void clear() {
+		Arrays.fill(messages, null);
+		head = 0;
+		size = 0;
+	}
+
+	@Override
+	public synchronized int size() {
+		return size;
+	}
+
+	@Override
+	public Iterator<ConversationMessage> iterator() {
+		return window(0).iterator();
+	}
+
+	/**
+	 * @param length number of messages, 0 for all
+	 * @return the latest messages, oldest first. Later changes of the history do
+	 *         not show in the window.
+	 */
+	public synchronized Window window(int length) {
+		int n = length <= 0 ? size : Math.min(length, size);
+		ConversationMessage[] copy = new ConversationMessage[n];
+		int start = head + size - n;
+		for (int i = 0; i < n; i++) {
+			copy[i] = messages[(start + i) % messages.length];
+		}
+		return new Window(copy);
+	}
+
+	/**
+	 * Messages of a conversation, written as a JSON array of role and content
+	 * without building a JSON object per message first.
+	 */
+	public static class Window extends AbstractList<ConversationMessage> implements JSONStreamAware, JSONAware {
+		private final ConversationMessage[] messages;
+
+		Window(ConversationMessage[] messages) {
+			this.messages = messages;
+		}
+
+		@Override
+		public ConversationMessage get(int index) {
+			return messages[index];
+		}
+
+		@Override
+		public int size() {
+			return messages.length;
+		}
+
+		@Override
+		public void writeJSONString(Appendable out) throws IOException {
+			out.append('[');
+			for (int i = 0; i < messages.length; i++) {
+				if (i > 0) {
+					out.append(',');
+				}
+				out.append("{\"role\":");
+				writeString(out, messages[i].getRole());
+				out.append(",\"content\":");
+				writeString(out, messages[i].getContent());
+				out.append('}');
+			}
+			out.append(']');
+		}
+
+		/**
+		 * @return the messages as JSON objects of role and content, for bodies that
+		 *         are serialized by reflection (e.g. with Gson)
+		 */
+		public JSONArray toJSONArray() {
+			JSONArray array = new JSONArray();
+			for (ConversationMessage msg : messages) {
+				JSONObject json = new JSONObject();
+				json.put("role", msg.getRole());
+				json.put("content", msg.getContent());
+				array.add(json);
+			}
+			return array;
+		}
+
+		@Override
+		public String toJSONString() {
+			StringBuilder sb = new StringBuilder(messages.length * 64 + 2);
+			try {
+				writeJSONString(sb);
+			} catch (IOException e) {
+				// a StringBuilder does not throw
+			}
+			return sb.toString();
+		}
+
+		private static void writeString(Appendable out, String s) throws IOException {
+			if (s == null) {
+				out.append("null");
+			} else {
+				out.append('"').append(JSONValue.escape(s)).append('"');
+			}
+		}
+	}
+}
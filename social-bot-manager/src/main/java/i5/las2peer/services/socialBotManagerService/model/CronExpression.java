@@ -0,0 +1,167 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.time.DayOfWeek;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * A cron expression with the five usual fields: minute, hour, day of month,
+ * month and day of week.
+ *
+ * Each field can be *, a value, a range (1-5), a step (*&#47;15, 0-30/10) or a
+ * comma separated list of these. Months and days of week can also be given by
+ * their English three letter names, Sunday is 0 or 7. As in Vixie cron, a time
+ * matches either field if both day of month and day of week are restricted.
+ *
+ * Times are local to the zone of the given time. A time skipped by a daylight
+ * saving change does not match. A time that occurs twice because the clock is
+ * set back matches once, unless the hour is *.
+ */
+public class CronExpression {
+
+	private static final String[] MONTHS = { "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT",
+			"NOV", "DEC" };
+	private static final String[] DAYS = { "SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT" };
+
+	// give up if nothing matches within this many years (e.g. 30 2 *)
+	private static final int MAX_YEARS = 5;
+
+	private final String expression;
+	private final long minutes;
+	private final long hours;
+	private final long daysOfMonth;
+	private final long months;
+	private final long daysOfWeek;
+	private final boolean anyDayOfMonth;
+	private final boolean anyDayOfWeek;
+	private final boolean anyHour;
+
+	/**
+	 * @param expression the five fields separated by whitespace
+	 * @throws IllegalArgumentException if the expression is invalid
+	 */
+	public CronExpression(String expression) {
+		String[] fields = expression.trim().split("\\s+");
+		if (fields.length != 5) {
+			throw new IllegalArgumentException("Cron expression needs 5 fields: " + expression);
+		}
+		this.expression = expression.trim();
+		this.minutes = parseField(fields[0], 0, 59, null);
+		this.hours = parseField(fields[1], 0, 23, null);
+		this.daysOfMonth = parseField(fields[2], 1, 31, null);
+		this.months = parseField(fields[3], 1, 12, MONTHS);
+		long dow = parseField(fields[4], 0, 7, DAYS);
+		// 7 is Sunday as well
+		this.daysOfWeek = (dow & (1L << 7)) != 0 ? (dow | 1L) & ~(1L << 7) : dow;
+		this.anyDayOfMonth = fields[2].startsWith("*");
+		this.anyDayOfWeek = fields[4].startsWith("*");
+		this.anyHour = fields[1].startsWith("*");
+	}
+
+	/**
+	 * @param after point in time after which to search
+	 * @return the first matching minute after the given time, null if there is
+	 *         none
+	 */
+	public ZonedDateTime next(ZonedDateTime after) {
+		ZonedDateTime t = after.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+		int maxYear = t.getYear() + MAX_YEARS;
+		while (t.getYear() <= maxYear) {
+			if (!matches(months, t.getMonthValue())) {
+				t = t.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+				continue;
+			}
+			if (!matchesDay(t)) {
+				t = t.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+				continue;
+			}
+			if (!matches(hours, t.getHour())) {
+				t = t.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+				continue;
+			}
+			if (!matches(minutes, t.getMinute())) {
+				t = t.plusMinutes(1);
+				continue;
+			}
+			if (!anyHour && !t.withEarlierOffsetAtOverlap().equals(t)) {
+				// the clock was set back, the time already occurred
+				t = t.plusMinutes(1);
+				continue;
+			}
+			return t;
+		}
+		return null;
+	}
+
+	private boolean matchesDay(ZonedDateTime t) {
+		boolean dom = matches(daysOfMonth, t.getDayOfMonth());
+		int day = t.getDayOfWeek() == DayOfWeek.SUNDAY ? 0 : t.getDayOfWeek().getValue();
+		boolean dow = matches(daysOfWeek, day);
+		if (anyDayOfMonth || anyDayOfWeek) {
+			return dom && dow;
+		}
+		return dom || dow;
+	}
+
+	private static boolean matches(long mask, int value) {
+		return (mask & (1L << value)) != 0;
+	}
+
+	private static long parseField(String field, int min, int max, String[] names) {
+		long mask = 0;
+		for (String part : field.split(",")) {
+			int step = 1;
+			int slash = part.indexOf('/');
+			if (slash >= 0) {
+				step = Integer.parseInt(part.substring(slash + 1));
+				part = part.substring(0, slash);
+				if (step < 1) {
+					throw new IllegalArgumentException("Invalid step: " + field);
+				}
+			}
+			int from;
+			int to;
+			if (part.equals("*")) {
+				from = min;
+				to = max;
+			} else {
+				int dash = part.indexOf('-');
+				if (dash > 0) {
+					from = parseValue(part.substring(0, dash), min, names);
+					to = parseValue(part.substring(dash + 1), min, names);
+				} else {
+					from = parseValue(part, min, names);
+					// 5/15 means from 5 to the end
+					to = slash >= 0 ? max : from;
+				}
+			}
+			if (from < min || to > max || from > to) {
+				throw new IllegalArgumentException("Value out of range: " + field);
+			}
+			for (int i = from; i <= to; i += step) {
+				mask |= 1L << i;
+			}
+		}
+		return mask;
+	}
+
+	private static int parseValue(String value, int min, String[] names) {
+		if (names != null) {
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equalsIgnoreCase(value)) {
+					return i + min;
+				}
+			}
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value: " + value);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+}
@@ -3,9 +3,10 @@ package i5.las2peer.services.socialBotManagerService.model;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Random;
-import java.util.UUID;
 
-public class IncomingMessage {
+public class IncomingMessage implements Cloneable {
+	// id of the node in the bot model
+	String id;
 	String intentKeyword;
 	String intentLabel;
 	String followupMessageType;
@@ -21,14 +22,9 @@ public class IncomingMessage {
 	boolean freezeMessageSend;
 	boolean isRateable;
 
-	/**
-	 * Conversation Id for the message
-	 * A conversation is a sequence of messages between the bot and the user. A
-	 * conversation ends if there are no followup messages
-	 */
-	UUID conversationId;
-
 	ArrayList<String> responses;
+	// the responses, compiled when the message is parsed
+	ArrayList<ResponseTemplate> responseTemplates;
 
 	/*
 	 * List of followup messages. Followup messages are messages that are connected
@@ -38,6 +34,8 @@ public class IncomingMessage {
 	 * followup message.
 	 */
 	HashMap<String, IncomingMessage> followupMessages;
+	// message of the bot model whose followups a copy made by withFollowupsOf has
+	IncomingMessage followupsOf;
 
 	private static String[][] UMLAUT_REPLACEMENTS = { { new String("Ä"), "Ae" }, { new String("Ü"), "Ue" },
 			{ new String("Ö"), "Oe" }, { new String("ä"), "ae" }, { new String("ü"), "ue" }, { new String("ö"), "oe" },
@@ -62,6 +60,12 @@ public class IncomingMessage {
 			intentKeyword = "";
 		this.followupMessages = new HashMap<String, IncomingMessage>();
 		this.responses = responses;
+		this.responseTemplates = new ArrayList<ResponseTemplate>();
+		if (responses != null) {
+			for (String response : responses) {
+				this.responseTemplates.add(ResponseTemplate.compileResponse(response));
+			}
+		}
 		this.containsFile = containsFile;
 		if (intentKeyword.equals("0") && containsFile) {
 			intentKeyword = "anyFile";
@@ -84,12 +88,12 @@ public class IncomingMessage {
 		}
 	}
 
-	public UUID getConversationId() {
-		return conversationId;
+	public String getId() {
+		return id;
 	}
 
-	public void setConversationId(UUID conversationId) {
-		this.conversationId = conversationId;
+	public void setId(String id) {
+		this.id = id;
 	}
 
 	public String getIntentKeyword() {
@@ -119,6 +123,33 @@ public class IncomingMessage {
 		return followupMessages;
 	}
 
+	/**
+	 * A default answer keeps the conversation in the state it answers for. The
+	 * message of the bot model is shared by all channels, so the answer is a copy.
+	 *
+	 * @param state the state the answer is given in
+	 * @return a copy of this message with the followup messages of the state
+	 */
+	public IncomingMessage withFollowupsOf(IncomingMessage state) {
+		IncomingMessage copy;
+		try {
+			copy = (IncomingMessage) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+		copy.followupsOf = state.followupsOf != null ? state.followupsOf : state;
+		copy.followupMessages = copy.followupsOf.followupMessages;
+		return copy;
+	}
+
+	/**
+	 * @return the message whose followups this copy has, null if this is a
+	 *         message of the bot model
+	 */
+	public IncomingMessage getFollowupsOf() {
+		return followupsOf;
+	}
+
 	/**
 	 * Adds a followup message to the list of followup messages. The intentKeyword
 	 * 
@@ -145,6 +176,14 @@ public class IncomingMessage {
 		}
 	}
 
+	public ResponseTemplate getResponseTemplate(Random random) {
+		if (responseTemplates.isEmpty()) {
+			return null;
+		} else {
+			return responseTemplates.get(random.nextInt(responseTemplates.size()));
+		}
+	}
+
 	public ArrayList<String> getResponseArray() {
 		if (responses.isEmpty()) {
 			return null;
@@ -0,0 +1,16 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+/**
+ * A chat message was handled by a messenger and may trigger a bot action.
+ */
+public class IntentTriggerEvent {
+	private final MessageInfo messageInfo;
+
+	public IntentTriggerEvent(MessageInfo messageInfo) {
+		this.messageInfo = messageInfo;
+	}
+
+	public MessageInfo getMessageInfo() {
+		return messageInfo;
+	}
+}
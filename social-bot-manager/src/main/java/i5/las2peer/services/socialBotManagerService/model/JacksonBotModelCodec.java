@@ -0,0 +1,58 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * BotModel codec based on Jackson, works with every Jackson data format (JSON,
+ * Smile, ...).
+ */
+public class JacksonBotModelCodec extends BotModelCodec {
+
+	private final int id;
+	private final String name;
+	private final ObjectReader reader;
+	private final ObjectWriter writer;
+
+	public JacksonBotModelCodec(int id, String name, JsonFactory factory) {
+		this.id = id;
+		this.name = name;
+		// the stream belongs to the caller
+		factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		factory.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+		ObjectMapper mapper = new ObjectMapper(factory);
+		// fields that were removed from the model classes are skipped
+		mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+		this.reader = mapper.readerFor(BotModel.class);
+		this.writer = mapper.writerFor(BotModel.class);
+	}
+
+	@Override
+	public int getId() {
+		return id;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	protected void write(BotModel model, OutputStream out) throws IOException {
+		writer.writeValue(out, model);
+	}
+
+	@Override
+	protected BotModel read(InputStream in) throws IOException {
+		return reader.readValue(in);
+	}
+}
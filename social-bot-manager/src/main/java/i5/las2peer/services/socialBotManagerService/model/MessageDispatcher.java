@@ -0,0 +1,74 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.util.function.Consumer;
+
+import i5.las2peer.services.socialBotManagerService.chat.ChatMediator;
+import i5.las2peer.services.socialBotManagerService.chat.RESTfulChatMediator;
+
+/**
+ * Schedules a messenger as soon as one of its chat mediators received a new
+ * message, instead of waiting for the next polling round.
+ *
+ * RESTful chat messengers are left out, their messages are handled directly by
+ * the request that delivered them.
+ */
+public class MessageDispatcher {
+	private static MessageDispatcher instance = null;
+
+	/**
+	 * Receives the MessageInfos that result from handling the incoming messages
+	 */
+	private Consumer<MessageInfo> consumer;
+
+	protected MessageDispatcher() {
+	}
+
+	public static synchronized MessageDispatcher getInstance() {
+		if (instance == null) {
+			instance = new MessageDispatcher();
+		}
+		return instance;
+	}
+
+	public void setConsumer(Consumer<MessageInfo> consumer) {
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Makes the chat mediator of the messenger notify this dispatcher about new
+	 * messages.
+	 *
+	 * @param bot       bot the messenger belongs to
+	 * @param messenger the messenger
+	 */
+	public void register(Bot bot, Messenger messenger) {
+		ChatMediator mediator = messenger.getChatMediator();
+		if (mediator == null || mediator instanceof RESTfulChatMediator) {
+			return;
+		}
+		mediator.setMessageListener(() -> dispatch(bot, messenger));
+	}
+
+	/**
+	 * Fetches the messages of all messengers of the bot. Needed for chat
+	 * mediators that have to ask their chat service for new messages and serves
+	 * as a fallback for the others.
+	 *
+	 * @param bot the bot
+	 */
+	public void poll(Bot bot) {
+		for (Messenger messenger : bot.getMessengers().values()) {
+			if (!(messenger.getChatMediator() instanceof RESTfulChatMediator)) {
+				dispatch(bot, messenger);
+			}
+		}
+	}
+
+	private void dispatch(Bot bot, Messenger messenger) {
+		if (this.consumer == null) {
+			// not set up yet, the messages stay queued until the next poll
+			return;
+		}
+		messenger.dispatchMessages(bot, this.consumer);
+	}
+}
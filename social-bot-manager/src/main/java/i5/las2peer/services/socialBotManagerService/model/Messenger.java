@@ -7,10 +7,6 @@ import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.file.Paths;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collection;
@@ -18,6 +14,10 @@ import java.util.HashMap;
 import java.util.Optional;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 import javax.websocket.DeploymentException;
 import i5.las2peer.api.Context;
 import i5.las2peer.api.logging.MonitoringEvent;
@@ -26,6 +26,9 @@ import i5.las2peer.services.socialBotManagerService.chat.*;
 import i5.las2peer.services.socialBotManagerService.chat.github.GitHubAppHelper;
 import i5.las2peer.services.socialBotManagerService.chat.github.GitHubIssueMediator;
 import i5.las2peer.services.socialBotManagerService.chat.github.GitHubPRMediator;
+import i5.las2peer.services.socialBotManagerService.database.ConversationState;
+import i5.las2peer.services.socialBotManagerService.database.ConversationStateStore;
+import i5.las2peer.services.socialBotManagerService.database.EntityStore;
 import i5.las2peer.services.socialBotManagerService.database.SQLDatabase;
 import i5.las2peer.services.socialBotManagerService.nlu.Entity;
 import i5.las2peer.services.socialBotManagerService.nlu.Intent;
@@ -54,67 +57,20 @@ public class Messenger {
 	 * Value: IncomingMessage object
 	 */
 	private HashMap<String, IncomingMessage> rootChildren;
+	private volatile TransitionTable transitionTable;
 
 	/**
-	 * Used for keeping conversation state per channel
-	 * Key: channel ID
-	 * Value: current state of the conversation (last IncomingMessage)
-	 * 
-	 */
-	private HashMap<String, Collection<ConversationMessage>> conversationMap;
-
-	// Used for keeping conversation state per channel
-	private HashMap<String, IncomingMessage> stateMap;
-
-	/**
-	 * Used to determine if a new conversation was started. A new conversation
-	 * starts
-	 * if no followup messages are found for the current state and the context of
-	 * the last function call is closed.
-	 * (Note that the bot might stay infinitely long in the same state if the
-	 * context is not closed)
+	 * Conversation state, context and messages per channel. Sessions of
+	 * channels that were idle for a while are evicted, their state is kept in
+	 * the conversation state store.
 	 */
-	private HashMap<String, IncomingMessage> previousStateInConversation = new HashMap<>();
-	private HashMap<String, IncomingMessage> previousStateInConversationBackup = new HashMap<>();
+	private ChannelSessions sessions;
 
 	/**
-	 * Used for keeping remembering entities during conversation state per channel
-	 * Key: channel ID
-	 * Value: Collection of entities that were recognized during the conversation
-	 */
-	private HashMap<String, Collection<Entity>> recognizedEntities;
-	/**
-	 * Used for keeping context between assessment and non-assessment states
-	 * Key: channel ID
-	 * Value: current NLU model ID
+	 * Processes the incoming messages per channel. Messages of one channel are
+	 * handled in order, different channels in parallel.
 	 */
-	private HashMap<String, String> currentNluModel;
-	/**
-	 * Used to know to which Function the received intents/messages are to be sent
-	 * Is additionally used to check if we are currently communicating with a
-	 * service(if set, then yes otherwise no)
-	 * Key: channel ID
-	 * Value: current triggered function name
-	 */
-	private HashMap<String, String> triggeredFunction;
-	/**
-	 * Key: channel ID
-	 * Value: number of times a default message was given out in a conversation
-	 * state
-	 */
-	private HashMap<String, Integer> defaultAnswerCount;
-
-	/**
-	 * Used to store the current state of the conversation in case a command is
-	 * triggered. Whenever this happens the current state is stored in this map and
-	 * we jump into the command's conversation path. After the command is finished
-	 * the state is restored.
-	 * Key: channel ID
-	 * Value: current state of the conversation (last IncomingMessage)
-	 */
-	private HashMap<String, IncomingMessage> storedSession;
-
-	private HashMap<String, HashMap<String, String>> userVariables;
+	private ChannelExecutor channelExecutor;
 
 	private Context l2pContext;
 
@@ -122,6 +78,14 @@ public class Messenger {
 
 	private SQLDatabase db;
 
+	/**
+	 * Saves the conversation state of the channels, so that conversations
+	 * survive a restart and can be continued on another node
+	 */
+	private ConversationStateStore stateStore;
+	// bot name + "/" + messenger name
+	private String stateOwner;
+
 	public Messenger(String id, String chatService, String token, SQLDatabase database, Context l2pContext)
 			throws IOException, DeploymentException, ParseBotException, AuthTokenException {
 		this.l2pContext = l2pContext;
@@ -174,16 +138,19 @@ public class Messenger {
 
 		this.name = id;
 		this.rootChildren = new HashMap<String, IncomingMessage>();
-		this.conversationMap = new HashMap<String, Collection<ConversationMessage>>();
-		this.stateMap = new HashMap<String, IncomingMessage>();
-		this.recognizedEntities = new HashMap<String, Collection<Entity>>();
+		this.sessions = new ChannelSessions(session -> this.stateStore.evicted(this.stateOwner, session.getChannel()));
 		this.random = new Random();
-		// Initialize the assessment setup
-		this.currentNluModel = new HashMap<String, String>();
-		this.triggeredFunction = new HashMap<String, String>();
-		this.defaultAnswerCount = new HashMap<String, Integer>();
-		this.storedSession = new HashMap<String, IncomingMessage>();
-		this.userVariables = new HashMap<String, HashMap<String, String>>();
+		this.channelExecutor = new ChannelExecutor();
+		this.stateStore = ConversationStateStore.get(database);
+		this.stateOwner = id;
+	}
+
+	/**
+	 * @param botName name of the bot the messenger belongs to, used to save the
+	 *                conversation states
+	 */
+	public void setBotName(String botName) {
+		this.stateOwner = botName + "/" + this.name;
 	}
 
 	public String getName() {
@@ -194,16 +161,25 @@ public class Messenger {
 		return chatService;
 	}
 
-	public HashMap<String, Collection<ConversationMessage>> getConversationMap() {
-		return conversationMap;
+	/**
+	 * @param channel the channel
+	 * @return the last messages of the current conversation in the channel
+	 */
+	public ConversationHistory getConversation(String channel) {
+		return session(channel).getConversation();
 	}
 
-	public HashMap<String, IncomingMessage> getStateMap() {
-		return stateMap;
+	/**
+	 * @param channel the channel
+	 * @return the conversation state of the channel, null if there is no
+	 *         conversation
+	 */
+	public IncomingMessage getState(String channel) {
+		return session(channel).getState();
 	}
 
-	public void updateConversationInConversationMap(String channel, Collection<ConversationMessage> conversation) {
-		conversationMap.put(channel, conversation);
+	private ChannelSession session(String channel) {
+		return this.sessions.get(channel);
 	}
 
 	public void addMessage(IncomingMessage msg) {
@@ -211,6 +187,24 @@ public class Messenger {
 			this.rootChildren.put("defaultX", msg);
 		} else
 			this.rootChildren.put(msg.getIntentKeyword(), msg);
+		this.transitionTable = null;
+	}
+
+	/**
+	 * @return the conversation state machine, compiled on first use if the
+	 *         BotParser did not do it
+	 */
+	public TransitionTable getTransitionTable() {
+		TransitionTable table = transitionTable;
+		if (table == null) {
+			table = TransitionTable.compile(rootChildren);
+			transitionTable = table;
+		}
+		return table;
+	}
+
+	public void setTransitionTable(TransitionTable transitionTable) {
+		this.transitionTable = transitionTable;
 	}
 
 	public HashMap<String, IncomingMessage> getRootChildren() {
@@ -222,28 +216,30 @@ public class Messenger {
 	}
 
 	public IncomingMessage checkDefault(IncomingMessage state, ChatMessage message) {
+		return checkDefault(state, session(message.getChannel()));
+	}
+
+	private IncomingMessage checkDefault(IncomingMessage state, ChannelSession session) {
 		if (this.rootChildren.get("defaultX") != null && Integer.valueOf(
-				this.rootChildren.get("defaultX").getIntentKeyword().split("defaultX")[1]) > this.defaultAnswerCount
-						.get(message.getChannel())) {
-			IncomingMessage newState = this.rootChildren.get("defaultX");
-			newState.followupMessages = state.followupMessages;
-			state = newState;
-			this.defaultAnswerCount.put(message.getChannel(), this.defaultAnswerCount.get(message.getChannel()) + 1);
+				this.rootChildren.get("defaultX").getIntentKeyword().split("defaultX")[1]) > session
+						.getDefaultAnswerCount()) {
+			state = this.rootChildren.get("defaultX").withFollowupsOf(state);
+			session.setDefaultAnswerCount(session.getDefaultAnswerCount() + 1);
 		} else {
 			state = this.rootChildren.get("default");
-			this.defaultAnswerCount.put(message.getChannel(), 0);
+			session.setDefaultAnswerCount(0);
 		}
 		return state;
 	}
 
-	private void addEntityToRecognizedList(String channel, Collection<Entity> entities) {
+	private void addEntityToRecognizedList(ChannelSession session, Collection<Entity> entities) {
 
-		Collection<Entity> recognizedEntitiesNew = recognizedEntities.get(channel);
+		Collection<Entity> recognizedEntitiesNew = session.getRecognizedEntities();
 		if (recognizedEntitiesNew != null) {
 			for (Entity entity : entities) {
 				recognizedEntitiesNew.add(entity);
 			}
-			recognizedEntities.put(channel, recognizedEntitiesNew);
+			session.setRecognizedEntities(recognizedEntitiesNew);
 		}
 	}
 	// set the context of the specified channel
@@ -259,594 +255,529 @@ public class Messenger {
 	 * { return chatMediator.getEmail(channel); };
 	 */
 
+	// Called by triggers, so it runs in the channel's mailbox like the messages
 	public void setContextToBasic(String channel, String userid) {
+		this.channelExecutor.execute(channel, () -> {
+			ChannelSession session = loadState(channel);
+			try {
+				resetContext(session, userid);
+			} finally {
+				saveState(session);
+			}
+		});
+	}
 
-		triggeredFunction.remove(channel);
-		IncomingMessage state = this.stateMap.get(channel);
-		this.previousStateInConversationBackup.remove(channel);
+	private void resetContext(ChannelSession session, String userid) {
+		String channel = session.getChannel();
+
+		session.setTriggeredFunction(null);
+		IncomingMessage state = session.getState();
+		session.setPreviousStateBackup(null);
 
 		if (state == null) {
-			this.previousStateInConversation.remove(channel);
+			session.setPreviousState(null);
 			return;
 		}
 
 		if (state.getFollowingMessages() == null || state.getFollowingMessages().size() == 0) {
 			// no other messages to follow
 			System.out.println("No following messages");
-			if (storedSession.containsKey(channel)) {
-				stateMap.put(channel, storedSession.get(channel));
-				state = storedSession.get(channel);
-				storedSession.remove(channel);
+			if (session.getStoredSession() != null) {
+				session.setState(session.getStoredSession());
+				state = session.getStoredSession();
+				session.setStoredSession(null);
 
 				String response = state.getResponse(random);
 				if (response != null && !response.equals("") && !state.getOpenAIEnhance()) {
 
-					this.chatMediator.sendMessageToChannel(channel, replaceVariables(channel, response),
+					this.chatMediator.sendMessageToChannel(channel, replaceVariables(session, response),
 							state.getFollowingMessages(), state.getFollowupMessageType(), Optional.of(userid));
 				}
 			} else {
 				System.out.println("No session state found");
-				this.stateMap.remove(channel);
-				this.previousStateInConversation.remove(channel);
+				session.setState(null);
+				session.setPreviousState(null);
 			}
 		} else {
 
 			// If only message to be sent
 			String response = state.getResponse(random);
 			if (response != null && !response.equals("") && !state.freezeMessageSend) {
-				this.chatMediator.sendMessageToChannel(channel, replaceVariables(channel, response),
+				this.chatMediator.sendMessageToChannel(channel, replaceVariables(session, response),
 						state.getFollowingMessages(), state.getFollowupMessageType(), Optional.of(userid));
 				state.setFreezeMessageSend(false);
 			}
 			if (state.getFollowingMessages().size() == 0) {
 				// no other messages to follow
-				this.stateMap.remove(channel);
-				this.previousStateInConversation.remove(channel);
+				session.setState(null);
+				session.setPreviousState(null);
 
 			}
 		}
 	}
 
 	public String getContext(String channel, String user) {
-		return this.triggeredFunction.get(channel);
+		return session(channel).getTriggeredFunction();
 	}
 
-	public HashMap<String, HashMap<String, String>> getUserVariables() {
-		return userVariables;
-	}
-
-	public void setUserVariables(HashMap<String, HashMap<String, String>> userVariables) {
-		this.userVariables = userVariables;
+	public ConcurrentHashMap<String, String> getUserVariables(String channel) {
+		return session(channel).getUserVariables();
 	}
 
 	public void resetUserVariables(String channel) {
-		this.userVariables.get(channel).clear();
+		this.channelExecutor.execute(channel, () -> {
+			ChannelSession session = loadState(channel);
+			session.getUserVariables().clear();
+			saveState(session);
+		});
 	}
 
 	public void addVariable(String channel, String key, String value) {
-		HashMap<String, String> variables = this.getUserVariables().get(channel);
-		variables.put(key, value);
-		this.userVariables.put(channel, variables);
+		if (value == null) {
+			return;
+		}
+		this.channelExecutor.execute(channel, () -> {
+			ChannelSession session = loadState(channel);
+			session.getUserVariables().put(key, value);
+			saveState(session);
+		});
 	}
 
 	public String replaceVariables(String channel, String text) {
-		HashMap<String, String> variables = this.getUserVariables().get(channel);
-		if (variables != null) {
-			for (String key : variables.keySet()) {
-				String composed = "[" + key + "]";
-				text = text.replace(composed, variables.get(key));
-			}
-		}
-		String split[] = text.split("\\[");
-		for (int i = 1; i < split.length; i++) {
+		return replaceVariables(session(channel), text);
+	}
 
-			String name = split[i].split("\\]")[0];
-			String val = getEntityValue(channel, name);
-			if (!val.equals("")) {
-				String composed = "[" + name + "]";
-				text = text.replace(composed, val);
+	private String replaceVariables(ChannelSession session, String text) {
+		return ResponseTemplate.compile(text).render(null, session.getUserVariables(),
+				name -> getEntityValue(session.getChannel(), name));
+	}
 
-			}
-		}
-		return text;
+	// Fills in the recognized entities, user variables and stored entities
+	private String renderResponse(ChannelSession session, ResponseTemplate template) {
+		return template.render(session.getRecognizedEntities(), session.getUserVariables(),
+				name -> getEntityValue(session.getChannel(), name));
 	}
 
 	// Handles simple responses ("Chat Response") directly, logs all messages and
 	// extracted intents into `messageInfos` for further processing later on.
+	// Messages are handed to the channel's mailbox, so different channels are
+	// processed in parallel while the messages of one channel keep their order.
+	// Returns once all drained messages were processed.
 	public void handleMessages(ArrayList<MessageInfo> messageInfos, Bot bot) {
 		Vector<ChatMessage> newMessages = this.chatMediator.getMessages();
+		ArrayList<CompletableFuture<ArrayList<MessageInfo>>> pending = new ArrayList<CompletableFuture<ArrayList<MessageInfo>>>();
 		for (ChatMessage message : newMessages) {
+			if (handledByOwner(message, bot, null)) {
+				continue;
+			}
+			ArrayList<MessageInfo> infos = new ArrayList<MessageInfo>();
+			pending.add(this.channelExecutor.submit(message.getChannel(), () -> processMessage(message, infos, bot))
+					.thenApply(v -> infos));
+		}
+		for (CompletableFuture<ArrayList<MessageInfo>> future : pending) {
 			try {
-				// // If a channel/user pair still isn't assigned to a state, assign it to null
-				// if (this.stateMap.get(message.getChannel()) == null) {
-				// HashMap<String, IncomingMessage> initMap = new HashMap<String,
-				// IncomingMessage>();
-				// initMap.put(message.getUser(), null);
-				// this.stateMap.put(message.getChannel(), initMap);
-				// }
-
-				// If a channel/user pair still isn't assigned to a NLU Model, assign it to the
-				// Model 0
-				if (this.currentNluModel.get(message.getChannel()) == null) {
-					this.currentNluModel.put(message.getChannel(), "0");
-				}
+				messageInfos.addAll(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				e.printStackTrace();
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+	}
 
-				// If channel/user pair is not assigned to a triggered function, assign it to
-				// null
-				// if (this.triggeredFunction.get(message.getChannel()) == null) {
-				// HashMap<String, String> initMap = new HashMap<String, String>();
-				// initMap.put(message.getUser(), null);
-				// this.triggeredFunction.put(message.getChannel(), initMap);
-				// }
-				UUID conversationId = null;
-				Boolean messageSent = Boolean.FALSE;
-				String botMessage = "";
-				if (!this.userVariables.containsKey(message.getChannel())) {
-					this.userVariables.put(message.getChannel(), new HashMap<String, String>());
-				}
+	// Non-blocking variant of handleMessages used by the MessageDispatcher. Each
+	// resulting MessageInfo is passed to `consumer` as soon as its channel is done
+	// with the message.
+	public void dispatchMessages(Bot bot, Consumer<MessageInfo> consumer) {
+		Vector<ChatMessage> newMessages = this.chatMediator.getMessages();
+		for (ChatMessage message : newMessages) {
+			if (handledByOwner(message, bot, consumer)) {
+				continue;
+			}
+			dispatchMessage(message, bot, consumer);
+		}
+	}
 
-				if (this.defaultAnswerCount.get(message.getChannel()) == null) {
-					this.defaultAnswerCount.put(message.getChannel(), 0);
+	private void dispatchMessage(ChatMessage message, Bot bot, Consumer<MessageInfo> consumer) {
+		this.channelExecutor.submit(message.getChannel(), () -> {
+			ArrayList<MessageInfo> infos = new ArrayList<MessageInfo>();
+			processMessage(message, infos, bot);
+			if (consumer != null) {
+				for (MessageInfo info : infos) {
+					consumer.accept(info);
 				}
-				Intent intent = this.determineIntent(message, bot);
-				try {
-					safeEntities(message, bot, intent);
+			}
+		});
+	}
 
-				} catch (Exception e) {
-					e.printStackTrace();
+	// Returns true if the node owning the channel of the message answers it.
+	// Events of event chat mediators only reach one node, so they are forwarded
+	// to the owner. If that fails, the message is answered here, although its
+	// conversation state is not saved. Other chat services deliver their messages
+	// to the owner as well. RESTful chat requests are redirected to the owner
+	// before their message is collected.
+	private boolean handledByOwner(ChatMessage message, Bot bot, Consumer<MessageInfo> consumer) {
+		if (ChannelRing.getInstance().isOwner(message.getChannel())
+				|| this.chatMediator instanceof RESTfulChatMediator) {
+			return false;
+		}
+		if (this.chatMediator instanceof EventChatMediator) {
+			ChannelForwarder.getInstance().forward(bot.getName(), this.name, message).thenAccept(forwarded -> {
+				if (!forwarded) {
+					dispatchMessage(message, bot, consumer);
 				}
+			});
+		}
+		return true;
+	}
+
+	// Loads the conversation state of the channel, handles the message and saves
+	// the state again.
+	private void processMessage(ChatMessage message, ArrayList<MessageInfo> messageInfos, Bot bot) {
+		ChannelSession session = loadState(message.getChannel());
+		try {
+			handleMessage(message, messageInfos, bot, session);
+		} finally {
+			saveState(session);
+		}
+	}
 
-				String encryptedUser = SocialBotManagerService.encryptThisString(message.getUser());
-				String triggeredFunctionId = null;
-				IncomingMessage state = this.stateMap.get(message.getChannel());
-				JSONObject remarks = new JSONObject();
-				remarks.put("user", encryptedUser);
+	// Runs the conversation state machine for a single message. Only called from
+	// the channel's mailbox.
+	private void handleMessage(ChatMessage message, ArrayList<MessageInfo> messageInfos, Bot bot,
+			ChannelSession session) {
+		try {
+			// // If a channel/user pair still isn't assigned to a state, assign it to null
+			// if (session.getState() == null) {
+			// HashMap<String, IncomingMessage> initMap = new HashMap<String,
+			// IncomingMessage>();
+			// initMap.put(message.getUser(), null);
+			// session.setState(initMap);
+			// }
+
+			// If a channel/user pair still isn't assigned to a NLU Model, assign it to the
+			// Model 0
+			if (session.getNluModel() == null) {
+				session.setNluModel("0");
+			}
 
-				conversationId = this.determineConversationId(message.getChannel());
-				remarks.put("in-service-context", this.triggeredFunction.containsKey(message.getChannel()));
+			// If channel/user pair is not assigned to a triggered function, assign it to
+			// null
+			// if (session.getTriggeredFunction() == null) {
+			// HashMap<String, String> initMap = new HashMap<String, String>();
+			// initMap.put(message.getUser(), null);
+			// session.setTriggeredFunction(initMap);
+			// }
+			UUID conversationId = null;
+			Boolean messageSent = Boolean.FALSE;
+			String botMessage = "";
+			Intent intent = this.determineIntent(message, bot, session);
+			try {
+				safeEntities(message, bot, intent);
 
-				// ________________ start modification of state machine__________________
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			String encryptedUser = SocialBotManagerService.encryptThisString(message.getUser());
+			String triggeredFunctionId = null;
+			IncomingMessage state = session.getState();
+			JSONObject remarks = new JSONObject();
+			remarks.put("user", encryptedUser);
+
+			conversationId = this.determineConversationId(session);
+			remarks.put("in-service-context", session.getTriggeredFunction() != null);
+
+			// ________________ start modification of state machine__________________
+
+			TransitionTable table = getTransitionTable();
+			if (state == null && message.getText().startsWith("!")
+					&& table.root(intent.getKeyword()) == null) {
+				// in case a command is triggered which does not exist
+				this.chatMediator.sendMessageToChannel(message.getChannel(), "",
+						new HashMap<String, IncomingMessage>(), "text");
+				return;
+			}
 
-				if (state == null && message.getText().startsWith("!")
-						&& this.rootChildren.get(intent.getKeyword()) == null) {
+			if (state != null && message.getText().startsWith("!")
+					&& !state.getFollowingMessages().keySet().contains(intent.getKeyword())) {
+				if (table.root(intent.getKeyword()) == null) {
 					// in case a command is triggered which does not exist
 					this.chatMediator.sendMessageToChannel(message.getChannel(), "",
 							new HashMap<String, IncomingMessage>(), "text");
 					return;
 				}
+				if (!intent.getKeyword().equals("exit")) {
+					session.setStoredSession(state);
+					state = null;
+				}
+			}
+			if (state != null && message.getText().startsWith("!")
+					&& session.getStoredSession() != null) {
+				// think about something else to do here
+				// this.chatMediator.sendMessageToChannel(message.getChannel(),"Dont start
+				// command inside command lol","text");
+			}
 
-				if (state != null && message.getText().startsWith("!")
-						&& !state.getFollowingMessages().keySet().contains(intent.getKeyword())) {
-					if (this.rootChildren.get(intent.getKeyword()) == null) {
-						// in case a command is triggered which does not exist
-						this.chatMediator.sendMessageToChannel(message.getChannel(), "",
-								new HashMap<String, IncomingMessage>(), "text");
-						return;
+			// TODO: Tweak this
+			if (session.getTriggeredFunction() == null) {
+				// we are not in a function context
+				if (intent.getKeyword().equals("exit")) {
+					session.setRecognizedEntities(null);
+					state = table.root(intent.getKeyword());
+					this.updateConversationState(session, state, conversationId);
+					if (session.getStoredSession() != null) {
+						session.setStoredSession(null);
 					}
-					if (!intent.getKeyword().equals("exit")) {
-						storedSession.put(message.getChannel(), state);
-						state = null;
+				} else {
+					// the transitions of all states were worked out when the bot was parsed
+					boolean confident = intent.getConfidence() >= 0.40 || message.getFileName() != null;
+					// a conversation is only started with a file if it has a name
+					boolean file = state == null ? message.getFileName() != null : message.hasFile();
+					boolean start = state == null;
+					String entityValue = intent.getEntitieValues().size() > 0 ? intent.getEntitieValues().get(0)
+							: null;
+					if (start && confident) {
+						session.setRecognizedEntities(new ArrayList<Entity>());
+						session.getConversation().clear();
+					}
+					TransitionTable.Transition transition = table.next(state, intent.getKeyword(), entityValue, file,
+							confident);
+					switch (transition.getAction()) {
+					case RESTART:
+						session.setNluModel("0");
+						// fall through
+					case UPDATE:
+						state = transition.getTarget();
+						this.updateConversationState(session, state, conversationId);
+						if (start && file) {
+							session.setRecognizedEntities(intent.getEntities());
+						} else {
+							addEntityToRecognizedList(session, intent.getEntities());
+						}
+						break;
+					case MOVE:
+						state = transition.getTarget();
+						break;
+					case ENTITIES:
+						if (intent.getEntities().size() > 0) {
+							for (Entity e : intent.getEntities()) {
+								state = table.root(e.getEntityName());
+								// Dont fully understand the point of this, maybe I added it and forgot...
+								// Added return for a quick fix, will need to check more in detail
+								if (state != null) {
+									this.updateConversationState(session, state, conversationId);
+									return;
+								}
+							}
+							break;
+						}
+						state = checkDefault(state, session);
+						break;
+					default:
+						state = checkDefault(state, session);
 					}
 				}
-				if (state != null && message.getText().startsWith("!")
-						&& storedSession.containsKey(message.getChannel())) {
-					// think about something else to do here
-					// this.chatMediator.sendMessageToChannel(message.getChannel(),"Dont start
-					// command inside command lol","text");
+				// If a user sends a file, without wanting to use intent extraction on the name,
+				// then intent
+				// extraction will still be done, but the result ignored in this case
+			} else if (message.getFileName() != null) {
+				if (table.root("0").expectsFile()) {
+					state = table.root("0");
+					// System.out.println(state.getResponse(random));
+				} else {
+					// if no Incoming Message is fitting, return default message
+					intent = new Intent("default", "", "");
 				}
+				// Default message if the message does not contain a file or the Intent was too
+				// low
+			} else if (intent.getConfidence() < 0.40f) {
+				intent = new Intent("default", "", "");
+			}
 
-				// TODO: Tweak this
-				if (!this.triggeredFunction.containsKey(message.getChannel())) {
-					// we are not in a function context
-					if (intent.getKeyword().equals("exit")) {
-						recognizedEntities.remove(message.getChannel());
-						state = this.rootChildren.get(intent.getKeyword());
-						this.updateConversationState(message.getChannel(), state, conversationId);
-						if (storedSession.containsKey(message.getCurrMessage())) {
-							storedSession.remove(message.getChannel());
-						}
-					} else if (intent.getConfidence() >= 0.40 || message.getFileName() != null) { // add file case to
-																									// default if part
-
-						if (state == null) {
-
-							recognizedEntities.put(message.getChannel(), new ArrayList<Entity>());
-							conversationMap.put(message.getChannel(), new ArrayList<ConversationMessage>());
-							if (message.getFileName() != null) {
-								// check whether incoming message with intent expects file or without intent,
-								// such that
-								// you can send a file regardless the intent
-								if (this.rootChildren.get(intent.getKeyword()) != null
-										&& this.rootChildren.get(intent.getKeyword()).expectsFile()) {
-									state = this.rootChildren.get(intent.getKeyword());
-									// get("0") refers to an empty intent that is accessible from the start state
-								} else if (this.rootChildren.get("anyFile") != null) {
-									state = this.rootChildren.get("anyFile");
+			Boolean contextOn = false;
+			if (session.getTriggeredFunction() != null) {
+				triggeredFunctionId = session.getTriggeredFunction();
+				contextOn = true;
+			} else {
+				// check if skip is wished or not
+				if (state != null) {
+
+					state = table.skip(state);
+
+					ResponseTemplate template = state.getResponseTemplate(random);
+					String response = template == null ? null : template.getResponse();
+					triggeredFunctionId = state.getTriggeredFunctionId() == null
+								|| state.getTriggeredFunctionId().equals("") ? null
+									: state.getTriggeredFunctionId();
+					if (triggeredFunctionId != null && triggeredFunctionId != "") {
+						session.setTriggeredFunction(triggeredFunctionId);
+						contextOn = true;
+					}
+
+					if (state.getNluID() != "") {
+						session.setNluModel(state.getNluID());
+					}
+					if (response != null) {
+						if (response != "") {
+							// check if message parses buttons or is simple text
+							if (state.getType().equals("Interactive Message")) {
+								String blocks = template.render(session.getRecognizedEntities(), null, null);
+								this.chatMediator.sendBlocksMessageToChannel(message.getChannel(), blocks,
+										this.chatMediator.getAuthToken(), state.getFollowingMessages(),
+										java.util.Optional.empty());
+							} else {
+								// TODO: Block sending message to channel if the service is replacing the bot
+								// message with its own message
+								String text = renderResponse(session, template);
+								if (state.getOpenAIEnhance()) {
+									messageSent = true;
 								} else {
-									state = this.rootChildren.get("default");
+									messageSent = this.chatMediator.sendMessageToChannel(message.getChannel(), text,
+											state.getFollowingMessages(), state.followupMessageType);
 								}
-								this.updateConversationState(message.getChannel(), state, conversationId);
-								recognizedEntities.put(message.getChannel(), intent.getEntities());
-							} else {
-								state = this.rootChildren.get(intent.getKeyword());
-								// Incoming Message which expects file should not be chosen when no file was
-								// sent
-								if (state == null || state.expectsFile()) {
-									if (this.rootChildren.get("0") != null) {
-										state = this.rootChildren.get("0");
-									} else {
-										if (intent.getEntitieValues().size() > 0) {
-											state = this.rootChildren.get(intent.getEntitieValues().get(0));
-											if (state == null) {
-												state = this.rootChildren.get("default");
-											}
-										} else {
-											state = this.rootChildren.get("default");
-										}
-
-									}
+								if (messageSent) {
+									botMessage = text;
 								}
-								this.updateConversationState(message.getChannel(), state, conversationId);
-								addEntityToRecognizedList(message.getChannel(), intent.getEntities());
 							}
-						} else {
-							if (state.getFollowingMessages() == null || state.getFollowingMessages().isEmpty()) {
-								state = this.rootChildren.get(intent.getKeyword()); // set to the first matching state
-																					// from start state (might be null
-																					// // if none is found)
-								this.currentNluModel.put(message.getChannel(), "0");
-								this.updateConversationState(message.getChannel(), state, conversationId);
-								addEntityToRecognizedList(message.getChannel(), intent.getEntities());
-							} else if (state.getFollowingMessages().get(intent.getKeyword()) != null) {
-								// check if a file was received during a conversation and search for a follow up
-								// incoming message which expects a file.
-								if (message.getFileBody() != null) {
-									if (state.getFollowingMessages().get(intent.getKeyword()).expectsFile()) {
-										state = state.getFollowingMessages().get(intent.getKeyword());
-										this.updateConversationState(message.getChannel(), state, conversationId);
-										addEntityToRecognizedList(message.getChannel(), intent.getEntities());
-									} else {
-										state = checkDefault(state, message);
+							// check whether a file url is attached to the chat response and try to send it
+							// to
+							// the user
+							if (!state.getFileURL().equals("")) {
+								String fileName = "";
+								try {
+									// Replacable variable in url menteeEmail
+									String urlEmail = state.getFileURL();
+									if (message.getEmail() != null) {
+										urlEmail = state.getFileURL().replace("menteeEmail",
+												message.getEmail());
 									}
-								} else if (state.getFollowingMessages().get(intent.getKeyword()).expectsFile()) {
-									state = checkDefault(state, message);
-								} else {
-									state = state.getFollowingMessages().get(intent.getKeyword());
-									this.updateConversationState(message.getChannel(), state, conversationId);
-									addEntityToRecognizedList(message.getChannel(), intent.getEntities());
-								}
-							} else if (intent.getEntitieValues().size() > 0
-									&& state.getFollowingMessages().get(intent.getEntitieValues().get(0)) != null) {
-
-								// check if a file was received during a conversation and search for a follow up
-								// incoming message which expects a file.
-								if (message.getFileBody() != null) {
-									if (state.getFollowingMessages().get(intent.getEntitieValues().get(0))
-											.expectsFile()) {
-										state = state.getFollowingMessages().get(intent.getEntitieValues().get(0));
-										this.updateConversationState(message.getChannel(), state, conversationId);
-										addEntityToRecognizedList(message.getChannel(), intent.getEntities());
-									} else {
-										state = checkDefault(state, message);
+									URL url = new URL(urlEmail);
+									HttpURLConnection httpConn = (HttpURLConnection) url.openConnection();
+									// Header for l2p services
+									httpConn.addRequestProperty("Authorization", "Basic " + Base64.getEncoder()
+											.encodeToString((bot.getName() + ":actingAgent").getBytes()));
+
+									String fieldValue = httpConn.getHeaderField("Content-Disposition");
+									if (fieldValue == null || !fieldValue.contains("filename=\"")) {
+										fieldValue = "pdf.pdf";
 									}
-								} else if (state.getFollowingMessages().get(intent.getEntitieValues().get(0))
-										.expectsFile()) {
-									state = checkDefault(state, message);
-								} else {
-									state = state.getFollowingMessages().get(intent.getEntitieValues().get(0));
-									this.updateConversationState(message.getChannel(), state, conversationId);
-									addEntityToRecognizedList(message.getChannel(), intent.getEntities());
-								}
-							} else {
-								// System.out.println("\u001B[33mDebug --- Followups: " +
-								// state.getFollowingMessages() + "\u001B[0m");
-								// System.out.println("\u001B[33mDebug --- Emptiness: " +
-								// state.getFollowingMessages().keySet().isEmpty() + "\u001B[0m");
-								// System.out.println("\u001B[33mDebug --- State: " + state.getIntentKeyword() +
-								// "\u001B[0m");
-
-								// try any
-
-								if (state.getFollowingMessages().get("any") != null) {
-									state = state.getFollowingMessages().get("any");
-									this.updateConversationState(message.getChannel(), state, conversationId);
-									addEntityToRecognizedList(message.getChannel(), intent.getEntities());
-									// In a conversation state, if no fitting intent was found and an empty leadsTo
-									// label is found
-								} else if (state.getFollowingMessages().get("") != null
-										|| state.getFollowingMessages().get("anyFile") != null) {
-									if (message.getFileBody() != null) {
-										if (state.getFollowingMessages().get("anyFile") != null) {
-											state = state.getFollowingMessages().get("anyFile");
-											this.updateConversationState(message.getChannel(), state, conversationId);
-											addEntityToRecognizedList(message.getChannel(), intent.getEntities());
-										} else {
-											state = this.rootChildren.get("default");
-										}
-
+									// parse the file name from the header field
+									fileName = "pdf.pdf";
+									if (!fieldValue.equals("pdf.pdf")) {
+										fileName = fieldValue.substring(fieldValue.indexOf("filename=\"") + 10,
+												fieldValue.length() - 1);
 									} else {
-										if (state.getFollowingMessages().get("") != null) {
-											state = state.getFollowingMessages().get("");
-											this.updateConversationState(message.getChannel(), state, conversationId);
-											addEntityToRecognizedList(message.getChannel(), intent.getEntities());
-										} else {
-											state = checkDefault(state, message);
+										// check if name is part of url
+										if (urlEmail.contains(".pdf") || urlEmail.contains(".png")
+												|| urlEmail.contains(".svg") || urlEmail.contains(".json")
+												|| urlEmail.contains(".txt")) {
+											fileName = urlEmail.split("/")[urlEmail.split("/").length - 1];
 										}
 									}
-								} else if (intent.getEntities().size() > 0
-										&& !this.triggeredFunction.containsKey(message.getChannel())) {
-									Collection<Entity> entities = intent.getEntities();
-									for (Entity e : entities) {
-										state = this.rootChildren.get(e.getEntityName());
-										// Dont fully understand the point of this, maybe I added it and forgot...
-										// Added return for a quick fix, will need to check more in detail
-										if (state != null) {
-											this.updateConversationState(message.getChannel(), state, conversationId);
-											return;
-										}
+									InputStream in = httpConn.getInputStream();
+									FileOutputStream fileOutputStream = new FileOutputStream(fileName);
+									int file_size = httpConn.getContentLength();
+									if (file_size < 1) {
+										file_size = 2048;
 									}
-
-								} else {
-									state = checkDefault(state, message);
+									byte dataBuffer[] = new byte[file_size];
+									int bytesRead;
+									while ((bytesRead = in.read(dataBuffer, 0, file_size)) != -1) {
+										fileOutputStream.write(dataBuffer, 0, bytesRead);
+									}
+									fileOutputStream.close();
+									this.chatMediator.sendFileMessageToChannel(message.getChannel(),
+											new File(fileName), "");
+
+								} catch (Exception e) {
+									System.out.println("Could not extract File for reason " + e);
+									e.printStackTrace();
+									java.nio.file.Files.deleteIfExists(Paths.get(fileName));
+									this.chatMediator.sendMessageToChannel(message.getChannel(),
+											state.getErrorMessage(), state.getFollowupMessageType());
 								}
 							}
-						}
-					} else {
-						if (state != null && state.getFollowingMessages().get("") != null) {
-							if (message.getFileBody() != null) {
-								if (state.getFollowingMessages().get("").expectsFile()) {
-									state = state.getFollowingMessages().get("");
-								} else {
-									state = checkDefault(state, message);
-								}
-							} else {
-								if (!state.getFollowingMessages().get("").expectsFile()) {
-									state = state.getFollowingMessages().get("");
-									this.updateConversationState(message.getChannel(), state, conversationId);
-									addEntityToRecognizedList(message.getChannel(), intent.getEntities());
-								} else {
-									state = checkDefault(state, message);
-								}
+							if (triggeredFunctionId != null) {
+								session.setTriggeredFunction(triggeredFunctionId);
+								contextOn = true;
 							}
 						} else {
-							if (state != null) {
-								state = checkDefault(state, message);
+							if (triggeredFunctionId != null) {
+								session.setTriggeredFunction(triggeredFunctionId);
+								contextOn = true;
 							} else {
-								state = this.rootChildren.get("default");
+								System.out.println("No Bot Action was given to the Response");
 							}
 						}
-						// System.out.println(state.getIntentKeyword() + " set");
-					}
-					// If a user sends a file, without wanting to use intent extraction on the name,
-					// then intent
-					// extraction will still be done, but the result ignored in this case
-				} else if (message.getFileName() != null) {
-					if (this.rootChildren.get("0").expectsFile()) {
-						state = this.rootChildren.get("0");
-						// System.out.println(state.getResponse(random));
-					} else {
-						// if no Incoming Message is fitting, return default message
-						intent = new Intent("default", "", "");
 					}
-					// Default message if the message does not contain a file or the Intent was too
-					// low
-				} else if (intent.getConfidence() < 0.40f) {
-					intent = new Intent("default", "", "");
-				}
-
-				Boolean contextOn = false;
-				if (this.triggeredFunction.containsKey(message.getChannel())) {
-					triggeredFunctionId = this.triggeredFunction.get(message.getChannel());
-					contextOn = true;
-				} else {
-					// check if skip is wished or not
-					if (state != null) {
-
-						if (state.getFollowingMessages().get("skip") != null) {
-							state = state.getFollowingMessages().get("skip");
-						}
-
-						String response = state.getResponse(random);
-						triggeredFunctionId = state.getTriggeredFunctionId() == null
-									|| state.getTriggeredFunctionId().equals("") ? null
-										: state.getTriggeredFunctionId();
-						if (triggeredFunctionId != null && triggeredFunctionId != "") {
-							this.triggeredFunction.put(message.getChannel(), triggeredFunctionId);
-							contextOn = true;
-						}
-
-						if (state.getNluID() != "") {
-							this.currentNluModel.put(message.getChannel(), state.getNluID());
-						}
-						if (response != null) {
-							if (response != "") {
-								String split = "";
-								// allows users to use linebreaks \n during the modeling for chat responses
-								for (int i = 0; i < response.split("\\\\n").length; i++) {
-									split += response.split("\\\\n")[i] + " \n ";
-								}
-								if (split.contains("[") && split.contains("]")) {
-									String[] entitySplit1 = split.split("\\[");
-									ArrayList<String> entitySplit2 = new ArrayList<String>();
-									for (int i = 1; i < entitySplit1.length; i++) {
-										entitySplit2.add(entitySplit1[i].split("\\]")[0]);
-									}
-									for (String entityName : entitySplit2) {
-										if (recognizedEntities != null
-												&& recognizedEntities.get(message.getChannel()) != null) {
-											for (Entity entity : recognizedEntities.get(message.getChannel())) {
-												if (entityName.equals(entity.getEntityName())
-														&& entity.getValue() != null) {
-													String replace = "[" + entity.getEntityName() + "]";
-													split = split.replace(replace, entity.getValue());
-												}
-											}
-										}
-									}
-
-								}
-								// check if message parses buttons or is simple text
-								if (state.getType().equals("Interactive Message")) {
-									this.chatMediator.sendBlocksMessageToChannel(message.getChannel(), split,
-											this.chatMediator.getAuthToken(), state.getFollowingMessages(),
-											java.util.Optional.empty());
-								} else {
-									// TODO: Block sending message to channel if the service is replacing the bot
-									// message with its own message
-									if (state.getOpenAIEnhance()) {
-										messageSent = true;
-									} else {
-										messageSent = this.chatMediator.sendMessageToChannel(message.getChannel(),
-												replaceVariables(message.getChannel(), split),
-												state.getFollowingMessages(), state.followupMessageType);
-									}
-									if (messageSent) {
-										botMessage = replaceVariables(message.getChannel(), split);
-									}
-								}
-								// check whether a file url is attached to the chat response and try to send it
-								// to
-								// the user
-								if (!state.getFileURL().equals("")) {
-									String fileName = "";
-									try {
-										// Replacable variable in url menteeEmail
-										String urlEmail = state.getFileURL();
-										if (message.getEmail() != null) {
-											urlEmail = state.getFileURL().replace("menteeEmail",
-													message.getEmail());
-										}
-										URL url = new URL(urlEmail);
-										HttpURLConnection httpConn = (HttpURLConnection) url.openConnection();
-										// Header for l2p services
-										httpConn.addRequestProperty("Authorization", "Basic " + Base64.getEncoder()
-												.encodeToString((bot.getName() + ":actingAgent").getBytes()));
-
-										String fieldValue = httpConn.getHeaderField("Content-Disposition");
-										if (fieldValue == null || !fieldValue.contains("filename=\"")) {
-											fieldValue = "pdf.pdf";
-										}
-										// parse the file name from the header field
-										fileName = "pdf.pdf";
-										if (!fieldValue.equals("pdf.pdf")) {
-											fileName = fieldValue.substring(fieldValue.indexOf("filename=\"") + 10,
-													fieldValue.length() - 1);
-										} else {
-											// check if name is part of url
-											if (urlEmail.contains(".pdf") || urlEmail.contains(".png")
-													|| urlEmail.contains(".svg") || urlEmail.contains(".json")
-													|| urlEmail.contains(".txt")) {
-												fileName = urlEmail.split("/")[urlEmail.split("/").length - 1];
-											}
-										}
-										InputStream in = httpConn.getInputStream();
-										FileOutputStream fileOutputStream = new FileOutputStream(fileName);
-										int file_size = httpConn.getContentLength();
-										if (file_size < 1) {
-											file_size = 2048;
-										}
-										byte dataBuffer[] = new byte[file_size];
-										int bytesRead;
-										while ((bytesRead = in.read(dataBuffer, 0, file_size)) != -1) {
-											fileOutputStream.write(dataBuffer, 0, bytesRead);
-										}
-										fileOutputStream.close();
-										this.chatMediator.sendFileMessageToChannel(message.getChannel(),
-												new File(fileName), "");
-
-									} catch (Exception e) {
-										System.out.println("Could not extract File for reason " + e);
-										e.printStackTrace();
-										java.nio.file.Files.deleteIfExists(Paths.get(fileName));
-										this.chatMediator.sendMessageToChannel(message.getChannel(),
-												state.getErrorMessage(), state.getFollowupMessageType());
-									}
-								}
-								if (triggeredFunctionId != null) {
-									this.triggeredFunction.put(message.getChannel(),
-											triggeredFunctionId);
-									contextOn = true;
-								}
-							} else {
-								if (triggeredFunctionId != null) {
-									this.triggeredFunction.put(message.getChannel(),
-											triggeredFunctionId);
-									contextOn = true;
-								} else {
-									System.out.println("No Bot Action was given to the Response");
-								}
+					if (session.getTriggeredFunction() != null) {
+						triggeredFunctionId = session.getTriggeredFunction();
+					} else
+					// If conversation flow is terminated, reset state
+					if (state.getFollowingMessages().isEmpty()) {
+						System.out.println("No following messages");
+						session.setState(null);
+						session.setPreviousStateBackup(state); // backup state in
+																									// case we have
+																									// to restore it
+																									// later on
+						session.setPreviousState(null);
+						if (session.getStoredSession() != null) {
+
+							if (session.getTriggeredFunction() != null) {
+
+								this.updateConversationState(session,
+										session.getStoredSession(), conversationId);
+								session.setStoredSession(null);
+							} else if (session.getTriggeredFunction() != null) {
+
+								this.updateConversationState(session, state, conversationId);
 							}
 						}
-						if (this.triggeredFunction.containsKey(message.getChannel())) {
-							triggeredFunctionId = this.triggeredFunction.get(message.getChannel());
-						} else
-						// If conversation flow is terminated, reset state
-						if (state.getFollowingMessages().isEmpty()) {
-							System.out.println("No following messages");
-							this.stateMap.remove(message.getChannel());
-							this.previousStateInConversationBackup.put(message.getChannel(), state); // backup state in
-																										// case we have
-																										// to restore it
-																										// later on
-							this.previousStateInConversation.remove(message.getChannel());
-							if (storedSession.containsKey(message.getChannel())) {
-
-								if (this.triggeredFunction.containsKey(message.getChannel())) {
-
-									this.updateConversationState(message.getChannel(),
-											storedSession.get(message.getChannel()), conversationId);
-									storedSession.remove(message.getChannel());
-								} else if (this.triggeredFunction.containsKey(message.getChannel())) {
-
-									this.updateConversationState(message.getChannel(), state, conversationId);
-								}
-							}
 
-							this.recognizedEntities.remove(message.getChannel());
-						}
+						session.setRecognizedEntities(null);
 					}
 				}
-				if (state == null || !state.getIntentKeyword().contains("defaultX")) {
-					this.defaultAnswerCount.put(message.getChannel(), 0);
-				}
-				messageInfos.add(new MessageInfo(message, intent, triggeredFunctionId, bot.getName(),
-						"", contextOn, recognizedEntities.get(message.getChannel()), this.getName(), conversationId));
-				// Chain bot action with openai, add another message info with same message info
-				// but with the openai trigger function
-				// if (state != null && state.getTriggeredFunctionIds().size() > 1) {
-				// 	messageInfos
-				// 			.add(new MessageInfo(message, intent, state.getTriggeredFunctionIds().get(1), bot.getName(),
-				// 					"", contextOn, recognizedEntities.get(message.getChannel()), this.getName(),
-				// 					conversationId));
-				// }
-				// ConversationMessage conversationMsg = new
-				// ConversationMessage(message.getConversationId(), "user", message.getText());
-				ConversationMessage userConvMsg = new ConversationMessage("", "user", message.getText());
-				Collection<ConversationMessage> conversation = conversationMap.get(message.getChannel());
-				conversation.add(userConvMsg);
-				conversationMap.put(message.getChannel(), conversation);
-
-				// if message was sent to channel, then add to conversation path here after the
-				// user message
-				if (messageSent = Boolean.TRUE) {
-					ConversationMessage botConvMsg = new ConversationMessage("", "assistant", botMessage);
-					conversation.add(botConvMsg);
-					conversationMap.put(message.getChannel(), conversation);
+			}
+			if (state == null || !state.getIntentKeyword().contains("defaultX")) {
+				session.setDefaultAnswerCount(0);
+			}
+			messageInfos.add(new MessageInfo(message, intent, triggeredFunctionId, bot.getName(),
+					"", contextOn, session.getRecognizedEntities(), this.getName(), conversationId));
+			// Chain bot action with openai, add another message info with same message info
+			// but with the openai trigger function
+			// if (state != null && state.getTriggeredFunctionIds().size() > 1) {
+			// 	messageInfos
+			// 			.add(new MessageInfo(message, intent, state.getTriggeredFunctionIds().get(1), bot.getName(),
+			// 					"", contextOn, session.getRecognizedEntities(), this.getName(),
+			// 					conversationId));
+			// }
+			// ConversationMessage conversationMsg = new
+			// ConversationMessage(message.getConversationId(), "user", message.getText());
+			ConversationMessage userConvMsg = new ConversationMessage("", "user", message.getText());
+			ConversationHistory conversation = session.getConversation();
+			conversation.add(userConvMsg);
+
+			// if message was sent to channel, then add to conversation path here after the
+			// user message
+			if (messageSent = Boolean.TRUE) {
+				ConversationMessage botConvMsg = new ConversationMessage("", "assistant", botMessage);
+				conversation.add(botConvMsg);
 
-				}
-				remarks.put("stateLabel", state != null ? state.getIntentLabel() : "null");
-				remarks.put("intent", intent != null ? intent.getKeyword() : "null");
-				String activityName = state == null ? intent.getKeyword() : state.getIntentLabel();
-				this.l2pContext.monitorXESEvent(MonitoringEvent.SERVICE_CUSTOM_MESSAGE_1,
-						remarks.toJSONString(),
-						conversationId.toString(),
-						activityName,
-						bot.getId(), "bot", "complete", System.currentTimeMillis());
-			} catch (Exception e) {
-				e.printStackTrace();
 			}
+			remarks.put("stateLabel", state != null ? state.getIntentLabel() : "null");
+			remarks.put("intent", intent != null ? intent.getKeyword() : "null");
+			String activityName = state == null ? intent.getKeyword() : state.getIntentLabel();
+			this.l2pContext.monitorXESEvent(MonitoringEvent.SERVICE_CUSTOM_MESSAGE_1,
+					remarks.toJSONString(),
+					conversationId.toString(),
+					activityName,
+					bot.getId(), "bot", "complete", System.currentTimeMillis());
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
-
 	}
 
 	/**
@@ -854,13 +785,13 @@ public class Messenger {
 	 * current state, the last user message and whether we
 	 * are in a service context.
 	 * 
-	 * @param channelId
+	 * @param session session of the channel
 	 * @return
 	 */
-	private UUID determineConversationId(String channelId) {
-		boolean currentlyInServiceContext = this.triggeredFunction.containsKey(channelId);
-		IncomingMessage lastUserMessage = this.previousStateInConversation.get(channelId);
-		IncomingMessage state = this.stateMap.get(channelId);
+	private UUID determineConversationId(ChannelSession session) {
+		boolean currentlyInServiceContext = session.getTriggeredFunction() != null;
+		IncomingMessage lastUserMessage = session.getPreviousState();
+		IncomingMessage state = session.getState();
 		UUID conversationId = null;
 		System.out.println("currentlyInServiceContext: " + currentlyInServiceContext);
 
@@ -873,20 +804,20 @@ public class Messenger {
 			System.out.println(
 					"currentlyInServiceContext: true. Thus state takes precedence over lastUserMessage.");
 			if (state == null) {
-				state = this.previousStateInConversationBackup.get(channelId);
+				state = session.getPreviousStateBackup();
 			}
 			if (state != null) {
 				System.out.println(
 						". state intent is: "
 								+ state.getIntentKeyword());
-				conversationId = state.getConversationId();
+				conversationId = session.getConversationId();
 			}
 		} else if (lastUserMessage != null) {
 			System.out.println("using lastUserMessage intent: " + lastUserMessage.getIntentKeyword());
-			conversationId = lastUserMessage.getConversationId();
+			conversationId = session.getConversationId();
 		} else if (state != null) {
 			System.out.println("lastUserMessage is null. using state intent: " + state.getIntentKeyword());
-			conversationId = state.getConversationId();
+			conversationId = session.getConversationId();
 		}
 
 		if (conversationId == null) {
@@ -908,53 +839,11 @@ public class Messenger {
 	}
 
 	public String getEntityValue(String channel, String entityName) {
-		String val = "";
-		PreparedStatement stmt = null;
-		Connection conn = null;
-		ResultSet rs = null;
-		try {
-
-			conn = db.getDataSource().getConnection();
-			stmt = conn.prepareStatement("SELECT value FROM attributes WHERE `channel`=? AND `key`=? ORDER BY id DESC");
-			stmt.setString(1, channel);
-			stmt.setString(2, entityName);
-			rs = stmt.executeQuery();
-			if (rs.next()) {
-				val = rs.getString("value");
-				if (val == null) {
-					val = "";
-				}
-			}
-
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-
-		try {
-			if (rs != null)
-				rs.close();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		;
-		try {
-			if (stmt != null)
-				stmt.close();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		;
-		try {
-			if (conn != null)
-				conn.close();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-
-		return val;
-
+		return EntityStore.getInstance(db).getValue(channel, entityName);
 	}
 
+	// Entity values are written behind by the EntityStore, so this does not
+	// wait for the database.
 	private void safeEntities(ChatMessage msg, Bot bot, Intent intent) {
 		String user = msg.getUser();
 		String channel = msg.getChannel();
@@ -965,99 +854,16 @@ public class Messenger {
 		if (intent.getEntitieValues() == null) {
 			return;
 		}
+		EntityStore store = EntityStore.getInstance(db);
 		intent.getEntities().forEach((entity) -> {
 			if (entity.getValue() == null) {
 				return;
 			}
-			String k = entity.getEntityName();
-			String v = entity.getValue();
-			PreparedStatement stmt = null;
-			PreparedStatement stmt2 = null;
-			Connection conn = null;
-			ResultSet rs = null;
-			try {
-				conn = db.getDataSource().getConnection();
-				stmt = conn.prepareStatement(
-						"SELECT id FROM attributes WHERE `bot`=? AND `channel`=? AND `user`=? AND `key`=?");
-				stmt.setString(1, b);
-				stmt.setString(2, channel);
-				stmt.setString(3, user);
-				stmt.setString(4, k);
-				rs = stmt.executeQuery();
-				boolean f = false;
-				while (rs.next())
-					f = true;
-				if (f) {
-					// Update
-					stmt2 = conn.prepareStatement(
-							"UPDATE attributes SET `value`=? WHERE `bot`=? AND `channel`=? AND `user`=? AND `key`=?");
-					stmt2.setString(1, v);
-					stmt2.setString(2, b);
-					stmt2.setString(3, channel);
-					stmt2.setString(4, user);
-					stmt2.setString(5, k);
-					stmt2.executeUpdate();
-				} else {
-					// Insert
-					stmt2 = conn.prepareStatement(
-							"INSERT INTO attributes (`bot`, `channel`, `user`, `key`, `value`) VALUES (?,?,?,?,?)");
-					stmt2.setString(1, b);
-					stmt2.setString(2, channel);
-					stmt2.setString(3, user);
-					stmt2.setString(4, k);
-					stmt2.setString(5, v);
-					stmt2.executeUpdate();
-				}
-			} catch (SQLException e) {
-				e.printStackTrace();
-			} catch (Exception e) {
-				e.printStackTrace();
-				try {
-					stmt2.close();
-					stmt2 = conn.prepareStatement(
-							"INSERT INTO attributes (`bot`, `channel`, `user`, `key`, `value`) VALUES (?,?,?,?,?)");
-					stmt2.setString(1, b);
-					stmt2.setString(2, channel);
-					stmt2.setString(3, user);
-					stmt2.setString(4, k);
-					stmt2.setString(5, v);
-					stmt2.executeUpdate();
-				} catch (SQLException e1) {
-					// TODO Auto-generated catch block
-					e1.printStackTrace();
-				} catch (Exception e1) {
-					// TODO Auto-generated catch block
-					e1.printStackTrace();
-				}
-			} finally {
-				try {
-					if (rs != null)
-						rs.close();
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-				;
-				try {
-					if (stmt != null)
-						stmt.close();
-					if (stmt2 != null)
-						stmt2.close();
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-				;
-				try {
-					if (conn != null)
-						conn.close();
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-				;
-			}
+			store.save(b, channel, user, entity.getEntityName(), entity.getValue());
 		});
 	}
 
-	private Intent determineIntent(ChatMessage message, Bot bot) {
+	private Intent determineIntent(ChatMessage message, Bot bot, ChannelSession session) {
 		Intent intent = null;
 
 		// Special case: `!` commands
@@ -1071,7 +877,7 @@ public class Messenger {
 			IncomingMessage incMsg = this.rootChildren.get(intentKeyword);
 			// TODO: Log this? (`!` command with unknown intent / keyword)
 			if (incMsg == null && !intentKeyword.toLowerCase().equals("exit")) {
-				if (this.currentNluModel.get(message.getChannel()) == "0") {
+				if (session.getNluModel() == "0") {
 					return null;
 				} else {
 					ArrayList<String> empty = new ArrayList<String>();
@@ -1100,8 +906,8 @@ public class Messenger {
 
 			intent = new Intent(intentKeyword, entityKeyword, entityValue);
 		} else {
-			if (bot.getRasaServer(currentNluModel.get(message.getChannel())) != null) {
-				intent = bot.getRasaServer(currentNluModel.get(message.getChannel()))
+			if (bot.getRasaServer(session.getNluModel()) != null) {
+				intent = bot.getRasaServer(session.getNluModel())
 						.getIntent(Intent.replaceUmlaute(message.getText()));
 			} else {
 				// if the given id is not fit to any server, pick the first one. (In case
@@ -1118,30 +924,106 @@ public class Messenger {
 	 * Updates the state of the conversation for the given channel.
 	 * Also sets the conversation id for the given state.
 	 * 
-	 * @param channelId      The channel id for which the state should be updated.
+	 * @param session        The session of the channel whose state should be
+	 *                       updated.
 	 * @param state          The new state of the conversation.
 	 * @param conversationId The conversation id to set.
 	 */
-	private void updateConversationState(String channelId, IncomingMessage state, UUID conversationId) {
+	private void updateConversationState(ChannelSession session, IncomingMessage state, UUID conversationId) {
 		if (state == null) {
-			System.out.println("State is null. Resetting state for channel " + channelId);
-			this.stateMap.remove(channelId);
-			this.previousStateInConversationBackup.put(channelId, state);
-			this.previousStateInConversation.remove(channelId);
+			System.out.println("State is null. Resetting state for channel " + session.getChannel());
+			session.setState(null);
+			session.setPreviousStateBackup(null);
+			session.setPreviousState(null);
+			session.setConversationId(null);
 		} else {
-			state.setConversationId(conversationId);
-			this.previousStateInConversation.put(channelId, state);
-			this.stateMap.put(channelId, state);
+			session.setConversationId(conversationId);
+			session.setPreviousState(state);
+			session.setState(state);
 		}
 
 	}
 
 	public void restoreConversationState(String channelId) {
-		IncomingMessage state = this.previousStateInConversationBackup.get(channelId);
+		this.channelExecutor.execute(channelId, () -> {
+			ChannelSession session = loadState(channelId);
+			IncomingMessage state = session.getPreviousStateBackup();
+			if (state != null) {
+				session.setPreviousState(state);
+				// System.out.println("Restored state for channel " + channelId + " to " +
+				// state.getIntentKeyword());
+				saveState(session);
+			}
+		});
+	}
+
+	/**
+	 * Takes the conversation state of the channel from the state store. The store
+	 * hands out the state it was given last, unless the state was changed
+	 * elsewhere in the meantime, which is only applied then.
+	 *
+	 * @return the session of the channel
+	 */
+	private ChannelSession loadState(String channel) {
+		ChannelSession session = session(channel);
+		ConversationState s = this.stateStore.load(this.stateOwner, channel);
+		if (s == null || s == session.getSavedState()) {
+			return session;
+		}
+		session.setSavedState(s);
+		TransitionTable table = getTransitionTable();
+		IncomingMessage state = table.getMessage(s.getState());
+		IncomingMessage followupsOf = table.getMessage(s.getFollowupsOf());
+		session.setState(state == null || followupsOf == null ? state : state.withFollowupsOf(followupsOf));
+		session.setPreviousState(table.getMessage(s.getPreviousState()));
+		session.setPreviousStateBackup(table.getMessage(s.getPreviousStateBackup()));
+		session.setStoredSession(table.getMessage(s.getStoredSession()));
+		session.setTriggeredFunction(s.getTriggeredFunction());
+		session.setNluModel(s.getNluModel());
+		session.setDefaultAnswerCount(s.getDefaultAnswerCount());
+		session.setUserVariables(s.getUserVariables());
+		ArrayList<Entity> entities = new ArrayList<Entity>();
+		for (ConversationState.EntityValue e : s.getEntities()) {
+			entities.add(new Entity(e.getName(), e.getValue()));
+		}
+		session.setRecognizedEntities(entities);
+		session.setConversationId(s.getConversationId() == null ? null : UUID.fromString(s.getConversationId()));
+		return session;
+	}
+
+	/**
+	 * Hands the conversation state of the session to the state store.
+	 */
+	private void saveState(ChannelSession session) {
+		ConversationState s = new ConversationState();
+		IncomingMessage state = session.getState();
 		if (state != null) {
-			this.previousStateInConversation.put(channelId, state);
-			// System.out.println("Restored state for channel " + channelId + " to " +
-			// state.getIntentKeyword());
+			s.setState(state.getId());
+			s.setFollowupsOf(idOf(state.getFollowupsOf()));
 		}
+		if (session.getConversationId() != null) {
+			s.setConversationId(session.getConversationId().toString());
+		}
+		s.setPreviousState(idOf(session.getPreviousState()));
+		s.setPreviousStateBackup(idOf(session.getPreviousStateBackup()));
+		s.setStoredSession(idOf(session.getStoredSession()));
+		s.setTriggeredFunction(session.getTriggeredFunction());
+		s.setNluModel(session.getNluModel());
+		s.setDefaultAnswerCount(session.getDefaultAnswerCount());
+		s.setUserVariables(session.getUserVariables());
+		Collection<Entity> entities = session.getRecognizedEntities();
+		if (entities != null) {
+			for (Entity e : new ArrayList<Entity>(entities)) {
+				s.addEntity(e.getEntityName(), e.getValue());
+			}
+		}
+		ConversationState saved = session.getSavedState();
+		s.setVersion(saved == null ? 0 : saved.getVersion());
+		this.stateStore.save(this.stateOwner, session.getChannel(), s);
+		session.setSavedState(s);
+	}
+
+	private static String idOf(IncomingMessage msg) {
+		return msg == null ? null : msg.getId();
 	}
-}
\ No newline at end of file
+}
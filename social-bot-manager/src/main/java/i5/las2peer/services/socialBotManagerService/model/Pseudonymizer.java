@@ -0,0 +1,121 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Pseudonymizes user names and email addresses before they are logged.
+ *
+ * By default a pseudonym is the SHA-384 hash of the input as 96 lower case hex
+ * digits. If a key is set, an HMAC-SHA-384 with that key is used instead, so
+ * that pseudonyms cannot be computed from known email addresses. Recently used
+ * pseudonyms are cached.
+ */
+public class Pseudonymizer {
+
+	public static final int DEFAULT_CACHE_SIZE = 10000;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static Pseudonymizer instance = null;
+
+	private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-384");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	});
+	private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>();
+
+	private volatile SecretKeySpec key = null;
+	private int cacheSize = DEFAULT_CACHE_SIZE;
+
+	// access ordered, the eldest entry is the least recently used one
+	private final LinkedHashMap<String, String> cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > cacheSize;
+		}
+	};
+
+	protected Pseudonymizer() {
+	}
+
+	public static synchronized Pseudonymizer getInstance() {
+		if (instance == null) {
+			instance = new Pseudonymizer();
+		}
+		return instance;
+	}
+
+	/**
+	 * @param hmacKey   key for HMAC pseudonyms, null or empty for plain SHA-384
+	 *                  pseudonyms as they were always used
+	 * @param cacheSize number of cached pseudonyms, 0 disables the cache
+	 */
+	public synchronized void configure(String hmacKey, int cacheSize) {
+		this.key = hmacKey == null || hmacKey.isEmpty() ? null
+				: new SecretKeySpec(hmacKey.getBytes(StandardCharsets.UTF_8), "HmacSHA384");
+		this.cacheSize = Math.max(0, cacheSize);
+		this.cache.clear();
+	}
+
+	/**
+	 * @param input user name or email address
+	 * @return the pseudonym, null if the input is null
+	 */
+	public String pseudonymize(String input) {
+		if (input == null) {
+			return null;
+		}
+		synchronized (this) {
+			String cached = cache.get(input);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		SecretKeySpec k = key;
+		// same bytes as before, the platform encoding
+		byte[] hash = k == null ? digests.get().digest(input.getBytes()) : hmac(k, input.getBytes());
+		String pseudonym = toHex(hash);
+		synchronized (this) {
+			if (cacheSize > 0 && k == key) {
+				cache.put(input, pseudonym);
+			}
+		}
+		return pseudonym;
+	}
+
+	private byte[] hmac(SecretKeySpec k, byte[] input) {
+		try {
+			Mac mac = macs.get();
+			if (mac == null) {
+				mac = Mac.getInstance("HmacSHA384");
+				macs.set(mac);
+			}
+			mac.init(k);
+			return mac.doFinal(input);
+		} catch (GeneralSecurityException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+			chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+}
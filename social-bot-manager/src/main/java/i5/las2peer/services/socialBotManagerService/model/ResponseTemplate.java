@@ -0,0 +1,148 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Function;
+
+import i5.las2peer.services.socialBotManagerService.nlu.Entity;
+
+/**
+ * A chat response split into text and placeholders ("[name]") once, so that
+ * sending it only has to fill in the placeholders.
+ *
+ * A placeholder is filled with the first value found in: the entities
+ * recognized in the current message, the user variables of the channel and the
+ * entities stored for the channel. Placeholders without a value are sent as
+ * they are.
+ */
+public class ResponseTemplate {
+
+	private final String response;
+	// text parts, every other part is the name of a placeholder
+	private final String[] parts;
+	private final boolean startsWithSlot;
+	private final int length;
+
+	private ResponseTemplate(String response, String text) {
+		this.response = response;
+		ArrayList<String> parts = new ArrayList<String>();
+		StringBuilder literal = new StringBuilder();
+		boolean startsWithSlot = false;
+		int i = 0;
+		while (i < text.length()) {
+			int open = text.indexOf('[', i);
+			if (open < 0) {
+				literal.append(text, i, text.length());
+				break;
+			}
+			int close = text.indexOf(']', open + 1);
+			int nextOpen = text.indexOf('[', open + 1);
+			if (close < 0 || (nextOpen >= 0 && nextOpen < close)) {
+				// no placeholder, keep the bracket as text
+				literal.append(text, i, open + 1);
+				i = open + 1;
+				continue;
+			}
+			literal.append(text, i, open);
+			if (parts.isEmpty() && literal.length() == 0) {
+				startsWithSlot = true;
+			} else {
+				parts.add(literal.toString());
+			}
+			literal.setLength(0);
+			parts.add(text.substring(open + 1, close));
+			i = close + 1;
+		}
+		if (literal.length() > 0) {
+			parts.add(literal.toString());
+		}
+		this.parts = parts.toArray(new String[0]);
+		this.startsWithSlot = startsWithSlot;
+		this.length = text.length();
+	}
+
+	/**
+	 * @param text text with placeholders
+	 * @return the template of the text
+	 */
+	public static ResponseTemplate compile(String text) {
+		return new ResponseTemplate(text, text);
+	}
+
+	/**
+	 * Like {@link #compile(String)}, but also turns the "\n" typed in the modeling
+	 * into line breaks, as chat responses always did.
+	 *
+	 * @param response response of an incoming message
+	 * @return the template of the response
+	 */
+	public static ResponseTemplate compileResponse(String response) {
+		StringBuilder text = new StringBuilder(response.length() + 8);
+		for (String line : response.split("\\\\n")) {
+			text.append(line).append(" \n ");
+		}
+		return new ResponseTemplate(response, text.toString());
+	}
+
+	/**
+	 * @return the response the template was compiled from
+	 */
+	public String getResponse() {
+		return response;
+	}
+
+	/**
+	 * @param entities       entities recognized in the message, may be null
+	 * @param variables      user variables of the channel, may be null
+	 * @param storedEntities values of the stored entities by name, empty if there
+	 *                       is none, may be null
+	 * @return the text with the placeholders filled in
+	 */
+	public String render(Collection<Entity> entities, Map<String, String> variables,
+			Function<String, String> storedEntities) {
+		if (parts.length == 1 && !startsWithSlot) {
+			return parts[0];
+		}
+		StringBuilder sb = new StringBuilder(length + 16);
+		boolean slot = startsWithSlot;
+		for (String part : parts) {
+			if (!slot) {
+				sb.append(part);
+			} else {
+				String value = lookup(part, entities, variables, storedEntities);
+				if (value == null) {
+					sb.append('[').append(part).append(']');
+				} else {
+					sb.append(value);
+				}
+			}
+			slot = !slot;
+		}
+		return sb.toString();
+	}
+
+	private static String lookup(String name, Collection<Entity> entities, Map<String, String> variables,
+			Function<String, String> storedEntities) {
+		if (entities != null) {
+			for (Entity entity : entities) {
+				if (name.equals(entity.getEntityName()) && entity.getValue() != null) {
+					return entity.getValue();
+				}
+			}
+		}
+		if (variables != null) {
+			String value = variables.get(name);
+			if (value != null) {
+				return value;
+			}
+		}
+		if (storedEntities != null) {
+			String value = storedEntities.apply(name);
+			if (value != null && !value.equals("")) {
+				return value;
+			}
+		}
+		return null;
+	}
+}
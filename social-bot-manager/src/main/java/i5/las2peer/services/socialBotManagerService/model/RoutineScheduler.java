@@ -0,0 +1,405 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Fires the routines of the bots.
+ *
+ * The next fire time of a routine is computed when its bot is scheduled and
+ * after each run. Routines wait in a queue ordered by that time, the scheduler
+ * thread sleeps until the first one is due.
+ *
+ * Intervals of a routine: "Minute", "Hour", "Day" and "Month" (28 days) run the
+ * routine every time units. "Every day", "Working days" and "Weekend" run it at
+ * time (HH:mm) on these days. "Cron" takes a cron expression as time, see
+ * {@link CronExpression}. The times of these intervals can end with a time zone
+ * id (e.g. "08:30 Europe/Berlin"), otherwise the configured zone is used.
+ *
+ * The last run of each routine is saved in a state file. Runs that were missed
+ * while the service was down are made up once after a restart, if they are not
+ * older than the catch up window.
+ */
+public class RoutineScheduler {
+
+	public static final int DEFAULT_CATCH_UP_WINDOW = 86400; // seconds
+	// wake up at least this often, in case the system clock was changed
+	private static final long MAX_SLEEP = 60000; // ms
+
+	private static RoutineScheduler instance = null;
+
+	private ZoneId zone = ZoneId.systemDefault();
+	private long catchUpWindow = DEFAULT_CATCH_UP_WINDOW * 1000L;
+	private File stateFile = null;
+
+	// bot name + "/" + routine id -> last run
+	private final HashMap<String, Long> lastRuns = new HashMap<String, Long>();
+	private final HashMap<String, ScheduledRoutine> scheduled = new HashMap<String, ScheduledRoutine>();
+	private final PriorityQueue<ScheduledRoutine> queue = new PriorityQueue<ScheduledRoutine>(
+			Comparator.comparingLong((ScheduledRoutine s) -> s.nextRun));
+
+	/**
+	 * Runs the triggers of a routine, gets the bot and the routine
+	 */
+	private BiConsumer<Bot, BotRoutine> handler;
+	private Thread worker;
+
+	protected RoutineScheduler() {
+	}
+
+	public static synchronized RoutineScheduler getInstance() {
+		if (instance == null) {
+			instance = new RoutineScheduler();
+		}
+		return instance;
+	}
+
+	/**
+	 * @param timeZone      zone id used for routines without zone, null or empty
+	 *                      for the system zone
+	 * @param catchUpWindow seconds, missed runs that are older are skipped
+	 * @param stateFileName file the last runs are saved in, null or empty to not
+	 *                      save them
+	 */
+	public synchronized void configure(String timeZone, int catchUpWindow, String stateFileName) {
+		try {
+			this.zone = timeZone == null || timeZone.isEmpty() ? ZoneId.systemDefault() : ZoneId.of(timeZone);
+		} catch (Exception e) {
+			System.out.println("Unknown time zone " + timeZone + ", using " + ZoneId.systemDefault());
+			this.zone = ZoneId.systemDefault();
+		}
+		this.catchUpWindow = Math.max(0, catchUpWindow) * 1000L;
+		this.stateFile = stateFileName == null || stateFileName.isEmpty() ? null : new File(stateFileName);
+		loadState();
+	}
+
+	public synchronized void setHandler(BiConsumer<Bot, BotRoutine> handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Schedules the routines of the bot, replacing the ones scheduled for a bot
+	 * with the same name before.
+	 *
+	 * @param bot the bot
+	 */
+	public synchronized void schedule(Bot bot) {
+		cancel(bot.getName());
+		long now = System.currentTimeMillis();
+		for (Entry<String, BotRoutine> entry : bot.getRoutines().entrySet()) {
+			BotRoutine routine = entry.getValue();
+			ScheduledRoutine s;
+			try {
+				s = new ScheduledRoutine(bot, entry.getKey(), routine);
+			} catch (RuntimeException e) {
+				System.out.println("Routine " + routine.getName() + " of bot " + bot.getName()
+						+ " is not scheduled: " + e.getMessage());
+				continue;
+			}
+			Long lastRun = lastRuns.get(s.key);
+			if (lastRun != null) {
+				routine.setLastUpdate(lastRun);
+			}
+			s.nextRun = s.firstRun(lastRun == null ? 0 : lastRun, now);
+			if (s.nextRun >= 0) {
+				scheduled.put(s.key, s);
+				queue.add(s);
+			}
+		}
+		if (worker == null) {
+			worker = new Thread(this::run, "sbf-routine-scheduler");
+			worker.setDaemon(true);
+			worker.start();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Removes the routines of a bot.
+	 *
+	 * @param bot the bot
+	 */
+	public synchronized void unschedule(Bot bot) {
+		cancel(bot.getName());
+	}
+
+	private void cancel(String botName) {
+		String prefix = botName + "/";
+		Iterator<ScheduledRoutine> it = scheduled.values().iterator();
+		while (it.hasNext()) {
+			ScheduledRoutine s = it.next();
+			if (s.key.startsWith(prefix)) {
+				// stays in the queue until it is due, removing it would be linear
+				s.cancelled = true;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Stops the scheduler thread and drops all scheduled routines. Waits a few
+	 * seconds for a routine that is running. Scheduling a bot afterwards starts
+	 * the thread again.
+	 */
+	public void stop() {
+		Thread w;
+		synchronized (this) {
+			w = worker;
+			worker = null;
+			for (ScheduledRoutine s : scheduled.values()) {
+				s.cancelled = true;
+			}
+			scheduled.clear();
+			queue.clear();
+			notifyAll();
+		}
+		if (w != null) {
+			w.interrupt();
+			try {
+				w.join(5000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return number of scheduled routines
+	 */
+	public synchronized int size() {
+		return scheduled.size();
+	}
+
+	private void run() {
+		while (true) {
+			ScheduledRoutine due;
+			synchronized (this) {
+				try {
+					due = nextDue();
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (due == null) {
+					return;
+				}
+			}
+			long now = System.currentTimeMillis();
+			BiConsumer<Bot, BotRoutine> h = handler;
+			if (h != null) {
+				try {
+					h.accept(due.bot, due.routine);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+			synchronized (this) {
+				due.routine.setLastUpdate(now);
+				lastRuns.put(due.key, now);
+				saveState();
+				if (!due.cancelled) {
+					due.nextRun = due.nextRun(now);
+					if (due.nextRun >= 0) {
+						queue.add(due);
+					} else {
+						scheduled.remove(due.key);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits until the first routine in the queue is due. Needs the lock.
+	 *
+	 * @return the routine, null if the scheduler was stopped
+	 */
+	private ScheduledRoutine nextDue() throws InterruptedException {
+		while (true) {
+			if (worker != Thread.currentThread()) {
+				return null;
+			}
+			ScheduledRoutine first = queue.peek();
+			if (first == null) {
+				wait();
+				continue;
+			}
+			if (first.cancelled) {
+				queue.poll();
+				continue;
+			}
+			long delay = first.nextRun - System.currentTimeMillis();
+			if (delay > 0) {
+				wait(Math.min(delay, MAX_SLEEP));
+				continue;
+			}
+			return queue.poll();
+		}
+	}
+
+	private void loadState() {
+		lastRuns.clear();
+		if (stateFile == null || !stateFile.exists()) {
+			return;
+		}
+		Properties p = new Properties();
+		try (InputStream in = new FileInputStream(stateFile)) {
+			p.load(in);
+			for (String key : p.stringPropertyNames()) {
+				try {
+					lastRuns.put(key, Long.parseLong(p.getProperty(key)));
+				} catch (NumberFormatException e) {
+					// skip broken entries
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void saveState() {
+		if (stateFile == null) {
+			return;
+		}
+		Properties p = new Properties();
+		for (Entry<String, Long> entry : lastRuns.entrySet()) {
+			p.setProperty(entry.getKey(), entry.getValue().toString());
+		}
+		File tmp = new File(stateFile.getPath() + ".tmp");
+		try {
+			File dir = stateFile.getAbsoluteFile().getParentFile();
+			if (dir != null) {
+				dir.mkdirs();
+			}
+			try (OutputStream out = new FileOutputStream(tmp)) {
+				p.store(out, "Last runs of bot routines");
+			}
+			Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private class ScheduledRoutine {
+		final Bot bot;
+		final BotRoutine routine;
+		final String key;
+		// either a fixed period or a cron expression
+		final long period;
+		final CronExpression cron;
+		final ZoneId cronZone;
+		long nextRun;
+		volatile boolean cancelled = false;
+
+		ScheduledRoutine(Bot bot, String routineId, BotRoutine routine) {
+			this.bot = bot;
+			this.routine = routine;
+			this.key = bot.getName() + "/" + routineId;
+			String interval = routine.getInterval() == null ? "" : routine.getInterval().trim();
+			String time = routine.getTime() == null ? "" : routine.getTime().trim();
+			String[] parts = time.split("\\s+");
+			switch (interval) {
+			case "Minute":
+				this.period = TimeUnit.MINUTES.toMillis(Long.parseLong(time));
+				break;
+			case "Hour":
+				this.period = TimeUnit.HOURS.toMillis(Long.parseLong(time));
+				break;
+			case "Day":
+				this.period = TimeUnit.DAYS.toMillis(Long.parseLong(time));
+				break;
+			case "Month":
+				this.period = TimeUnit.DAYS.toMillis(28 * Long.parseLong(time));
+				break;
+			default:
+				this.period = 0;
+			}
+			if (period > 0) {
+				this.cron = null;
+				this.cronZone = null;
+				return;
+			}
+			String days;
+			switch (interval) {
+			case "Every day":
+				days = "*";
+				break;
+			case "Working days":
+				days = "1-5";
+				break;
+			case "Weekend":
+				days = "0,6";
+				break;
+			case "Cron":
+				days = null;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown interval " + interval);
+			}
+			String expression;
+			String zoneId = null;
+			if (days == null) {
+				if (parts.length == 6) {
+					zoneId = parts[5];
+				}
+				expression = String.join(" ", Arrays.copyOf(parts, Math.min(5, parts.length)));
+			} else {
+				if (parts.length == 2) {
+					zoneId = parts[1];
+				}
+				String[] hm = parts[0].split(":");
+				if (hm.length != 2) {
+					throw new IllegalArgumentException("Time is not HH:mm: " + time);
+				}
+				expression = Integer.parseInt(hm[1]) + " " + Integer.parseInt(hm[0]) + " * * " + days;
+			}
+			this.cron = new CronExpression(expression);
+			this.cronZone = zoneId == null ? zone : ZoneId.of(zoneId);
+		}
+
+		/**
+		 * @return first run after the routine was scheduled, -1 if it never runs
+		 */
+		long firstRun(long lastRun, long now) {
+			if (period > 0) {
+				// runs right away if it never ran, as it always did
+				return Math.max(now, lastRun + period);
+			}
+			if (lastRun > 0) {
+				long missed = nextRun(lastRun);
+				if (missed >= 0 && missed <= now && now - missed <= catchUpWindow) {
+					return now;
+				}
+			}
+			return nextRun(now);
+		}
+
+		/**
+		 * @return next run after the given time, -1 if it never runs
+		 */
+		long nextRun(long after) {
+			if (period > 0) {
+				return after + period;
+			}
+			ZonedDateTime next = cron.next(Instant.ofEpochMilli(after).atZone(cronZone));
+			return next == null ? -1 : next.toInstant().toEpochMilli();
+		}
+	}
+}
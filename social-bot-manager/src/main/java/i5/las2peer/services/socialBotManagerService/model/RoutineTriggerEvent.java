@@ -0,0 +1,28 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+/**
+ * A routine is due and triggers one of the actions of its bot.
+ */
+public class RoutineTriggerEvent {
+	private final Bot bot;
+	private final BotRoutine routine;
+	private final ServiceFunction function;
+
+	public RoutineTriggerEvent(Bot bot, BotRoutine routine, ServiceFunction function) {
+		this.bot = bot;
+		this.routine = routine;
+		this.function = function;
+	}
+
+	public Bot getBot() {
+		return bot;
+	}
+
+	public BotRoutine getRoutine() {
+		return routine;
+	}
+
+	public ServiceFunction getFunction() {
+		return function;
+	}
+}
@@ -16,6 +16,8 @@ public class ServiceFunction extends TriggerFunction{
 	private HashSet<ServiceFunctionAttribute> attributes;
 	private HashSet<Trigger> trigger;
 	private HashMap<String,String> onStart;
+	// number of conversation messages sent to the function, 0 for all kept
+	private int conversationWindow = 0;
 
 	private HashMap<IncomingMessage,String> leadsTo;
 
@@ -90,6 +92,14 @@ public class ServiceFunction extends TriggerFunction{
 		this.functionPath = functionPath;
 	}
 
+	public int getConversationWindow() {
+		return conversationWindow;
+	}
+
+	public void setConversationWindow(int conversationWindow) {
+		this.conversationWindow = conversationWindow;
+	}
+
 	public String getConsumes() {
 		return consumes;
 	}
@@ -0,0 +1,270 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The conversation state machine of a messenger, prepared when the bot is
+ * parsed.
+ *
+ * For every incoming message reachable from the messenger the next state is
+ * worked out for each kind of input: an intent or entity value that has a
+ * followup message, with or without a file, a message that matches no
+ * followup and a message whose intent was not recognized with enough
+ * confidence. Handling a message then only looks up the transition and
+ * applies its action.
+ *
+ * States are identified by their followup messages, because the "defaultX"
+ * message takes over the followups of the state it answers for.
+ */
+public class TransitionTable {
+
+	/**
+	 * What the messenger does with the target of a transition.
+	 */
+	public enum Action {
+		/** go to the target and save it as conversation state */
+		UPDATE,
+		/** go to the target without saving it */
+		MOVE,
+		/** the conversation ended, start over at the target and reset the NLU model */
+		RESTART,
+		/** answer with the default message */
+		DEFAULT,
+		/** go to the first root message named like a recognized entity, else DEFAULT */
+		ENTITIES
+	}
+
+	private static final Transition DEFAULT = new Transition(null, Action.DEFAULT);
+	private static final Transition ENTITIES = new Transition(null, Action.ENTITIES);
+
+	private final Map<String, IncomingMessage> root;
+	private final Map<Map<String, IncomingMessage>, State> states;
+	// reachable messages by id
+	private final Map<String, IncomingMessage> messages = new HashMap<String, IncomingMessage>();
+	private final State start;
+	// root messages by intent, shared by the states without followups
+	private final HashMap<String, Transition> restarts = new HashMap<String, Transition>();
+
+	private TransitionTable(Map<String, IncomingMessage> root) {
+		this.root = Collections.unmodifiableMap(new HashMap<String, IncomingMessage>(root));
+		this.start = new State(this.root);
+		for (Map.Entry<String, IncomingMessage> entry : this.root.entrySet()) {
+			restarts.put(entry.getKey(), new Transition(entry.getValue(), Action.RESTART));
+		}
+		IdentityHashMap<Map<String, IncomingMessage>, State> states = new IdentityHashMap<Map<String, IncomingMessage>, State>();
+		ArrayDeque<IncomingMessage> open = new ArrayDeque<IncomingMessage>(root.values());
+		while (!open.isEmpty()) {
+			IncomingMessage msg = open.poll();
+			if (msg.getId() != null) {
+				messages.put(msg.getId(), msg);
+			}
+			Map<String, IncomingMessage> followups = msg.getFollowingMessages();
+			if (followups == null || states.containsKey(followups)) {
+				continue;
+			}
+			states.put(followups, new State(this.root, restarts, followups));
+			open.addAll(followups.values());
+		}
+		this.states = states;
+	}
+
+	/**
+	 * @param rootChildren the messages that can start a conversation, by intent
+	 * @return the state machine of the messages
+	 */
+	public static TransitionTable compile(Map<String, IncomingMessage> rootChildren) {
+		return new TransitionTable(rootChildren);
+	}
+
+	/**
+	 * @param state       current state, null if there is no conversation
+	 * @param intent      keyword of the recognized intent
+	 * @param entityValue value of the first recognized entity, may be null
+	 * @param file        whether the message has a file
+	 * @param confident   whether the intent was recognized with enough
+	 *                    confidence or the message has a file
+	 * @return the transition
+	 */
+	public Transition next(IncomingMessage state, String intent, String entityValue, boolean file,
+			boolean confident) {
+		if (state == null) {
+			return start.nextFromRoot(intent, entityValue, file, confident);
+		}
+		return getState(state).next(intent, entityValue, file, confident);
+	}
+
+	/**
+	 * @param state a state
+	 * @return the message the state skips to, the state itself if it does not skip
+	 */
+	public IncomingMessage skip(IncomingMessage state) {
+		IncomingMessage skip = getState(state).skip;
+		return skip == null ? state : skip;
+	}
+
+	/**
+	 * @param keyword intent keyword
+	 * @return the message starting a conversation for the intent, null if there is none
+	 */
+	public IncomingMessage root(String keyword) {
+		return keyword == null ? null : root.get(keyword);
+	}
+
+	/**
+	 * @param id id of the node of an incoming message in the bot model
+	 * @return the message, null if it is not reachable
+	 */
+	public IncomingMessage getMessage(String id) {
+		return id == null ? null : messages.get(id);
+	}
+
+	private State getState(IncomingMessage state) {
+		Map<String, IncomingMessage> followups = state.getFollowingMessages();
+		State s = followups == null ? null : states.get(followups);
+		if (s == null) {
+			// not reachable when the table was compiled
+			s = new State(root, restarts, followups == null ? Collections.<String, IncomingMessage>emptyMap() : followups);
+		}
+		return s;
+	}
+
+	/**
+	 * The next state and what to do with it. Targets can be null, which ends the
+	 * conversation.
+	 */
+	public static class Transition {
+		private final IncomingMessage target;
+		private final Action action;
+
+		Transition(IncomingMessage target, Action action) {
+			this.target = target;
+			this.action = action;
+		}
+
+		public IncomingMessage getTarget() {
+			return target;
+		}
+
+		public Action getAction() {
+			return action;
+		}
+	}
+
+	private static class State {
+		// followup intent or entity value -> transition
+		final HashMap<String, Transition> withFile = new HashMap<String, Transition>();
+		final HashMap<String, Transition> withoutFile = new HashMap<String, Transition>();
+		final Transition otherWithFile;
+		final Transition otherWithoutFile;
+		final Transition unsureWithFile;
+		final Transition unsureWithoutFile;
+		final IncomingMessage skip;
+		final boolean end;
+		// every root message by intent, for the start state and states without followups
+		final Map<String, Transition> restart;
+		final Transition restartOther;
+
+		/**
+		 * The start state, before a conversation
+		 */
+		State(Map<String, IncomingMessage> root) {
+			this.restart = new HashMap<String, Transition>();
+			for (Map.Entry<String, IncomingMessage> entry : root.entrySet()) {
+				Transition t = new Transition(entry.getValue(), Action.UPDATE);
+				restart.put(entry.getKey(), t);
+				// a message expecting a file is only started by a file
+				(entry.getValue().expectsFile() ? withFile : withoutFile).put(entry.getKey(), t);
+			}
+			IncomingMessage defaultMessage = root.get("default");
+			IncomingMessage anyFile = root.get("anyFile");
+			this.otherWithFile = new Transition(anyFile != null ? anyFile : defaultMessage, Action.UPDATE);
+			// "0" is an empty intent that is accessible from the start state
+			this.otherWithoutFile = root.get("0") != null ? new Transition(root.get("0"), Action.UPDATE) : null;
+			this.unsureWithFile = new Transition(defaultMessage, Action.MOVE);
+			this.unsureWithoutFile = unsureWithFile;
+			this.restartOther = new Transition(defaultMessage, Action.UPDATE);
+			this.skip = null;
+			this.end = false;
+		}
+
+		State(Map<String, IncomingMessage> root, Map<String, Transition> restarts,
+				Map<String, IncomingMessage> followups) {
+			this.end = followups.isEmpty();
+			this.skip = followups.get("skip");
+			this.restart = end ? restarts : Collections.<String, Transition>emptyMap();
+			this.restartOther = end ? new Transition(null, Action.RESTART) : null;
+			for (Map.Entry<String, IncomingMessage> entry : followups.entrySet()) {
+				IncomingMessage msg = entry.getValue();
+				Transition t = new Transition(msg, Action.UPDATE);
+				withFile.put(entry.getKey(), msg.expectsFile() ? t : DEFAULT);
+				withoutFile.put(entry.getKey(), msg.expectsFile() ? DEFAULT : t);
+			}
+
+			IncomingMessage any = followups.get("any");
+			IncomingMessage empty = followups.get("");
+			IncomingMessage anyFile = followups.get("anyFile");
+			if (any != null) {
+				this.otherWithFile = new Transition(any, Action.UPDATE);
+				this.otherWithoutFile = otherWithFile;
+			} else if (empty != null || anyFile != null) {
+				// an empty leadsTo label takes every message
+				this.otherWithFile = anyFile != null ? new Transition(anyFile, Action.UPDATE)
+						: new Transition(root.get("default"), Action.MOVE);
+				this.otherWithoutFile = empty != null ? new Transition(empty, Action.UPDATE) : DEFAULT;
+			} else {
+				this.otherWithFile = ENTITIES;
+				this.otherWithoutFile = ENTITIES;
+			}
+
+			if (empty != null) {
+				this.unsureWithFile = empty.expectsFile() ? new Transition(empty, Action.MOVE) : DEFAULT;
+				this.unsureWithoutFile = empty.expectsFile() ? DEFAULT : new Transition(empty, Action.UPDATE);
+			} else {
+				this.unsureWithFile = DEFAULT;
+				this.unsureWithoutFile = DEFAULT;
+			}
+		}
+
+		Transition next(String intent, String entityValue, boolean file, boolean confident) {
+			if (!confident) {
+				return file ? unsureWithFile : unsureWithoutFile;
+			}
+			if (end) {
+				Transition t = intent == null ? null : restart.get(intent);
+				return t == null ? restartOther : t;
+			}
+			HashMap<String, Transition> followups = file ? withFile : withoutFile;
+			Transition t = intent == null ? null : followups.get(intent);
+			if (t == null && entityValue != null) {
+				t = followups.get(entityValue);
+			}
+			if (t == null) {
+				t = file ? otherWithFile : otherWithoutFile;
+			}
+			return t;
+		}
+
+		Transition nextFromRoot(String intent, String entityValue, boolean file, boolean confident) {
+			if (!confident) {
+				return file ? unsureWithFile : unsureWithoutFile;
+			}
+			Transition t = intent == null ? null : (file ? withFile : withoutFile).get(intent);
+			if (t != null) {
+				return t;
+			}
+			if (file) {
+				return otherWithFile;
+			}
+			if (otherWithoutFile != null) {
+				return otherWithoutFile;
+			}
+			// any message named like the entity value, even if it expects a file
+			t = entityValue == null ? null : restart.get(entityValue);
+			return t == null ? restartOther : t;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Delivers trigger events (IntentTriggerEvent, RoutineTriggerEvent) inside the
+ * service, instead of sending them to its own REST endpoints.
+ *
+ * Every event type has one handler. Events are handled on a bounded pool, if
+ * its queue is full the publishing thread handles the event itself, which slows
+ * down the producer instead of dropping the event.
+ */
+public class TriggerEventBus {
+
+	public static final int DEFAULT_THREADS = 8;
+	public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+	private static TriggerEventBus instance = null;
+
+	private final ConcurrentHashMap<Class<?>, Consumer<Object>> handlers = new ConcurrentHashMap<Class<?>, Consumer<Object>>();
+	private volatile ThreadPoolExecutor pool = null;
+
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong unhandled = new AtomicLong();
+
+	protected TriggerEventBus() {
+	}
+
+	public static synchronized TriggerEventBus getInstance() {
+		if (instance == null) {
+			instance = new TriggerEventBus();
+		}
+		return instance;
+	}
+
+	/**
+	 * Creates the pool the events are handled on. The queue size only has an
+	 * effect before the first call.
+	 *
+	 * @param threads   maximum number of events handled at the same time
+	 * @param queueSize events waiting for a thread
+	 */
+	public synchronized void configure(int threads, int queueSize) {
+		int size = threads > 0 ? threads : DEFAULT_THREADS;
+		if (pool == null) {
+			AtomicInteger count = new AtomicInteger();
+			ThreadFactory factory = r -> {
+				Thread t = new Thread(r, "sbf-trigger-event-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			};
+			pool = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(queueSize > 0 ? queueSize : DEFAULT_QUEUE_SIZE), factory,
+					new ThreadPoolExecutor.CallerRunsPolicy());
+			pool.allowCoreThreadTimeOut(true);
+		} else if (size > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(size);
+			pool.setCorePoolSize(size);
+		} else {
+			pool.setCorePoolSize(size);
+			pool.setMaximumPoolSize(size);
+		}
+	}
+
+	/**
+	 * Sets the handler of an event type, replacing the previous one.
+	 *
+	 * @param type    event type
+	 * @param handler handler of the events
+	 */
+	@SuppressWarnings("unchecked")
+	public <E> void setHandler(Class<E> type, Consumer<? super E> handler) {
+		handlers.put(type, (Consumer<Object>) handler);
+	}
+
+	/**
+	 * Hands the event to the handler of its type. Returns before the event is
+	 * handled, unless the queue is full.
+	 *
+	 * @param event the event
+	 */
+	public void publish(Object event) {
+		Consumer<Object> handler = handlers.get(event.getClass());
+		if (handler == null) {
+			unhandled.incrementAndGet();
+			System.out.println("No handler for " + event.getClass().getSimpleName());
+			return;
+		}
+		published.incrementAndGet();
+		Runnable task = () -> {
+			try {
+				handler.accept(event);
+			} catch (Exception e) {
+				failed.incrementAndGet();
+				e.printStackTrace();
+			}
+		};
+		ThreadPoolExecutor p = pool;
+		if (p == null) {
+			// not configured, handle it right away
+			task.run();
+		} else {
+			p.execute(task);
+		}
+	}
+
+	/**
+	 * Stops accepting events and waits a few seconds for the queued ones.
+	 */
+	public synchronized void shutdown() {
+		if (pool == null) {
+			return;
+		}
+		pool.shutdown();
+		try {
+			pool.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		pool = null;
+	}
+
+	/**
+	 * @return events waiting for a thread
+	 */
+	public int getQueueDepth() {
+		ThreadPoolExecutor p = pool;
+		return p == null ? 0 : p.getQueue().size();
+	}
+
+	public long getPublished() {
+		return published.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public long getUnhandled() {
+		return unhandled.get();
+	}
+}
@@ -0,0 +1,371 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the work started by the trigger endpoints (intents, routines, button
+ * clicks, webhook events) after the request was answered.
+ *
+ * Tasks run on virtual threads if the JVM has them, otherwise on a pool of
+ * platform threads. A task is only started if less than maxConcurrent tasks
+ * run and less than perBotLimit of them belong to its bot, further tasks wait
+ * in a queue of queueSize tasks. Bots waiting for a free slot take turns. If
+ * the queue is full the rejection policy decides:
+ * <ul>
+ * <li>abort: the task is rejected, the endpoint answers with 503</li>
+ * <li>caller_runs: the request thread runs the task itself</li>
+ * <li>discard_oldest: the oldest waiting task of the same bot is dropped</li>
+ * </ul>
+ * On shutdown no new tasks are accepted and the waiting and running ones get
+ * some time to finish.
+ */
+public class TriggerExecutor {
+
+	public static final int DEFAULT_MAX_CONCURRENT = 64;
+	public static final int DEFAULT_PER_BOT_LIMIT = 16;
+	public static final int DEFAULT_QUEUE_SIZE = 1000;
+	public static final int DEFAULT_DRAIN_TIMEOUT = 10; // seconds
+	public static final String ABORT = "abort";
+	public static final String CALLER_RUNS = "caller_runs";
+	public static final String DISCARD_OLDEST = "discard_oldest";
+
+	private static TriggerExecutor instance = null;
+
+	private int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+	private int perBotLimit = DEFAULT_PER_BOT_LIMIT;
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+	private int drainTimeout = DEFAULT_DRAIN_TIMEOUT;
+	private String rejectionPolicy = ABORT;
+
+	private ExecutorService executor = null;
+	private boolean virtualThreads = false;
+	private volatile boolean shuttingDown = false;
+
+	// bot name -> tasks of the bot that wait or run
+	private final HashMap<String, BotTasks> bots = new HashMap<String, BotTasks>();
+	// bots with waiting tasks that only wait for a free slot of maxConcurrent
+	private final ArrayDeque<String> ready = new ArrayDeque<String>();
+	private int queued = 0;
+	private int active = 0;
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong discarded = new AtomicLong();
+	private final AtomicLong totalWaitTime = new AtomicLong(); // ms
+	private final AtomicLong totalRunTime = new AtomicLong(); // ms
+	private final AtomicLong maxRunTime = new AtomicLong(); // ms
+
+	protected TriggerExecutor() {
+	}
+
+	public static synchronized TriggerExecutor getInstance() {
+		if (instance == null) {
+			instance = new TriggerExecutor();
+		}
+		return instance;
+	}
+
+	/**
+	 * Sets up the executor. The thread limits only have an effect before the
+	 * first call.
+	 *
+	 * @param maxConcurrent   tasks running at the same time
+	 * @param perBotLimit     tasks of one bot running at the same time
+	 * @param queueSize       tasks waiting to run
+	 * @param rejectionPolicy abort, caller_runs or discard_oldest
+	 * @param drainTimeout    seconds to wait for tasks on shutdown
+	 */
+	public synchronized void configure(int maxConcurrent, int perBotLimit, int queueSize, String rejectionPolicy,
+			int drainTimeout) {
+		if (executor == null) {
+			if (maxConcurrent > 0) {
+				this.maxConcurrent = maxConcurrent;
+			}
+			this.executor = createExecutor(this.maxConcurrent);
+		}
+		if (perBotLimit > 0) {
+			this.perBotLimit = perBotLimit;
+		}
+		if (queueSize >= 0) {
+			this.queueSize = queueSize;
+		}
+		if (CALLER_RUNS.equals(rejectionPolicy) || DISCARD_OLDEST.equals(rejectionPolicy)) {
+			this.rejectionPolicy = rejectionPolicy;
+		} else {
+			this.rejectionPolicy = ABORT;
+		}
+		if (drainTimeout >= 0) {
+			this.drainTimeout = drainTimeout;
+		}
+	}
+
+	private ExecutorService createExecutor(int threads) {
+		try {
+			// Java 21 and later, looked up so that the service still runs on 17
+			ExecutorService virtual = (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			virtualThreads = true;
+			return virtual;
+		} catch (ReflectiveOperationException e) {
+			AtomicInteger count = new AtomicInteger();
+			ThreadFactory factory = r -> {
+				Thread t = new Thread(r, "sbf-trigger-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			};
+			return Executors.newFixedThreadPool(threads, factory);
+		}
+	}
+
+	/**
+	 * Runs the task in the background.
+	 *
+	 * @param botName bot the task belongs to
+	 * @param task    the task
+	 * @return false if the task was rejected
+	 */
+	public boolean submit(String botName, Runnable task) {
+		String key = botName == null ? "" : botName;
+		Task t = new Task(key, task);
+		boolean runHere = false;
+		synchronized (this) {
+			if (executor == null) {
+				configure(maxConcurrent, perBotLimit, queueSize, rejectionPolicy, drainTimeout);
+			}
+			if (shuttingDown) {
+				rejected.incrementAndGet();
+				return false;
+			}
+			BotTasks b = bots.computeIfAbsent(key, k -> new BotTasks());
+			if (b.running < perBotLimit && active < maxConcurrent) {
+				b.running++;
+				active++;
+				submitted.incrementAndGet();
+				start(t);
+				return true;
+			}
+			if (queued < queueSize) {
+				b.waiting.add(t);
+				queued++;
+				submitted.incrementAndGet();
+				markReady(key, b);
+				return true;
+			}
+			if (DISCARD_OLDEST.equals(rejectionPolicy) && !b.waiting.isEmpty()) {
+				b.waiting.poll();
+				b.waiting.add(t);
+				discarded.incrementAndGet();
+				submitted.incrementAndGet();
+				return true;
+			}
+			if (!CALLER_RUNS.equals(rejectionPolicy)) {
+				rejected.incrementAndGet();
+				return false;
+			}
+			submitted.incrementAndGet();
+			runHere = true;
+		}
+		if (runHere) {
+			t.run(false);
+		}
+		return true;
+	}
+
+	/**
+	 * Needs the lock.
+	 */
+	private void start(Task t) {
+		executor.execute(() -> t.run(true));
+	}
+
+	/**
+	 * Needs the lock. Lets the bot take its turn for the next free slot if it
+	 * has waiting tasks and may run another one.
+	 */
+	private void markReady(String key, BotTasks b) {
+		if (!b.ready && !b.waiting.isEmpty() && b.running < perBotLimit) {
+			b.ready = true;
+			ready.add(key);
+		}
+	}
+
+	private synchronized void finished(String key) {
+		BotTasks b = bots.get(key);
+		b.running--;
+		active--;
+		markReady(key, b);
+		// start waiting tasks while there are free slots, one bot after the other
+		while (active < maxConcurrent && !ready.isEmpty()) {
+			String next = ready.poll();
+			BotTasks n = bots.get(next);
+			if (n == null) {
+				continue;
+			}
+			n.ready = false;
+			if (n.waiting.isEmpty() || n.running >= perBotLimit) {
+				continue;
+			}
+			Task t = n.waiting.poll();
+			queued--;
+			n.running++;
+			active++;
+			start(t);
+			markReady(next, n);
+		}
+		if (b.running == 0 && b.waiting.isEmpty()) {
+			bots.remove(key);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Stops accepting tasks and waits up to the drain timeout for the queued and
+	 * running ones. Tasks still waiting after that are dropped. The next call of
+	 * configure or submit sets up a new executor.
+	 */
+	public void shutdown() {
+		ExecutorService e;
+		synchronized (this) {
+			if (executor == null || shuttingDown) {
+				return;
+			}
+			shuttingDown = true;
+			long end = System.currentTimeMillis() + drainTimeout * 1000L;
+			long left;
+			while (active > 0 && (left = end - System.currentTimeMillis()) > 0) {
+				try {
+					wait(left);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			if (active > 0) {
+				System.out.println(active + " trigger tasks did not finish in time");
+			}
+			if (queued > 0) {
+				System.out.println(queued + " waiting trigger tasks are dropped");
+				discarded.addAndGet(queued);
+				for (BotTasks b : bots.values()) {
+					b.waiting.clear();
+					b.ready = false;
+				}
+				ready.clear();
+				queued = 0;
+				bots.values().removeIf(b -> b.running == 0);
+			}
+			e = executor;
+		}
+		e.shutdownNow();
+		synchronized (this) {
+			executor = null;
+			shuttingDown = false;
+		}
+	}
+
+	public boolean usesVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * @return tasks waiting for a free slot
+	 */
+	public synchronized int getQueueDepth() {
+		return queued;
+	}
+
+	/**
+	 * @return tasks that were started and did not finish yet
+	 */
+	public synchronized int getRunning() {
+		return active;
+	}
+
+	public long getSubmitted() {
+		return submitted.get();
+	}
+
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public long getDiscarded() {
+		return discarded.get();
+	}
+
+	/**
+	 * @return average ms a task waited before it ran
+	 */
+	public long getAverageWaitTime() {
+		long n = completed.get() + failed.get();
+		return n == 0 ? 0 : totalWaitTime.get() / n;
+	}
+
+	/**
+	 * @return average ms a task ran
+	 */
+	public long getAverageRunTime() {
+		long n = completed.get() + failed.get();
+		return n == 0 ? 0 : totalRunTime.get() / n;
+	}
+
+	public long getMaxRunTime() {
+		return maxRunTime.get();
+	}
+
+	private static class BotTasks {
+		final ArrayDeque<Task> waiting = new ArrayDeque<Task>();
+		int running = 0;
+		// whether the bot is in the ready queue
+		boolean ready = false;
+	}
+
+	private class Task {
+		final String key;
+		final Runnable task;
+		final long created = System.currentTimeMillis();
+
+		Task(String key, Runnable task) {
+			this.key = key;
+			this.task = task;
+		}
+
+		void run(boolean managed) {
+			try {
+				long start = System.currentTimeMillis();
+				totalWaitTime.addAndGet(start - created);
+				try {
+					task.run();
+					completed.incrementAndGet();
+				} catch (Exception e) {
+					failed.incrementAndGet();
+					e.printStackTrace();
+				}
+				long time = System.currentTimeMillis() - start;
+				totalRunTime.addAndGet(time);
+				maxRunTime.accumulateAndGet(time, Math::max);
+			} finally {
+				if (managed) {
+					finished(key);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The service function triggers of a bot, prepared when the bot is parsed.
+ *
+ * Maps the name of a trigger function to the functions it triggers. For each
+ * triggered function the path and the way its attributes are filled are
+ * worked out once. The attributes of all bot functions are indexed by id.
+ */
+public class TriggerTable {
+
+	private final Map<String, List<CompiledTrigger>> triggers;
+	private final Map<String, ServiceFunctionAttribute> attributes;
+
+	private TriggerTable(Map<String, List<CompiledTrigger>> triggers, Map<String, ServiceFunctionAttribute> attributes) {
+		this.triggers = triggers;
+		this.attributes = attributes;
+	}
+
+	/**
+	 * @param bot a parsed bot
+	 * @return the triggers of the bot
+	 */
+	public static TriggerTable compile(Bot bot) {
+		HashMap<String, List<CompiledTrigger>> triggers = new HashMap<String, List<CompiledTrigger>>();
+		for (Trigger trigger : bot.getTriggerList()) {
+			// only service functions trigger by name, routines and messages are handled elsewhere
+			if (trigger.getTriggerFunction() instanceof ServiceFunction) {
+				String name = ((ServiceFunction) trigger.getTriggerFunction()).getFunctionName();
+				triggers.computeIfAbsent(name, k -> new ArrayList<CompiledTrigger>())
+						.add(new CompiledTrigger(trigger.getTriggeredFunction()));
+			}
+		}
+		for (Map.Entry<String, List<CompiledTrigger>> entry : triggers.entrySet()) {
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+		HashMap<String, ServiceFunctionAttribute> attributes = new HashMap<String, ServiceFunctionAttribute>();
+		for (ServiceFunction sf : bot.getBotServiceFunctions().values()) {
+			for (ServiceFunctionAttribute sfa : sf.getAttributes()) {
+				attributes.put(sfa.getId(), sfa);
+			}
+		}
+		return new TriggerTable(triggers, Collections.unmodifiableMap(attributes));
+	}
+
+	/**
+	 * @param functionName name of the function that was called
+	 * @return the functions it triggers
+	 */
+	public List<CompiledTrigger> get(String functionName) {
+		List<CompiledTrigger> list = functionName == null ? null : triggers.get(functionName);
+		return list == null ? Collections.<CompiledTrigger>emptyList() : list;
+	}
+
+	/**
+	 * @return the attributes of all bot functions by id, not modifiable
+	 */
+	public Map<String, ServiceFunctionAttribute> getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * A function that is triggered, with its path and attribute mappings.
+	 */
+	public static class CompiledTrigger {
+		private final ServiceFunction function;
+		private final String functionPath;
+		private final List<AttributeMapping> mappings;
+
+		CompiledTrigger(ServiceFunction function) {
+			this.function = function;
+			// only service functions are called with a path
+			if (function.getActionType().equals(ActionType.SERVICE)
+					|| function.getActionType().equals(ActionType.OPENAPI)) {
+				this.functionPath = function.getFunctionPath();
+			} else {
+				this.functionPath = "";
+			}
+			List<AttributeMapping> mappings = new ArrayList<AttributeMapping>();
+			for (ServiceFunctionAttribute sfa : function.getAttributes()) {
+				mappings.add(new AttributeMapping(sfa, functionPath));
+			}
+			this.mappings = Collections.unmodifiableList(mappings);
+		}
+
+		public ServiceFunction getFunction() {
+			return function;
+		}
+
+		public String getFunctionPath() {
+			return functionPath;
+		}
+
+		public List<AttributeMapping> getMappings() {
+			return mappings;
+		}
+	}
+
+	/**
+	 * How an attribute of a triggered function is filled. Attributes that take
+	 * the value of an attribute of the trigger ("same as") are resolved here,
+	 * the others are mapped by the service.
+	 */
+	public static class AttributeMapping {
+		private final ServiceFunctionAttribute attribute;
+		private final String sourceName;
+		private final boolean pathParameter;
+
+		AttributeMapping(ServiceFunctionAttribute attribute, String functionPath) {
+			this.attribute = attribute;
+			if (attribute.isSameAsTrigger() && attribute.getMappedTo() != null) {
+				this.sourceName = attribute.getMappedTo().getName();
+			} else {
+				this.sourceName = null;
+			}
+			this.pathParameter = functionPath != null && functionPath.contains("{" + attribute.getName() + "}");
+		}
+
+		public ServiceFunctionAttribute getAttribute() {
+			return attribute;
+		}
+
+		/**
+		 * @return name of the trigger attribute the value is taken from, null if the
+		 *         attribute is not mapped to the trigger
+		 */
+		public String getSourceName() {
+			return sourceName;
+		}
+
+		/**
+		 * @return whether the attribute is a placeholder in the function path
+		 */
+		public boolean isPathParameter() {
+			return pathParameter;
+		}
+	}
+}
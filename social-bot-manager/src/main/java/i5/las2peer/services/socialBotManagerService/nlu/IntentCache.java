@@ -0,0 +1,213 @@
+package i5.las2peer.services.socialBotManagerService.nlu;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.minidev.json.JSONObject;
+
+/**
+ * Size and time bounded cache for Rasa parse results.
+ *
+ * Entries are keyed on the Rasa URL, the model that is loaded on that server
+ * and the normalized text. Once a new model is loaded through the
+ * TrainingHelper, the entries of the old model are not used anymore and are
+ * removed.
+ */
+public class IntentCache {
+
+	public static final int DEFAULT_MAX_SIZE = 10000;
+	public static final int DEFAULT_TTL = 600; // seconds
+
+	private static IntentCache instance = null;
+
+	private int maxSize = DEFAULT_MAX_SIZE;
+	private long ttlMillis = DEFAULT_TTL * 1000L;
+
+	/**
+	 * Key: Rasa URL
+	 * Value: file of the model that was loaded last
+	 */
+	private final ConcurrentHashMap<String, String> loadedModels = new ConcurrentHashMap<String, String>();
+
+	// access ordered, the eldest entry is the least recently used one
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	protected IntentCache() {
+	}
+
+	public static synchronized IntentCache getInstance() {
+		if (instance == null) {
+			instance = new IntentCache();
+		}
+		return instance;
+	}
+
+	/**
+	 * @param maxSize maximum number of cached parse results, 0 disables the cache
+	 * @param ttl     seconds after which a cached result is not used anymore
+	 */
+	public synchronized void configure(int maxSize, int ttl) {
+		this.maxSize = Math.max(0, maxSize);
+		this.ttlMillis = Math.max(0, ttl) * 1000L;
+		trim();
+	}
+
+	/**
+	 * @param url  Rasa URL
+	 * @param text text that was sent to Rasa
+	 * @return the cached response of Rasa or null
+	 */
+	public JSONObject get(String url, String text) {
+		return get(key(url, text));
+	}
+
+	/**
+	 * @param key key from {@link #key(String, String)}
+	 * @return the cached response of Rasa or null
+	 */
+	public JSONObject get(Key key) {
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null && System.currentTimeMillis() - entry.created <= ttlMillis) {
+				hits.incrementAndGet();
+				return entry.json;
+			}
+			if (entry != null) {
+				entries.remove(key);
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	public void put(String url, String text, JSONObject json) {
+		put(key(url, text), json);
+	}
+
+	/**
+	 * Caches a response under a key taken before the request was sent. Responses
+	 * of a model that was replaced in the meantime are not cached.
+	 *
+	 * @param key  key from {@link #key(String, String)}
+	 * @param json response of Rasa
+	 */
+	public void put(Key key, JSONObject json) {
+		if (json == null || !key.model.equals(loadedModels.getOrDefault(key.url, ""))) {
+			return;
+		}
+		synchronized (this) {
+			if (maxSize == 0) {
+				return;
+			}
+			entries.put(key, new Entry(json, System.currentTimeMillis()));
+			trim();
+		}
+	}
+
+	/**
+	 * Called after a new model was loaded on the given Rasa server. Drops the
+	 * entries of the previous model.
+	 *
+	 * @param url       Rasa URL
+	 * @param modelFile file of the new model
+	 */
+	public void modelLoaded(String url, String modelFile) {
+		String normalizedUrl = normalizeUrl(url);
+		loadedModels.put(normalizedUrl, modelFile == null ? "" : modelFile);
+		synchronized (this) {
+			entries.keySet().removeIf(k -> k.url.equals(normalizedUrl));
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private void trim() {
+		Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+		while (entries.size() > maxSize && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	/**
+	 * @param url  Rasa URL
+	 * @param text text that is sent to Rasa
+	 * @return the key of the text for the model that is loaded now
+	 */
+	public Key key(String url, String text) {
+		String normalizedUrl = normalizeUrl(url);
+		return new Key(normalizedUrl, loadedModels.getOrDefault(normalizedUrl, ""), normalizeText(text));
+	}
+
+	private static String normalizeUrl(String url) {
+		String result = url == null ? "" : url.trim();
+		while (result.endsWith("/")) {
+			result = result.substring(0, result.length() - 1);
+		}
+		return result;
+	}
+
+	private static String normalizeText(String text) {
+		return text == null ? "" : text.trim().replaceAll("\\s+", " ");
+	}
+
+	public static final class Key {
+		private final String url;
+		private final String model;
+		private final String text;
+
+		Key(String url, String model, String text) {
+			this.url = url;
+			this.model = model;
+			this.text = text;
+		}
+
+		/**
+		 * @return file of the model the key was taken for
+		 */
+		public String getModel() {
+			return model;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return url.equals(k.url) && model.equals(k.model) && text.equals(k.text);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(url, model, text);
+		}
+	}
+
+	private static class Entry {
+		private final JSONObject json;
+		private final long created;
+
+		Entry(JSONObject json, long created) {
+			this.json = json;
+			this.created = created;
+		}
+	}
+}
@@ -1,19 +1,10 @@
 package i5.las2peer.services.socialBotManagerService.nlu;
 
-import java.io.IOException;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-import javax.ws.rs.core.MediaType;
-
-import org.apache.commons.lang3.StringEscapeUtils;
-
-import i5.las2peer.connectors.webConnector.client.ClientResponse;
-import i5.las2peer.connectors.webConnector.client.MiniClient;
 import net.minidev.json.JSONObject;
-import net.minidev.json.parser.JSONParser;
-import net.minidev.json.parser.ParseException;
 
 public class RasaNlu {
 	private String url;
@@ -36,31 +27,38 @@ public class RasaNlu {
     }
     
 	public Intent getIntent(String input) {
-		JSONObject intentJSON;
 		try {
-			intentJSON = getIntentJSON(input);
-			return new Intent(intentJSON);
-		} catch (IOException | ParseException e) {
+			return getIntentAsync(input).join();
+		} catch (CompletionException e) {
 			System.err.println("Error retrieving intent from Rasa NLU:");
-			e.printStackTrace();
+			e.getCause().printStackTrace();
 		}
 		return null;
 	}
 
-	private JSONObject getIntentJSON(String input) throws IOException, ParseException {
-		try {
-			MiniClient client = new MiniClient();
-			client.setConnectorEndpoint(this.url);
-			JSONObject inputJSON = new JSONObject(
-					Collections.singletonMap("text", StringEscapeUtils.escapeJson(input)));
-			HashMap<String, String> headers = new HashMap<String, String>();
-			ClientResponse response = client.sendRequest("POST", "model/parse", inputJSON.toString(),
-					MediaType.APPLICATION_JSON, MediaType.APPLICATION_JSON, headers);
-			JSONParser p = new JSONParser(JSONParser.MODE_PERMISSIVE);
-			return (JSONObject) p.parse(response.getResponse());
-		} catch (Exception e) {
-			e.printStackTrace();
-			return new JSONObject();
+	/**
+	 * Lets the Rasa server parse the given text without blocking the caller.
+	 * Texts that were parsed recently by the loaded model are answered from the
+	 * IntentCache.
+	 * 
+	 * @param input the text
+	 * @return the recognized intent
+	 */
+	public CompletableFuture<Intent> getIntentAsync(String input) {
+		IntentCache cache = IntentCache.getInstance();
+		// taken before sending, the model may change until Rasa answers
+		IntentCache.Key key = cache.key(this.url, input);
+		JSONObject cached = cache.get(key);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(new Intent(cached));
 		}
+		return RasaNluClient.getClient(this.url).parseJSON(key.getModel(), input).thenApply(json -> {
+			cache.put(key, json);
+			return new Intent(json);
+		});
+	}
+
+	public String getUrl() {
+		return this.url;
 	}
 }
@@ -0,0 +1,217 @@
+package i5.las2peer.services.socialBotManagerService.nlu;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+import javax.ws.rs.core.MediaType;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+
+import net.minidev.json.JSONObject;
+import net.minidev.json.parser.JSONParser;
+
+/**
+ * Asynchronous client for the parse endpoint of one Rasa server.
+ *
+ * There is one client per Rasa URL. It keeps its connections open between
+ * requests, limits the number of requests that are sent to the server at the
+ * same time and merges parse requests for the same text that are still in
+ * flight.
+ */
+public class RasaNluClient {
+
+	public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 32;
+	public static final int DEFAULT_CONNECT_TIMEOUT = 5000; // ms
+	public static final int DEFAULT_REQUEST_TIMEOUT = 30000; // ms
+
+	private static int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+	private static int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private static int requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+
+	/**
+	 * Key: Rasa URL
+	 * Value: client for that server
+	 */
+	private static final ConcurrentHashMap<String, RasaNluClient> clients = new ConcurrentHashMap<String, RasaNluClient>();
+
+	private final String url;
+	private final URI parseUri;
+	private final HttpClient httpClient;
+	private final Duration timeout;
+
+	/**
+	 * Limits the requests that are sent at the same time. Requests that do not
+	 * get a permit wait in `waiting` until a running request finished.
+	 */
+	private final Semaphore permits;
+	private final ConcurrentLinkedQueue<Runnable> waiting = new ConcurrentLinkedQueue<Runnable>();
+
+	/**
+	 * Parse requests that were sent but not answered yet.
+	 * Key: model that was loaded when the request was sent and text to parse
+	 * Value: pending response of Rasa
+	 */
+	private final ConcurrentHashMap<List<String>, CompletableFuture<JSONObject>> inFlight = new ConcurrentHashMap<List<String>, CompletableFuture<JSONObject>>();
+
+	private RasaNluClient(String url) {
+		this.url = url;
+		String base = url.endsWith("/") ? url : url + "/";
+		this.parseUri = URI.create(base + "model/parse");
+		this.httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofMillis(connectTimeout)).build();
+		this.timeout = Duration.ofMillis(requestTimeout);
+		this.permits = new Semaphore(maxConcurrentRequests);
+	}
+
+	/**
+	 * Sets the limits used for clients that are created afterwards.
+	 *
+	 * @param maxConcurrent     maximum number of requests sent to one Rasa server
+	 *                          at the same time
+	 * @param connectTimeoutMs  connect timeout in milliseconds
+	 * @param requestTimeoutMs  timeout of a single parse request in milliseconds
+	 */
+	public static void configure(int maxConcurrent, int connectTimeoutMs, int requestTimeoutMs) {
+		if (maxConcurrent > 0) {
+			maxConcurrentRequests = maxConcurrent;
+		}
+		if (connectTimeoutMs > 0) {
+			connectTimeout = connectTimeoutMs;
+		}
+		if (requestTimeoutMs > 0) {
+			requestTimeout = requestTimeoutMs;
+		}
+	}
+
+	/**
+	 * @param url URL of the Rasa server
+	 * @return the client for the given Rasa server
+	 */
+	public static RasaNluClient getClient(String url) {
+		return clients.computeIfAbsent(url, RasaNluClient::new);
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Lets Rasa parse the given text.
+	 *
+	 * @param input the text
+	 * @return the recognized intent. Completes exceptionally if Rasa could not be
+	 *         reached or returned an invalid response.
+	 */
+	public CompletableFuture<Intent> parse(String input) {
+		String model = IntentCache.getInstance().key(url, input).getModel();
+		// every caller gets its own Intent object, only the response is shared
+		return parseJSON(model, input).thenApply(json -> new Intent(json));
+	}
+
+	/**
+	 * Lets Rasa parse the given text. If the same text is already being parsed
+	 * by the same model, the pending response is reused. Requests sent before a
+	 * new model was loaded do not answer the callers of the new model.
+	 *
+	 * @param model file of the model that is loaded on the server, see
+	 *              {@link IntentCache#key(String, String)}
+	 * @param input the text
+	 * @return the response of Rasa
+	 */
+	public CompletableFuture<JSONObject> parseJSON(String model, String input) {
+		List<String> key = Arrays.asList(model, input);
+		CompletableFuture<JSONObject> created = new CompletableFuture<JSONObject>();
+		CompletableFuture<JSONObject> pending = inFlight.putIfAbsent(key, created);
+		if (pending != null) {
+			return pending;
+		}
+		created.whenComplete((json, e) -> inFlight.remove(key, created));
+		submit(() -> send(input, created));
+		return created;
+	}
+
+	private void send(String input, CompletableFuture<JSONObject> result) {
+		HttpRequest request;
+		try {
+			JSONObject inputJSON = new JSONObject(
+					Collections.singletonMap("text", StringEscapeUtils.escapeJson(input)));
+			request = HttpRequest.newBuilder(parseUri).timeout(timeout)
+					.header("Content-Type", MediaType.APPLICATION_JSON).header("Accept", MediaType.APPLICATION_JSON)
+					.POST(HttpRequest.BodyPublishers.ofString(inputJSON.toString(), StandardCharsets.UTF_8)).build();
+		} catch (Exception e) {
+			release();
+			result.completeExceptionally(e);
+			return;
+		}
+		CompletableFuture<HttpResponse<String>> sent;
+		try {
+			sent = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+		} catch (Exception e) {
+			// completing the result also removes it from inFlight
+			release();
+			result.completeExceptionally(e);
+			return;
+		}
+		sent.whenComplete((response, e) -> {
+			release();
+			if (e != null) {
+				result.completeExceptionally(e);
+				return;
+			}
+			try {
+				if (response.statusCode() != 200) {
+					throw new IllegalStateException(
+							"Rasa at " + url + " answered with HTTP " + response.statusCode());
+				}
+				JSONParser p = new JSONParser(JSONParser.MODE_PERMISSIVE);
+				result.complete((JSONObject) p.parse(response.body()));
+			} catch (Exception ex) {
+				result.completeExceptionally(ex);
+			}
+		});
+	}
+
+	private void submit(Runnable request) {
+		if (permits.tryAcquire()) {
+			request.run();
+		} else {
+			waiting.add(request);
+			// a request might have finished in the meantime
+			drain();
+		}
+	}
+
+	private void release() {
+		permits.release();
+		drain();
+	}
+
+	private void drain() {
+		while (!waiting.isEmpty() && permits.tryAcquire()) {
+			Runnable next = waiting.poll();
+			if (next == null) {
+				permits.release();
+				return;
+			}
+			next.run();
+		}
+	}
+
+	/**
+	 * @return number of parse requests that were sent but not answered yet
+	 */
+	public int getPendingRequests() {
+		return inFlight.size();
+	}
+}
@@ -61,6 +61,9 @@ public class TrainingHelper implements Runnable {
 			response = client.sendRequest("PUT", "model", json.toString(), MediaType.APPLICATION_JSON + ";charset=utf-8",
 					MediaType.APPLICATION_JSON + ";charset=utf-8", headers);
 			this.success = response.getHttpCode() == 204;
+			if (this.success) {
+				IntentCache.getInstance().modelLoaded(url, "models/" + filename);
+			}
 		} else {
 			json.put("nlu", markdownTrainingData);
 			HashMap<String, String> headers = new HashMap<String, String>();
@@ -79,6 +82,9 @@ public class TrainingHelper implements Runnable {
 			response = client.sendRequest("PUT", "model", json.toString(), MediaType.APPLICATION_JSON + ";charset=utf-8",
 					MediaType.APPLICATION_JSON + ";charset=utf-8", headers);
 			this.success = response.getHttpCode() == 204;
+			if (this.success) {
+				IntentCache.getInstance().modelLoaded(url, "models/" + filename);
+			}
 		}
 	}
 
@@ -29,6 +29,7 @@ import i5.las2peer.services.socialBotManagerService.model.BotModelEdge;
 import i5.las2peer.services.socialBotManagerService.model.BotModelNode;
 import i5.las2peer.services.socialBotManagerService.model.BotModelNodeAttribute;
 import i5.las2peer.services.socialBotManagerService.model.BotModelValue;
+import i5.las2peer.services.socialBotManagerService.model.BotRegistry;
 import i5.las2peer.services.socialBotManagerService.model.IfThenBlock;
 import i5.las2peer.services.socialBotManagerService.model.IncomingMessage;
 import i5.las2peer.services.socialBotManagerService.model.IntentEntity;
@@ -39,7 +40,10 @@ import i5.las2peer.services.socialBotManagerService.model.NLUKnowledge;
 import i5.las2peer.services.socialBotManagerService.model.ServiceFunction;
 import i5.las2peer.services.socialBotManagerService.model.ServiceFunctionAttribute;
 import i5.las2peer.services.socialBotManagerService.model.Trigger;
+import i5.las2peer.services.socialBotManagerService.model.TriggerTable;
+import i5.las2peer.services.socialBotManagerService.model.TransitionTable;
 import i5.las2peer.services.socialBotManagerService.model.BotRoutine;
+import i5.las2peer.services.socialBotManagerService.model.RoutineScheduler;
 import i5.las2peer.tools.CryptoException;
 import net.minidev.json.JSONArray;
 import net.minidev.json.JSONObject;
@@ -111,6 +115,7 @@ public class BotParser {
 				messengers.put(entry.getKey(), m);
 			} else if (nodeType.equals("Incoming Message")) {
 				IncomingMessage m = addIncomingMessage(entry.getKey(), elem, config);
+				m.setId(entry.getKey());
 				incomingMessages.put(entry.getKey(), m);
 			} else if (nodeType.equals("Intent Entity")) {
 				IntentEntity entity = addIntentEntity(entry.getKey(), elem, config);
@@ -396,6 +401,13 @@ public class BotParser {
 					+ " inputs and " + checkGeneratorOuts + " outputs.");
 		}
 
+		bot.setTriggerTable(TriggerTable.compile(bot));
+		for (Messenger m : messengers.values()) {
+			m.setTransitionTable(TransitionTable.compile(m.getRootChildren()));
+			m.setBotName(bot.getName());
+		}
+		RoutineScheduler.getInstance().schedule(bot);
+		BotRegistry.getInstance().register(bot);
 
 		JSONArray jaf = swaggerHelperFunction(bot);
 
@@ -674,6 +686,7 @@ public class BotParser {
 		String messengerID = "";
 		String service = "";
 		String sfName = "";
+		String conversationWindow = "";
 		for (Entry<String, BotModelNodeAttribute> subEntry : elem.getAttributes().entrySet()) {
 			BotModelNodeAttribute subElem = subEntry.getValue();
 			BotModelValue subVal = subElem.getValue();
@@ -686,6 +699,8 @@ public class BotParser {
 				actionType = subVal.getValue();
 			} else if (name.equals("Messenger Name")) {
 				messengerID = subVal.getValue();
+			} else if (name.equals("Conversation Window")) {
+				conversationWindow = subVal.getValue();
 			}          
 		}
 		if(sfName.equals("")){
@@ -694,6 +709,13 @@ public class BotParser {
 		if(service.equals("")){
 			throw new ParseBotException("Bot Action missing service name");
 		}
+		if (conversationWindow != null && !conversationWindow.trim().equals("")) {
+			try {
+				sf.setConversationWindow(Integer.parseInt(conversationWindow.trim()));
+			} catch (NumberFormatException e) {
+				throw new ParseBotException("Bot Action conversation window is not a number");
+			}
+		}
 
 		if (actionType.equals("SendMessage")) {
 			sf.setActionType(ActionType.SENDMESSAGE);
@@ -0,0 +1,65 @@
+package i5.las2peer.services.socialBotManagerService;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Tests the parsing of Range headers for RESTful chat file downloads.
+ */
+public class RESTfulChatResourceTest {
+
+	private static long[] parse(String range, long length) {
+		return SocialBotManagerService.RESTfulChatResource.parseRange(range, length);
+	}
+
+	@Test
+	public void testWholeFile() {
+		assertNull(parse(null, 100));
+		assertNull(parse("", 100));
+		assertNull(parse("items=0-10", 100));
+		// multiple ranges are answered with the whole file
+		assertNull(parse("bytes=0-10,20-30", 100));
+	}
+
+	@Test
+	public void testRange() {
+		assertRange(0, 9, parse("bytes=0-9", 100));
+		assertRange(10, 10, parse("bytes=10-10", 100));
+		assertRange(50, 99, parse("bytes=50-", 100));
+		assertRange(0, 99, parse(" bytes= 0 - 99 ", 100));
+		// the last byte is cut to the file length
+		assertRange(90, 99, parse("bytes=90-1000", 100));
+	}
+
+	@Test
+	public void testSuffixRange() {
+		assertRange(80, 99, parse("bytes=-20", 100));
+		assertRange(0, 99, parse("bytes=-500", 100));
+	}
+
+	@Test
+	public void testUnsatisfiable() {
+		assertEquals(0, parse("bytes=100-", 100).length);
+		assertEquals(0, parse("bytes=200-300", 100).length);
+		assertEquals(0, parse("bytes=-0", 100).length);
+		assertEquals(0, parse("bytes=0-", 0).length);
+		assertEquals(0, parse("bytes=-10", 0).length);
+	}
+
+	@Test
+	public void testInvalid() {
+		assertNull(parse("bytes=", 100));
+		assertNull(parse("bytes=abc", 100));
+		assertNull(parse("bytes=a-b", 100));
+		assertNull(parse("bytes=-", 100));
+		// the last byte before the first one makes the header invalid, it is ignored
+		assertNull(parse("bytes=20-10", 100));
+	}
+
+	private static void assertRange(long start, long end, long[] range) {
+		assertArrayEquals(new long[] { start, end }, range);
+	}
+}
@@ -0,0 +1,90 @@
+package i5.las2peer.services.socialBotManagerService.chat.xAPI;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Parses the built statements with Gson and checks that every value comes
+ * back unchanged.
+ */
+public class IntentStatementBuilderTest {
+
+	private static final String CONTROL = "\u0000\u0001\b\f\n\r\t\u001f\u007f";
+
+	@Test
+	public void testPlainValues() {
+		check(IntentStatementBuilder.createDefault(), "0f1e2d3c", "MentoringBot", "greeting", "Hi!");
+	}
+
+	@Test
+	public void testQuotes() {
+		check(IntentStatementBuilder.createDefault(), "a\"b'c", "Bot \"Q\"", "ask_'deadline'\"",
+				"He said \"hi\" and 'bye'");
+	}
+
+	@Test
+	public void testBackslashes() {
+		check(IntentStatementBuilder.createDefault(), "\\", "Bot\\", "\\\"intent\\\"",
+				"C:\\Users\\new \\u0041 \\\\ end\\");
+	}
+
+	@Test
+	public void testControlCharacters() {
+		check(IntentStatementBuilder.createDefault(), "user" + CONTROL, CONTROL + "Bot", "in\ntent\t" + CONTROL,
+				"line 1\nline 2\r\n\ttabbed" + CONTROL);
+	}
+
+	@Test
+	public void testUnicodeAndEmpty() {
+		check(IntentStatementBuilder.createDefault(), "", "Bötchen", "", "Grüße 你好 😀 \u2028\u2029 </script>");
+	}
+
+	@Test
+	public void testVerbAndAuthority() {
+		xAPIVerb verb = new xAPIVerb();
+		verb.setId("https://example.org/verb/\"sent\"");
+		verb.getDisplay().setEnEN("sent \\ \"chat\"\n");
+		IntentStatementBuilder builder = new IntentStatementBuilder(verb, "https://example.org/\"home\"",
+				"Client \"1\"\t", "mailto:a\\b@example.org");
+		JsonObject statement = check(builder, "user", "Bot", "intent", "text");
+
+		JsonObject v = statement.getAsJsonObject("verb");
+		assertEquals(verb.getId(), v.get("id").getAsString());
+		assertEquals(verb.getDisplay().getEnEN(), v.getAsJsonObject("display").get("en-US").getAsString());
+
+		JsonObject authority = statement.getAsJsonObject("authority");
+		assertEquals("Agent", authority.get("objectType").getAsString());
+		assertEquals("Client \"1\"\t", authority.get("name").getAsString());
+		assertEquals("mailto:a\\b@example.org", authority.get("mbox").getAsString());
+		assertEquals("https://example.org/\"home\"", statement.getAsJsonObject("actor").getAsJsonObject("account")
+				.get("homePage").getAsString());
+	}
+
+	private static JsonObject check(IntentStatementBuilder builder, String userMail, String botName, String intent,
+			String text) {
+		String json = builder.build(userMail, botName, intent, text);
+		JsonObject statement = JsonParser.parseString(json).getAsJsonObject();
+
+		JsonObject extension = statement.getAsJsonObject("context").getAsJsonObject("extensions")
+				.getAsJsonObject(IntentStatementBuilder.INTENT_EXTENSION);
+		assertEquals(botName, extension.get("botName").getAsString());
+		assertEquals(text, extension.get("text").getAsString());
+
+		JsonObject actor = statement.getAsJsonObject("actor");
+		assertEquals("Agent", actor.get("objectType").getAsString());
+		assertEquals(userMail, actor.getAsJsonObject("account").get("name").getAsString());
+
+		JsonObject object = statement.getAsJsonObject("object");
+		JsonObject definition = object.getAsJsonObject("definition");
+		assertEquals(intent, definition.getAsJsonObject("name").get("en-US").getAsString());
+		assertEquals(intent, definition.getAsJsonObject("description").get("en-US").getAsString());
+		assertEquals(IntentStatementBuilder.BOT_ACTIVITY_TYPE, definition.get("type").getAsString());
+		assertEquals(IntentStatementBuilder.BOT_ID_PREFIX + botName, object.get("id").getAsString());
+		assertEquals("Activity", object.get("objectType").getAsString());
+		return statement;
+	}
+}
@@ -0,0 +1,232 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Encodes models with every codec, decodes them again and compares the result
+ * field by field.
+ */
+public class BotModelCodecTest {
+
+	private static final String TEXT = "Grüße, ça va? Привет 你好 😀 \"quoted\" \\ \n\t";
+
+	@After
+	public void tearDown() {
+		BotModelCodec.setDefault(BotModelCodec.DEFAULT_CODEC);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		for (String codec : Arrays.asList("smile", "json")) {
+			BotModelCodec.setDefault(codec);
+			BotModel model = model();
+			byte[] data = BotModelCodec.encode(model);
+			assertTrue(codec, BotModelCodec.isCurrent(Arrays.copyOf(data, BotModelCodec.HEADER_LENGTH)));
+			assertModelEquals(model, BotModelCodec.decode(new ByteArrayInputStream(data)));
+		}
+	}
+
+	@Test
+	public void testEmptyModel() throws IOException {
+		for (String codec : Arrays.asList("smile", "json")) {
+			BotModelCodec.setDefault(codec);
+			BotModel model = new BotModel();
+			BotModel decoded = BotModelCodec.decode(new ByteArrayInputStream(BotModelCodec.encode(model)));
+			assertNull(decoded.getAttributes());
+			assertNull(decoded.getNodes());
+			assertNull(decoded.getEdges());
+
+			model.setNodes(new LinkedHashMap<String, BotModelNode>());
+			model.setEdges(new LinkedHashMap<String, BotModelEdge>());
+			decoded = BotModelCodec.decode(new ByteArrayInputStream(BotModelCodec.encode(model)));
+			assertTrue(decoded.getNodes().isEmpty());
+			assertTrue(decoded.getEdges().isEmpty());
+		}
+	}
+
+	@Test
+	public void testOtherCodecIsRead() throws IOException {
+		BotModelCodec.setDefault("json");
+		BotModel model = model();
+		byte[] data = BotModelCodec.encode(model);
+		BotModelCodec.setDefault("smile");
+		assertFalse(BotModelCodec.isCurrent(Arrays.copyOf(data, BotModelCodec.HEADER_LENGTH)));
+		assertModelEquals(model, BotModelCodec.decode(new ByteArrayInputStream(data)));
+	}
+
+	@Test
+	public void testJavaSerialized() throws IOException {
+		BotModel model = model();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+		oos.writeObject(model);
+		oos.close();
+		byte[] data = out.toByteArray();
+		assertFalse(BotModelCodec.isCurrent(Arrays.copyOf(data, BotModelCodec.HEADER_LENGTH)));
+		assertModelEquals(model, BotModelCodec.decode(new ByteArrayInputStream(data)));
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownFormat() throws IOException {
+		BotModelCodec.decode(new ByteArrayInputStream("{\"nodes\":{}}".getBytes()));
+	}
+
+	@Test
+	public void testHeader() throws IOException {
+		byte[] data = BotModelCodec.encode(model());
+		assertArrayEquals(new byte[] { 'S', 'B', 'F', 'M', BotModelCodec.SCHEMA_VERSION,
+				(byte) BotModelCodec.getDefault().getId() }, Arrays.copyOf(data, BotModelCodec.HEADER_LENGTH));
+	}
+
+	private static BotModel model() {
+		BotModel model = new BotModel();
+
+		BotModelAttribute attribute = new BotModelAttribute();
+		attribute.setLabel(label("l0", "", ""));
+		attribute.setType("");
+		attribute.setAttributes(new LinkedHashMap<String, BotModelNodeAttribute>());
+		model.setAttributes(attribute);
+
+		LinkedHashMap<String, BotModelNode> nodes = new LinkedHashMap<String, BotModelNode>();
+		BotModelNode bot = new BotModelNode();
+		bot.setLabel(label("l1", "Bot", TEXT));
+		bot.setLeft(1.5);
+		bot.setTop(-2);
+		bot.setWidth(100);
+		bot.setHeight(0);
+		bot.setzIndex(16);
+		bot.setType("Bot");
+		LinkedHashMap<String, BotModelNodeAttribute> attributes = new LinkedHashMap<String, BotModelNodeAttribute>();
+		attributes.put("a1", attribute("a1", "Name", "Bötchen"));
+		attributes.put("a2", attribute("a2", "Description", ""));
+		attributes.put("ä3", attribute("ä3", TEXT, null));
+		bot.setAttributes(attributes);
+		nodes.put("n1", bot);
+
+		BotModelNode message = new BotModelNode();
+		message.setType("Incoming Message");
+		message.setAttributes(new LinkedHashMap<String, BotModelNodeAttribute>());
+		nodes.put("n2", message);
+		model.setNodes(nodes);
+
+		LinkedHashMap<String, BotModelEdge> edges = new LinkedHashMap<String, BotModelEdge>();
+		BotModelEdge edge = new BotModelEdge();
+		edge.setLabel(label("l2", "", null));
+		edge.setSource("n1");
+		edge.setTarget("n2");
+		edge.setType("has");
+		LinkedHashMap<String, BotModelNodeAttribute> edgeAttributes = new LinkedHashMap<String, BotModelNodeAttribute>();
+		edgeAttributes.put("e1", attribute("e1", "", "日本語"));
+		edge.setAttributes(edgeAttributes);
+		edges.put("e1", edge);
+		model.setEdges(edges);
+		return model;
+	}
+
+	private static BotModelLabel label(String id, String name, String value) {
+		BotModelLabel label = new BotModelLabel();
+		label.setId(id);
+		label.setName(name);
+		label.setValue(value(id, value));
+		return label;
+	}
+
+	private static BotModelNodeAttribute attribute(String id, String name, String value) {
+		BotModelNodeAttribute attribute = new BotModelNodeAttribute();
+		attribute.setId(id);
+		attribute.setName(name);
+		attribute.setValue(value(id, value));
+		attribute.setOption(value == null ? null : "");
+		return attribute;
+	}
+
+	private static BotModelValue value(String id, String value) {
+		BotModelValue v = new BotModelValue();
+		v.setId(id);
+		v.setName(id);
+		v.setValue(value);
+		return v;
+	}
+
+	private static void assertModelEquals(BotModel expected, BotModel actual) {
+		assertNotNull(actual);
+		BotModelAttribute a = expected.getAttributes();
+		BotModelAttribute b = actual.getAttributes();
+		assertLabelEquals(a.getLabel(), b.getLabel());
+		assertEquals(a.getType(), b.getType());
+		assertAttributesEquals(a.getAttributes(), b.getAttributes());
+
+		assertEquals(new ArrayList<String>(expected.getNodes().keySet()),
+				new ArrayList<String>(actual.getNodes().keySet()));
+		for (Map.Entry<String, BotModelNode> entry : expected.getNodes().entrySet()) {
+			BotModelNode x = entry.getValue();
+			BotModelNode y = actual.getNodes().get(entry.getKey());
+			assertLabelEquals(x.getLabel(), y.getLabel());
+			assertEquals(x.getLeft(), y.getLeft(), 0);
+			assertEquals(x.getTop(), y.getTop(), 0);
+			assertEquals(x.getWidth(), y.getWidth(), 0);
+			assertEquals(x.getHeight(), y.getHeight(), 0);
+			assertEquals(x.getzIndex(), y.getzIndex(), 0);
+			assertEquals(x.getType(), y.getType());
+			assertAttributesEquals(x.getAttributes(), y.getAttributes());
+		}
+
+		assertEquals(new ArrayList<String>(expected.getEdges().keySet()),
+				new ArrayList<String>(actual.getEdges().keySet()));
+		for (Map.Entry<String, BotModelEdge> entry : expected.getEdges().entrySet()) {
+			BotModelEdge x = entry.getValue();
+			BotModelEdge y = actual.getEdges().get(entry.getKey());
+			assertLabelEquals(x.getLabel(), y.getLabel());
+			assertEquals(x.getSource(), y.getSource());
+			assertEquals(x.getTarget(), y.getTarget());
+			assertEquals(x.getType(), y.getType());
+			assertAttributesEquals(x.getAttributes(), y.getAttributes());
+		}
+	}
+
+	private static void assertAttributesEquals(LinkedHashMap<String, BotModelNodeAttribute> expected,
+			LinkedHashMap<String, BotModelNodeAttribute> actual) {
+		assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(actual.keySet()));
+		for (Map.Entry<String, BotModelNodeAttribute> entry : expected.entrySet()) {
+			BotModelNodeAttribute x = entry.getValue();
+			BotModelNodeAttribute y = actual.get(entry.getKey());
+			assertEquals(x.getId(), y.getId());
+			assertEquals(x.getName(), y.getName());
+			assertEquals(x.getOption(), y.getOption());
+			assertValueEquals(x.getValue(), y.getValue());
+		}
+	}
+
+	private static void assertLabelEquals(BotModelLabel expected, BotModelLabel actual) {
+		if (expected == null) {
+			assertNull(actual);
+			return;
+		}
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getName(), actual.getName());
+		assertValueEquals(expected.getValue(), actual.getValue());
+	}
+
+	private static void assertValueEquals(BotModelValue expected, BotModelValue actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getValue(), actual.getValue());
+	}
+}
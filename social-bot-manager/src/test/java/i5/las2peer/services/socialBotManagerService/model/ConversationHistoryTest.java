@@ -0,0 +1,119 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+
+public class ConversationHistoryTest {
+
+	@Test
+	public void testWrapAround() {
+		ConversationHistory history = new ConversationHistory(3);
+		for (int i = 1; i <= 7; i++) {
+			history.add(message(i));
+		}
+		assertEquals(3, history.size());
+		assertEquals("[5, 6, 7]", contents(history).toString());
+		assertEquals("7", history.getLast().getContent());
+	}
+
+	@Test
+	public void testNotFull() {
+		ConversationHistory history = new ConversationHistory(5);
+		assertNull(history.getLast());
+		assertTrue(history.window(0).isEmpty());
+		history.add(message(1));
+		history.add(message(2));
+		assertEquals(2, history.size());
+		assertEquals("[1, 2]", contents(history).toString());
+	}
+
+	@Test
+	public void testWindow() {
+		ConversationHistory history = new ConversationHistory(4);
+		for (int i = 1; i <= 6; i++) {
+			history.add(message(i));
+		}
+		assertEquals("[5, 6]", contents(history.window(2)).toString());
+		assertEquals("[3, 4, 5, 6]", contents(history.window(0)).toString());
+		assertEquals("[3, 4, 5, 6]", contents(history.window(10)).toString());
+
+		// a window is not changed by later messages
+		ConversationHistory.Window window = history.window(0);
+		history.add(message(7));
+		assertEquals("[3, 4, 5, 6]", contents(window).toString());
+	}
+
+	@Test
+	public void testReplaceLast() {
+		ConversationHistory history = new ConversationHistory(2);
+		history.replaceLast(message(1));
+		assertEquals("[1]", contents(history).toString());
+		for (int i = 2; i <= 4; i++) {
+			history.add(message(i));
+		}
+		history.replaceLast(message(5));
+		assertEquals("[3, 5]", contents(history).toString());
+	}
+
+	@Test
+	public void testClear() {
+		ConversationHistory history = new ConversationHistory(2);
+		for (int i = 1; i <= 3; i++) {
+			history.add(message(i));
+		}
+		history.clear();
+		assertEquals(0, history.size());
+		assertNull(history.getLast());
+		history.add(message(4));
+		assertEquals("[4]", contents(history).toString());
+	}
+
+	@Test
+	public void testJSON() {
+		ConversationHistory history = new ConversationHistory(2);
+		history.add(new ConversationMessage("c", "user", "Hi \"bot\""));
+		history.add(new ConversationMessage("c", "assistant", null));
+		history.add(new ConversationMessage("c", "user", "a\nb"));
+		assertEquals("[{\"role\":\"assistant\",\"content\":null},{\"role\":\"user\",\"content\":\"a\\nb\"}]",
+				history.window(0).toJSONString());
+		assertEquals("[]", new ConversationHistory(2).window(0).toJSONString());
+	}
+
+	@Test
+	public void testJSONArray() {
+		ConversationHistory history = new ConversationHistory(2);
+		history.add(new ConversationMessage("c", "user", "Hi"));
+		history.add(new ConversationMessage("c", "assistant", null));
+		JSONArray array = history.window(0).toJSONArray();
+		assertEquals(2, array.size());
+		JSONObject first = (JSONObject) array.get(0);
+		assertEquals(2, first.size());
+		assertEquals("user", first.get("role"));
+		assertEquals("Hi", first.get("content"));
+		JSONObject second = (JSONObject) array.get(1);
+		assertTrue(second.containsKey("content"));
+		assertNull(second.get("content"));
+		assertFalse(second.containsKey("conversationId"));
+	}
+
+	private static ConversationMessage message(int i) {
+		return new ConversationMessage("c", "user", Integer.toString(i));
+	}
+
+	private static ArrayList<String> contents(Iterable<ConversationMessage> messages) {
+		ArrayList<String> contents = new ArrayList<String>();
+		for (ConversationMessage m : messages) {
+			contents.add(m.getContent());
+		}
+		return contents;
+	}
+}
@@ -0,0 +1,123 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import org.junit.Test;
+
+public class CronExpressionTest {
+
+	private static final ZoneId UTC = ZoneId.of("UTC");
+	private static final ZoneId BERLIN = ZoneId.of("Europe/Berlin");
+
+	@Test
+	public void testStep() {
+		CronExpression cron = new CronExpression("*/15 * * * *");
+		assertEquals(time(2024, 9, 2, 10, 15), cron.next(time(2024, 9, 2, 10, 7)));
+		// the next time is after the given one
+		assertEquals(time(2024, 9, 2, 10, 30), cron.next(time(2024, 9, 2, 10, 15)));
+		assertEquals(time(2024, 9, 2, 11, 0), cron.next(time(2024, 9, 2, 10, 59)));
+	}
+
+	@Test
+	public void testRangeAndList() {
+		CronExpression cron = new CronExpression("0 8-10,14 * * *");
+		assertEquals(time(2024, 9, 2, 8, 0), cron.next(time(2024, 9, 2, 7, 0)));
+		assertEquals(time(2024, 9, 2, 14, 0), cron.next(time(2024, 9, 2, 10, 0)));
+		assertEquals(time(2024, 9, 3, 8, 0), cron.next(time(2024, 9, 2, 14, 0)));
+	}
+
+	@Test
+	public void testDayOfMonthOrDayOfWeek() {
+		// the 13th or any Friday
+		CronExpression cron = new CronExpression("0 9 13 * FRI");
+		assertEquals(time(2024, 9, 6, 9, 0), cron.next(time(2024, 9, 1, 0, 0)));
+		assertEquals(time(2024, 9, 13, 9, 0), cron.next(time(2024, 9, 6, 9, 0)));
+		assertEquals(time(2024, 9, 20, 9, 0), cron.next(time(2024, 9, 13, 9, 0)));
+		assertEquals(time(2024, 10, 4, 9, 0), cron.next(time(2024, 9, 27, 9, 0)));
+		assertEquals(time(2024, 10, 13, 9, 0), cron.next(time(2024, 10, 11, 9, 0)));
+	}
+
+	@Test
+	public void testOnlyOneDayFieldRestricted() {
+		CronExpression mondays = new CronExpression("0 9 * * 1");
+		assertEquals(time(2024, 9, 2, 9, 0), mondays.next(time(2024, 8, 31, 0, 0)));
+		CronExpression first = new CronExpression("0 9 1 * *");
+		assertEquals(time(2024, 10, 1, 9, 0), first.next(time(2024, 9, 1, 9, 0)));
+	}
+
+	@Test
+	public void testSundayIsZeroOrSeven() {
+		ZonedDateTime monday = time(2024, 9, 2, 0, 0);
+		ZonedDateTime sunday = time(2024, 9, 8, 0, 0);
+		assertEquals(sunday, new CronExpression("0 0 * * 0").next(monday));
+		assertEquals(sunday, new CronExpression("0 0 * * 7").next(monday));
+		assertEquals(sunday, new CronExpression("0 0 * * SUN").next(monday));
+
+		CronExpression weekend = new CronExpression("0 0 * * 6-7");
+		assertEquals(time(2024, 9, 7, 0, 0), weekend.next(monday));
+		assertEquals(sunday, weekend.next(time(2024, 9, 7, 0, 0)));
+		assertEquals(time(2024, 9, 14, 0, 0), weekend.next(sunday));
+	}
+
+	@Test
+	public void testMonthNames() {
+		CronExpression cron = new CronExpression("0 0 1 jan,Jul *");
+		assertEquals(time(2025, 1, 1, 0, 0), cron.next(time(2024, 9, 2, 0, 0)));
+		assertEquals(time(2025, 7, 1, 0, 0), cron.next(time(2025, 1, 1, 0, 0)));
+	}
+
+	@Test
+	public void testNeverMatching() {
+		assertNull(new CronExpression("0 0 30 2 *").next(time(2024, 1, 1, 0, 0)));
+	}
+
+	@Test
+	public void testSkippedTime() {
+		// the clocks go from 02:00 to 03:00 on 31 March 2024
+		CronExpression cron = new CronExpression("30 2 * * *");
+		ZonedDateTime before = ZonedDateTime.of(2024, 3, 30, 3, 0, 0, 0, BERLIN);
+		assertEquals(ZonedDateTime.of(2024, 4, 1, 2, 30, 0, 0, BERLIN), cron.next(before));
+		assertEquals(ZonedDateTime.of(2024, 3, 31, 3, 0, 0, 0, BERLIN),
+				new CronExpression("0 3 * * *").next(ZonedDateTime.of(2024, 3, 31, 0, 0, 0, 0, BERLIN)));
+	}
+
+	@Test
+	public void testRepeatedTime() {
+		// the clocks go from 03:00 back to 02:00 on 27 October 2024
+		CronExpression cron = new CronExpression("30 2 * * *");
+		ZonedDateTime first = cron.next(ZonedDateTime.of(2024, 10, 27, 0, 0, 0, 0, BERLIN));
+		assertEquals(7200, first.getOffset().getTotalSeconds());
+		assertEquals(2, first.getHour());
+		assertEquals(ZonedDateTime.of(2024, 10, 28, 2, 30, 0, 0, BERLIN), cron.next(first));
+
+		// runs every half hour, also in the repeated hour
+		CronExpression halfHourly = new CronExpression("*/30 * * * *");
+		ZonedDateTime second = halfHourly.next(first);
+		assertEquals(2, second.getHour());
+		assertEquals(0, second.getMinute());
+		assertEquals(3600, second.getOffset().getTotalSeconds());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooFewFields() {
+		new CronExpression("0 9 * *");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testValueOutOfRange() {
+		new CronExpression("60 * * * *");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidName() {
+		new CronExpression("0 0 * * FOO");
+	}
+
+	private static ZonedDateTime time(int year, int month, int day, int hour, int minute) {
+		return ZonedDateTime.of(year, month, day, hour, minute, 0, 0, UTC);
+	}
+}
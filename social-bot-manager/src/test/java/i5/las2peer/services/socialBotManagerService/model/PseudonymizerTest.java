@@ -0,0 +1,86 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PseudonymizerTest {
+
+	@Test
+	public void testSameAsBigIntegerFormatting() throws Exception {
+		Pseudonymizer pseudonymizer = new Pseudonymizer();
+		String[] inputs = { "", "alice", "alice@example.org", "Jörg Müller", "user with spaces", "äöüß" };
+		for (String input : inputs) {
+			assertEquals(input, sha384(input), pseudonymizer.pseudonymize(input));
+		}
+		Random random = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			String input = Long.toString(random.nextLong(), 36) + "@example.org";
+			assertEquals(input, sha384(input), pseudonymizer.pseudonymize(input));
+		}
+	}
+
+	@Test
+	public void testLeadingZeros() throws Exception {
+		// hashes starting with zero bytes were padded by the old formatting
+		Pseudonymizer pseudonymizer = new Pseudonymizer();
+		int found = 0;
+		for (int i = 0; found < 3 && i < 100000; i++) {
+			String input = "user" + i;
+			String expected = sha384(input);
+			if (expected.startsWith("00")) {
+				assertEquals(input, expected, pseudonymizer.pseudonymize(input));
+				assertEquals(96, pseudonymizer.pseudonymize(input).length());
+				found++;
+			}
+		}
+		assertEquals(3, found);
+	}
+
+	@Test
+	public void testNull() {
+		assertNull(new Pseudonymizer().pseudonymize(null));
+	}
+
+	@Test
+	public void testCache() throws Exception {
+		Pseudonymizer pseudonymizer = new Pseudonymizer();
+		pseudonymizer.configure(null, 2);
+		for (String input : new String[] { "a", "b", "c", "a", "b", "c" }) {
+			assertEquals(sha384(input), pseudonymizer.pseudonymize(input));
+		}
+	}
+
+	@Test
+	public void testHmac() throws Exception {
+		Pseudonymizer pseudonymizer = new Pseudonymizer();
+		pseudonymizer.configure("secret", 10);
+		String keyed = pseudonymizer.pseudonymize("alice");
+		assertEquals(96, keyed.length());
+		assertNotEquals(sha384("alice"), keyed);
+		assertEquals(keyed, pseudonymizer.pseudonymize("alice"));
+		// the cache is cleared when the key changes
+		pseudonymizer.configure("", 10);
+		assertEquals(sha384("alice"), pseudonymizer.pseudonymize("alice"));
+	}
+
+	/**
+	 * How SocialBotManagerService.encryptThisString formatted the hash before.
+	 */
+	private static String sha384(String input) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-384");
+		byte[] messageDigest = md.digest(input.getBytes());
+		BigInteger no = new BigInteger(1, messageDigest);
+		String hashtext = no.toString(16);
+		while (hashtext.getBytes("UTF-16BE").length * 8 < 1536) {
+			hashtext = "0" + hashtext;
+		}
+		return hashtext;
+	}
+}
@@ -0,0 +1,126 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import i5.las2peer.services.socialBotManagerService.nlu.Entity;
+
+public class ResponseTemplateTest {
+
+	private final Collection<Entity> entities = new ArrayList<Entity>(
+			Arrays.asList(new Entity("course", "Databases"), new Entity("grade", "1.3")));
+	private final Map<String, String> variables = new HashMap<String, String>();
+	private final Function<String, String> stored = name -> name.equals("email") ? "a@b.c" : "";
+
+	{
+		variables.put("name", "Alex");
+		variables.put("course", "Compilers");
+	}
+
+	@Test
+	public void testPlainText() {
+		assertEquals("Hello!", render("Hello!"));
+		assertEquals("", render(""));
+	}
+
+	@Test
+	public void testPlaceholders() {
+		assertEquals("Hi Alex, your grade in Databases is 1.3.", render("Hi [name], your grade in [course] is [grade]."));
+		assertEquals("Alex", render("[name]"));
+		assertEquals("Alex Alex", render("[name] [name]"));
+		assertEquals("AlexDatabases", render("[name][course]"));
+		assertEquals("mail: a@b.c", render("mail: [email]"));
+	}
+
+	@Test
+	public void testLookupOrder() {
+		// recognized entities before user variables before stored entities
+		assertEquals("Databases", render("[course]"));
+		assertEquals("Compilers",
+				ResponseTemplate.compile("[course]").render(null, variables, stored));
+		assertEquals("Alex", ResponseTemplate.compile("[name]").render(null, variables, n -> "Sam"));
+		assertEquals("Sam", ResponseTemplate.compile("[name]").render(null, null, n -> "Sam"));
+	}
+
+	@Test
+	public void testMissingValue() {
+		assertEquals("Hi [unknown]!", render("Hi [unknown]!"));
+		assertEquals("[]", render("[]"));
+		assertEquals("[x]", ResponseTemplate.compile("[x]").render(null, null, null));
+	}
+
+	@Test
+	public void testUnmatchedBrackets() {
+		assertEquals("a [b", render("a [b"));
+		assertEquals("a ]b[", render("a ]b["));
+		assertEquals("[a [b Alex c", render("[a [b [name] c"));
+		assertEquals("a [b Alex] c", render("a [b [name]] c"));
+	}
+
+	@Test
+	public void testLineBreaks() {
+		ResponseTemplate template = ResponseTemplate.compileResponse("Hi [name]\\nBye");
+		assertEquals("Hi [name]\\nBye", template.getResponse());
+		assertEquals("Hi Alex \n Bye \n ", template.render(entities, variables, stored));
+		assertEquals("Hi \n ", ResponseTemplate.compileResponse("Hi").render(null, null, null));
+	}
+
+	@Test
+	public void testSameAsReplace() {
+		String[] responses = { "Hello [name]!", "Your course: [course]\\nYour grade: [grade]",
+				"[name], please send your [unknown] to [email].", "No placeholders here\\n\\nat all",
+				"Grades: [grade] [grade] [grade]", "[course]" };
+		for (String response : responses) {
+			assertEquals(response, replace(response),
+					ResponseTemplate.compileResponse(response).render(entities, variables, stored));
+		}
+	}
+
+	private String render(String text) {
+		return ResponseTemplate.compile(text).render(entities, variables, stored);
+	}
+
+	/**
+	 * How Messenger filled in responses before they were compiled.
+	 */
+	private String replace(String response) {
+		String text = "";
+		for (String line : response.split("\\\\n")) {
+			text += line + " \n ";
+		}
+		for (String name : names(text)) {
+			for (Entity entity : entities) {
+				if (name.equals(entity.getEntityName()) && entity.getValue() != null) {
+					text = text.replace("[" + name + "]", entity.getValue());
+				}
+			}
+		}
+		for (String key : variables.keySet()) {
+			text = text.replace("[" + key + "]", variables.get(key));
+		}
+		for (String name : names(text)) {
+			String value = stored.apply(name);
+			if (!value.equals("")) {
+				text = text.replace("[" + name + "]", value);
+			}
+		}
+		return text;
+	}
+
+	private static ArrayList<String> names(String text) {
+		ArrayList<String> names = new ArrayList<String>();
+		String[] split = text.split("\\[");
+		for (int i = 1; i < split.length; i++) {
+			names.add(split[i].split("\\]")[0]);
+		}
+		return names;
+	}
+}
@@ -0,0 +1,208 @@
+package i5.las2peer.services.socialBotManagerService.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import i5.las2peer.services.socialBotManagerService.model.TransitionTable.Action;
+import i5.las2peer.services.socialBotManagerService.model.TransitionTable.Transition;
+
+/**
+ * Checks the transitions against the behavior of the if/else chain the table
+ * replaced in Messenger.handleMessage.
+ */
+public class TransitionTableTest {
+
+	private HashMap<String, IncomingMessage> root;
+	private IncomingMessage greet;
+	private IncomingMessage upload;
+	private IncomingMessage defaultMessage;
+	private IncomingMessage defaultX;
+	private IncomingMessage yes;
+	private IncomingMessage no;
+	private IncomingMessage document;
+
+	@Before
+	public void setUp() {
+		root = new HashMap<String, IncomingMessage>();
+		greet = add(message("greet", "greet", false));
+		upload = add(message("upload", "upload", true));
+		defaultMessage = add(message("default", "default", false));
+		defaultX = message("defaultX", "defaultX2", false);
+		root.put("defaultX", defaultX);
+
+		yes = message("yes", "yes", false);
+		no = message("no", "no", false);
+		document = message("document", "document", true);
+		greet.addFollowupMessage("yes", yes);
+		greet.addFollowupMessage("no", no);
+		greet.addFollowupMessage("document", document);
+		yes.addFollowupMessage("skip", message("skipped", "skipped", false));
+	}
+
+	@Test
+	public void testStart() {
+		TransitionTable table = TransitionTable.compile(root);
+		assertTransition(Action.UPDATE, greet, table.next(null, "greet", null, false, true));
+		assertTransition(Action.UPDATE, upload, table.next(null, "upload", null, true, true));
+		// unknown intent without "0" and entity value
+		assertTransition(Action.UPDATE, defaultMessage, table.next(null, "unknown", null, false, true));
+		// a message expecting a file is not started without one
+		assertTransition(Action.UPDATE, defaultMessage, table.next(null, "upload", null, false, true));
+		// a file for an intent not expecting one
+		assertTransition(Action.UPDATE, defaultMessage, table.next(null, "greet", null, true, true));
+	}
+
+	@Test
+	public void testStartWithEntityValue() {
+		TransitionTable table = TransitionTable.compile(root);
+		assertTransition(Action.UPDATE, greet, table.next(null, "unknown", "greet", false, true));
+		// the old chain took the message named like the entity value even if it expects a file
+		assertTransition(Action.UPDATE, upload, table.next(null, "unknown", "upload", false, true));
+	}
+
+	@Test
+	public void testStartWithEmptyIntent() {
+		IncomingMessage empty = add(message("empty", "0", false));
+		TransitionTable table = TransitionTable.compile(root);
+		assertTransition(Action.UPDATE, empty, table.next(null, "unknown", "greet", false, true));
+		assertTransition(Action.UPDATE, empty, table.next(null, "upload", null, false, true));
+		assertTransition(Action.UPDATE, greet, table.next(null, "greet", null, false, true));
+	}
+
+	@Test
+	public void testStartWithAnyFile() {
+		IncomingMessage anyFile = message("anyFile", "0", true);
+		root.put("anyFile", anyFile);
+		TransitionTable table = TransitionTable.compile(root);
+		assertTransition(Action.UPDATE, anyFile, table.next(null, "greet", null, true, true));
+		assertTransition(Action.UPDATE, upload, table.next(null, "upload", null, true, true));
+	}
+
+	@Test
+	public void testStartUnsure() {
+		TransitionTable table = TransitionTable.compile(root);
+		assertTransition(Action.MOVE, defaultMessage, table.next(null, "greet", null, false, false));
+		assertTransition(Action.MOVE, defaultMessage, table.next(null, "upload", null, true, false));
+	}
+
+	@Test
+	public void testFollowup() {
+		TransitionTable table = TransitionTable.compile(root);
+		assertTransition(Action.UPDATE, yes, table.next(greet, "yes", null, false, true));
+		assertTransition(Action.UPDATE, no, table.next(greet, "unknown", "no", false, true));
+		assertTransition(Action.UPDATE, document, table.next(greet, "document", null, true, true));
+		// a followup expecting a file is not taken without one and the other way round
+		assertTransition(Action.DEFAULT, null, table.next(greet, "document", null, false, true));
+		assertTransition(Action.DEFAULT, null, table.next(greet, "yes", null, true, true));
+	}
+
+	@Test
+	public void testNoMatchingFollowup() {
+		TransitionTable table = TransitionTable.compile(root);
+		assertTransition(Action.ENTITIES, null, table.next(greet, "unknown", null, false, true));
+		assertTransition(Action.ENTITIES, null, table.next(greet, "unknown", null, true, true));
+	}
+
+	@Test
+	public void testAny() {
+		IncomingMessage any = message("any", "any", false);
+		greet.addFollowupMessage("any", any);
+		TransitionTable table = TransitionTable.compile(root);
+		assertTransition(Action.UPDATE, any, table.next(greet, "unknown", null, false, true));
+		assertTransition(Action.UPDATE, any, table.next(greet, "unknown", null, true, true));
+		assertTransition(Action.UPDATE, yes, table.next(greet, "yes", null, false, true));
+	}
+
+	@Test
+	public void testEmptyLabel() {
+		IncomingMessage empty = message("empty", "empty", false);
+		greet.addFollowupMessage("", empty);
+		TransitionTable table = TransitionTable.compile(root);
+		assertTransition(Action.UPDATE, empty, table.next(greet, "unknown", null, false, true));
+		// a file without an "anyFile" followup gets the default message
+		assertTransition(Action.MOVE, defaultMessage, table.next(greet, "unknown", null, true, true));
+		// below the confidence threshold the empty label still takes the message
+		assertTransition(Action.UPDATE, empty, table.next(greet, "yes", null, false, false));
+		assertTransition(Action.DEFAULT, null, table.next(greet, "yes", null, true, false));
+	}
+
+	@Test
+	public void testEmptyLabelExpectingFile() {
+		IncomingMessage anyFile = message("anyFile", "anyFile", true);
+		greet.addFollowupMessage("", anyFile);
+		TransitionTable table = TransitionTable.compile(root);
+		assertEquals(anyFile, greet.getFollowingMessages().get("anyFile"));
+		assertTransition(Action.UPDATE, anyFile, table.next(greet, "unknown", null, true, true));
+		assertTransition(Action.DEFAULT, null, table.next(greet, "unknown", null, false, true));
+		assertTransition(Action.DEFAULT, null, table.next(greet, "unknown", null, true, false));
+	}
+
+	@Test
+	public void testUnsure() {
+		TransitionTable table = TransitionTable.compile(root);
+		assertTransition(Action.DEFAULT, null, table.next(greet, "yes", null, false, false));
+		assertTransition(Action.DEFAULT, null, table.next(greet, "document", null, true, false));
+	}
+
+	@Test
+	public void testEndState() {
+		TransitionTable table = TransitionTable.compile(root);
+		// the conversation starts over with the intent
+		assertTransition(Action.RESTART, greet, table.next(no, "greet", null, false, true));
+		assertTransition(Action.RESTART, upload, table.next(no, "upload", null, false, true));
+		assertTransition(Action.RESTART, null, table.next(no, "unknown", null, false, true));
+		assertTransition(Action.DEFAULT, null, table.next(no, "greet", null, false, false));
+	}
+
+	@Test
+	public void testSkip() {
+		TransitionTable table = TransitionTable.compile(root);
+		assertEquals("skipped", table.skip(yes).getId());
+		assertSame(greet, table.skip(greet));
+	}
+
+	@Test
+	public void testDefaultAnswerKeepsFollowups() {
+		TransitionTable table = TransitionTable.compile(root);
+		IncomingMessage answer = defaultX.withFollowupsOf(greet);
+		assertSame(greet, answer.getFollowupsOf());
+		assertTransition(Action.UPDATE, yes, table.next(answer, "yes", null, false, true));
+		// the message of the bot model is not changed
+		assertTransition(Action.RESTART, greet, table.next(defaultX, "greet", null, false, true));
+		assertSame(greet, defaultX.withFollowupsOf(answer).getFollowupsOf());
+	}
+
+	@Test
+	public void testGetMessage() {
+		TransitionTable table = TransitionTable.compile(root);
+		assertSame(document, table.getMessage("document"));
+		assertNull(table.getMessage("unknown"));
+		assertNull(table.getMessage(null));
+		assertSame(greet, table.root("greet"));
+		assertNull(table.root(null));
+	}
+
+	private IncomingMessage add(IncomingMessage msg) {
+		root.put(msg.getIntentKeyword(), msg);
+		return msg;
+	}
+
+	private static IncomingMessage message(String id, String intent, boolean file) {
+		IncomingMessage msg = new IncomingMessage(intent, "", file, new ArrayList<String>(), "", "", "", intent,
+				"text", false);
+		msg.setId(id);
+		return msg;
+	}
+
+	private static void assertTransition(Action action, IncomingMessage target, Transition transition) {
+		assertEquals(action, transition.getAction());
+		assertSame(target, transition.getTarget());
+	}
+}